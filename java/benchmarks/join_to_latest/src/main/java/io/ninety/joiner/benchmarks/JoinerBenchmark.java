@@ -0,0 +1,195 @@
+package io.ninety.joiner.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.AvroFieldsValueJoiner;
+import io.ninety.joiner.AvroKeyValueMapper;
+import io.ninety.joiner.AvroLastAggregator;
+import io.ninety.joiner.AvroTimestampExtractor;
+import io.ninety.joiner.GroupKey;
+import io.ninety.joiner.InternalAvroSerde;
+import io.ninety.joiner.JoinerMetrics;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JoinerBenchmark {
+
+	private static final int RECORDS = 1024; // a power of two, so that the next record is found with a mask
+	private static final String TOPIC = "x";
+
+	@Param("../../../schema/value.avsc")
+	public String schemaFile;
+
+	@Param({ "0", "16", "64" })
+	public int extraFields;
+
+	@Param({ "1", "1000", "100000" })
+	public int keyCardinality;
+
+	private GenericRecord[] lefts;
+	private GenericRecord[] rights;
+	private GenericRecord[] joins;
+	private ConsumerRecord<Object, Object>[] consumerRecords;
+	private byte[][] serialized;
+	private AvroFieldsValueJoiner joiner;
+	private AvroLastAggregator aggregator;
+	private AvroKeyValueMapper groupKeyMapper;
+	private AvroTimestampExtractor tsExtractor;
+	private Serializer<GenericRecord> serializer;
+	private Deserializer<GenericRecord> deserializer;
+	private Serializer<GenericRecord> internalSerializer;
+	private Deserializer<GenericRecord> internalDeserializer;
+	private GroupKey groupKey;
+	private int i;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws IOException {
+		final Schema schema = widen(new Schema.Parser().parse(new File(this.schemaFile)), this.extraFields);
+		final Random random = new Random(0);
+		this.lefts = new GenericRecord[RECORDS];
+		this.rights = new GenericRecord[RECORDS];
+		for (int n = 0; n < RECORDS; ++n) {
+			this.lefts[n] = record(schema, random, n * 1000L);
+			this.rights[n] = record(schema, random, n * 1000L - random.nextInt(5000));
+		}
+
+		// the joiner maps every field of each side
+		final JoinerMetrics metrics = JoinerMetrics.create("benchmark", 0);
+		this.joiner = AvroFieldsValueJoiner.create(mappings(schema, "_1"), mappings(schema, "_2"), metrics);
+		this.joins = new GenericRecord[RECORDS];
+		for (int n = 0; n < RECORDS; ++n) {
+			this.joins[n] = this.joiner.apply(this.lefts[n], this.rights[n]);
+		}
+		this.aggregator = AvroLastAggregator.create(AvroTimestampExtractor.create("event_time_2"), metrics);
+		this.groupKeyMapper = AvroKeyValueMapper.create(AvroTimestampExtractor.create("event_time_1"), "key2_1");
+		this.groupKey = this.groupKeyMapper.apply(null, this.joins[0]);
+
+		this.tsExtractor = AvroTimestampExtractor.create("event_time");
+		this.consumerRecords = new ConsumerRecord[RECORDS];
+		for (int n = 0; n < RECORDS; ++n) {
+			this.consumerRecords[n] = new ConsumerRecord<Object, Object>(TOPIC, 0, n, "rk1", this.lefts[n]);
+		}
+
+		final MockSchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+		final GenericAvroSerde serde = new GenericAvroSerde(schemaRegistry);
+		serde.configure(Collections.singletonMap(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "http://unused"), false);
+		this.serializer = serde.serializer();
+		this.deserializer = serde.deserializer();
+		final InternalAvroSerde internalSerde = InternalAvroSerde.create(schemaRegistry);
+		this.internalSerializer = internalSerde.serializer();
+		this.internalDeserializer = internalSerde.deserializer();
+		this.serialized = new byte[RECORDS][];
+		for (int n = 0; n < RECORDS; ++n) {
+			this.serialized[n] = this.serializer.serialize(TOPIC, this.lefts[n]);
+		}
+	}
+
+	@Benchmark
+	public GenericRecord join() {
+		final int n = next();
+		return this.joiner.apply(this.lefts[n], this.rights[n]);
+	}
+
+	@Benchmark
+	public GenericRecord aggregate() {
+		final int n = next();
+		return this.aggregator.apply(this.groupKey, this.joins[n], this.joins[(n + 1) & (RECORDS - 1)]);
+	}
+
+	@Benchmark
+	public GroupKey groupKey() {
+		return this.groupKeyMapper.apply(null, this.joins[next()]);
+	}
+
+	@Benchmark
+	public long extractTimestamp() {
+		return this.tsExtractor.extract(this.consumerRecords[next()], 0);
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		return this.serializer.serialize(TOPIC, this.lefts[next()]);
+	}
+
+	@Benchmark
+	public GenericRecord deserialize() {
+		return this.deserializer.deserialize(TOPIC, this.serialized[next()]);
+	}
+
+	@Benchmark
+	public GenericRecord serdeRoundTrip() {
+		return this.deserializer.deserialize(TOPIC, this.serializer.serialize(TOPIC, this.lefts[next()]));
+	}
+
+	@Benchmark
+	public GenericRecord internalSerdeRoundTrip() {
+		return this.internalDeserializer.deserialize(TOPIC, this.internalSerializer.serialize(TOPIC, this.lefts[next()]));
+	}
+
+	private int next() {
+		this.i = (this.i + 1) & (RECORDS - 1);
+		return this.i;
+	}
+
+	private GenericRecord record(Schema schema, Random random, long eventTime) {
+		final GenericData.Record r = new GenericData.Record(schema);
+		r.put("event_time", eventTime);
+		r.put("key1", "k1");
+		r.put("key2", "k" + random.nextInt(this.keyCardinality));
+		r.put("val", random.nextInt());
+		for (int n = 0; n < this.extraFields; ++n) {
+			r.put("extra_" + n, random.nextInt());
+		}
+		return r;
+	}
+
+	private static Schema widen(Schema schema, int extraFields) {
+		final List<Field> fields = new ArrayList<Field>();
+		schema.getFields().forEach(f -> fields.add(new Field(f.name(), f.schema(), f.doc(), f.defaultVal())));
+		for (int n = 0; n < extraFields; ++n) {
+			fields.add(new Field("extra_" + n, Schema.create(Schema.Type.INT), null, (Object) null));
+		}
+		return Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), false, fields);
+	}
+
+	private static Map<String, String> mappings(Schema schema, String suffix) {
+		final Map<String, String> m = new HashMap<String, String>();
+		schema.getFields().forEach(f -> m.put(f.name(), f.name() + suffix));
+		return m;
+	}
+}
@@ -0,0 +1,134 @@
+package io.ninety.joiner;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The retention of the join or group windows, i.e. how long after its window a late record is still accepted, which is
+ * either fixed or adapted to the lateness of the records.
+ *
+ * An adaptive retention starts at its maximum. The lateness that each record needed to be accepted is counted in
+ * buckets of a quarter of a power of two, and after each interval with enough records, the retention is set to the
+ * configured percentile of the last two intervals plus a margin, within the minimum and maximum.
+ */
+public final class AdaptiveRetention {
+
+	public static AdaptiveRetention fixed(long retentionMs) {
+		return new AdaptiveRetention(null, retentionMs, retentionMs, 100, 0, Long.MAX_VALUE, null);
+	}
+
+	public static AdaptiveRetention create(String name, long minMs, long maxMs, double percentile, long marginMs,
+			long intervalMs, JoinerMetrics metrics) {
+		if (minMs > maxMs || percentile <= 0 || percentile > 100) {
+			throw new RuntimeException("Bad adaptive " + name + " retention, min " + minMs + "ms, max " + maxMs
+					+ "ms, percentile " + percentile);
+		}
+		return new AdaptiveRetention(name, minMs, maxMs, percentile, marginMs, intervalMs, metrics);
+	}
+
+	public static final long MIN_SAMPLES = 1000; // in the last two intervals, before the retention is adapted
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveRetention.class);
+	private static final int BUCKETS = 4 * 48 + 2; // up to 2^48ms, and 0ms
+
+	private final String name;
+	private final long minMs;
+	private final long maxMs;
+	private final double percentile;
+	private final long marginMs;
+	private final long intervalMs;
+	private final JoinerMetrics metrics;
+	private volatile long retentionMs;
+	private volatile AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private AtomicLongArray previousCounts = new AtomicLongArray(BUCKETS);
+	private volatile long nextMs;
+
+	private AdaptiveRetention(String name, long minMs, long maxMs, double percentile, long marginMs, long intervalMs,
+			JoinerMetrics metrics) {
+		this.name = name;
+		this.minMs = minMs;
+		this.maxMs = maxMs;
+		this.percentile = percentile;
+		this.marginMs = marginMs;
+		this.intervalMs = intervalMs;
+		this.metrics = metrics;
+		this.retentionMs = maxMs;
+		this.nextMs = name == null ? Long.MAX_VALUE : System.currentTimeMillis() + intervalMs;
+	}
+
+	public boolean adaptive() {
+		return this.name != null;
+	}
+
+	public long retentionMs() {
+		return this.retentionMs;
+	}
+
+	// the maximum, which the topology and the stores that cannot adapt are built with
+	public long maxMs() {
+		return this.maxMs;
+	}
+
+	// the retention that a record needed to be accepted, which is 0 for records that are not late
+	public void record(long lateMs) {
+		if (this.name == null) {
+			return;
+		}
+		this.counts.incrementAndGet(bucket(lateMs));
+		final long nowMs = System.currentTimeMillis();
+		if (nowMs >= this.nextMs) {
+			adapt(nowMs);
+		}
+	}
+
+	private synchronized void adapt(long nowMs) {
+		if (nowMs < this.nextMs) {
+			return;
+		}
+		this.nextMs = nowMs + this.intervalMs;
+		final long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = this.counts.get(i) + this.previousCounts.get(i);
+			total += counts[i];
+		}
+		if (total < MIN_SAMPLES) {
+			return; // keep counting in the current interval
+		}
+		this.previousCounts = this.counts;
+		this.counts = new AtomicLongArray(BUCKETS);
+
+		// the upper bound of the bucket of the percentile
+		final long rank = (long) Math.ceil(total * this.percentile / 100);
+		long seen = 0;
+		int bucket = 0;
+		while (bucket < BUCKETS - 1 && (seen += counts[bucket]) < rank) {
+			++bucket;
+		}
+		final long lateMs = upper(bucket);
+		final long retentionMs = Math.max(this.minMs, Math.min(this.maxMs, lateMs + this.marginMs));
+		if (retentionMs != this.retentionMs) {
+			LOG.info("Changed the {} retention from {}ms to {}ms, as the p{} lateness of the last {} records is {}ms",
+					this.name, this.retentionMs, retentionMs, this.percentile, total, lateMs);
+			this.retentionMs = retentionMs;
+		}
+		if (this.metrics != null) {
+			this.metrics.retention(this.name, retentionMs, lateMs);
+		}
+	}
+
+	// 0ms, then 4 buckets per power of two
+	private static int bucket(long lateMs) {
+		if (lateMs <= 0) {
+			return 0;
+		}
+		final double log = Math.log(lateMs) / Math.log(2);
+		return (int) Math.min(BUCKETS - 1, 1 + Math.floor(log * 4));
+	}
+
+	private static long upper(int bucket) {
+		return bucket == 0 ? 0 : (long) Math.ceil(Math.pow(2, bucket / 4.0));
+	}
+}
@@ -0,0 +1,130 @@
+package io.ninety.joiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.KeyValueMapper;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * Drops the joined records that would not change the latest record of their group, before they are repartitioned.
+ *
+ * For each group key it keeps the aggregate timestamp, schema fingerprint and binary encoding of the latest record it
+ * has forwarded. A record with an earlier timestamp, or the same timestamp and encoding, would be kept over or be equal
+ * to the aggregate, so it is dropped, saving the repartition, the aggregate store and changelog writes and the output
+ * record. Records are only dropped in favour of one already forwarded, so this holds however the group keys are
+ * partitioned.
+ */
+public class AggregateChangeFilter implements Transformer<String, GenericRecord, KeyValue<String, GenericRecord>> {
+
+	public static AggregateChangeFilter create(String storeName,
+			KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper, AvroTimestampExtractor aggregateTsExtractor,
+			JoinerMetrics metrics) {
+		return new AggregateChangeFilter(storeName, groupKeyMapper, aggregateTsExtractor, metrics);
+	}
+
+	private static final int HEADER_SIZE = 2 * Long.BYTES;
+
+	private final String storeName;
+	private final KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper;
+	private final AvroTimestampExtractor aggregateTsExtractor;
+	private final JoinerMetrics metrics;
+	private final Map<Schema, Writer> writers = new HashMap<>();
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private BinaryEncoder encoder;
+	private WindowStore<GroupKey, byte[]> store;
+
+	private AggregateChangeFilter(String storeName, KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper,
+			AvroTimestampExtractor aggregateTsExtractor, JoinerMetrics metrics) {
+		this.storeName = storeName;
+		this.groupKeyMapper = groupKeyMapper;
+		this.aggregateTsExtractor = aggregateTsExtractor;
+		this.metrics = metrics;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void init(ProcessorContext context) {
+		this.metrics.bind(context);
+		this.store = (WindowStore<GroupKey, byte[]>) context.getStateStore(this.storeName);
+	}
+
+	@Override
+	public KeyValue<String, GenericRecord> transform(String key, GenericRecord value) {
+		if (value == null) {
+			return KeyValue.pair(key, value);
+		}
+		final long startNs = this.metrics.startTimer(JoinerMetrics.CHANGE_FILTER);
+		final GroupKey groupKey = this.groupKeyMapper.apply(key, value);
+		final long ts = this.aggregateTsExtractor.extract(value);
+		final byte[] state = state(ts, value);
+		final byte[] last = fetch(groupKey);
+		final boolean changed = last == null || isChange(last, state);
+		if (changed) {
+			this.store.put(groupKey, state, groupKey.timestamp());
+		}
+		this.metrics.aggregateChange(changed);
+		this.metrics.stopTimer(JoinerMetrics.CHANGE_FILTER, startNs);
+		return changed ? KeyValue.pair(key, value) : null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	// the same rule as AvroLastAggregator, where a later or equal timestamp replaces the aggregate, and equal records
+	// have equal encodings, apart from the order of map entries, which at worst forwards an unchanged record
+	private static boolean isChange(byte[] last, byte[] state) {
+		if (last.length < HEADER_SIZE) {
+			return true;
+		}
+		final long lastTs = ByteBuffer.wrap(last).getLong();
+		final long ts = ByteBuffer.wrap(state).getLong();
+		return ts > lastTs || (ts == lastTs && !Arrays.equals(last, state));
+	}
+
+	private byte[] state(long ts, GenericRecord value) {
+		final Writer writer = this.writers.computeIfAbsent(value.getSchema(), Writer::new);
+		this.out.reset();
+		this.encoder = EncoderFactory.get().directBinaryEncoder(this.out, this.encoder);
+		try {
+			this.out.write(ByteBuffer.allocate(HEADER_SIZE).putLong(ts).putLong(writer.fingerprint).array());
+			writer.datumWriter.write(value, this.encoder);
+			this.encoder.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Bad joined record for schema: " + value.getSchema().getFullName(), e);
+		}
+		return this.out.toByteArray();
+	}
+
+	private byte[] fetch(GroupKey groupKey) {
+		try (final WindowStoreIterator<byte[]> it = this.store.fetch(groupKey, groupKey.timestamp(),
+				groupKey.timestamp())) {
+			return it.hasNext() ? it.next().value : null;
+		}
+	}
+
+	private static final class Writer {
+		private final long fingerprint;
+		private final GenericDatumWriter<GenericRecord> datumWriter;
+
+		private Writer(Schema schema) {
+			this.fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+			this.datumWriter = new GenericDatumWriter<>(schema);
+		}
+	}
+}
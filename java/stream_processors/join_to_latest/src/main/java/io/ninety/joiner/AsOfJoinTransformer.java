@@ -0,0 +1,185 @@
+package io.ninety.joiner;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.KeyValueMapper;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.To;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * Joins each record of the driving stream to the nearest record at or before it in time from each other stream.
+ *
+ * Every stream keeps its records in a time-ordered window store, keyed by the record key and the where field value,
+ * with the values in their serialized form, so that a lookup only decodes the record that it picks. A driving record
+ * looks up the nearest past record in each other store by probing back from its time in ranges that double in size,
+ * so it reads about as many records as there are within twice the distance to that record, rather than the whole
+ * window of a high frequency stream. A record of another stream re-emits the driving records for which it is now the
+ * nearest past record, i.e. those between it and the next record of its stream, so late records correct earlier
+ * results. A driving record is only joined once every other stream has a record for it.
+ */
+public class AsOfJoinTransformer implements Transformer<String, GenericRecord, KeyValue<String, GenericRecord>> {
+
+	public static final int DRIVING_STREAM = 0;
+
+	// the transformer for one stream, which must be connected to the stores of all of the streams
+	public static AsOfJoinTransformer create(int stream, String[] storeNames, String whereField, long windowSizeMs,
+			Serde<GenericRecord> valueSerde, AvroFieldsValueJoiner joiner,
+			KeyValueMapper<String, GenericRecord, String> outKeyMapper, JoinerMetrics metrics) {
+		return new AsOfJoinTransformer(stream, storeNames, whereField, windowSizeMs, valueSerde, joiner, outKeyMapper,
+				metrics);
+	}
+
+	private static final char WHERE_SEPARATOR = '\u0000';
+	private static final long FIRST_PROBE_MS = 16;
+
+	private final int stream;
+	private final String[] storeNames;
+	private final String whereField;
+	private final long windowSizeMs;
+	private final Serializer<GenericRecord> serializer;
+	private final Deserializer<GenericRecord> deserializer;
+	private final AvroFieldsValueJoiner joiner;
+	private final KeyValueMapper<String, GenericRecord, String> outKeyMapper;
+	private final JoinerMetrics metrics;
+	private final WindowStore<String, byte[]>[] stores;
+	private final String[] changelogTopics; // the serde topics of the stores, as if they were typed stores
+	private final GenericRecord[] values;
+	private ProcessorContext context;
+
+	private AsOfJoinTransformer(int stream, String[] storeNames, String whereField, long windowSizeMs,
+			Serde<GenericRecord> valueSerde, AvroFieldsValueJoiner joiner,
+			KeyValueMapper<String, GenericRecord, String> outKeyMapper, JoinerMetrics metrics) {
+		this.stream = stream;
+		this.storeNames = storeNames;
+		this.whereField = whereField;
+		this.windowSizeMs = windowSizeMs;
+		this.serializer = valueSerde.serializer();
+		this.deserializer = valueSerde.deserializer();
+		this.joiner = joiner;
+		this.outKeyMapper = outKeyMapper;
+		this.metrics = metrics;
+		this.stores = stores(storeNames.length);
+		this.changelogTopics = new String[storeNames.length];
+		this.values = new GenericRecord[storeNames.length];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void init(ProcessorContext context) {
+		this.context = context;
+		this.metrics.bind(context);
+		for (int i = 0; i < this.storeNames.length; ++i) {
+			this.stores[i] = (WindowStore<String, byte[]>) context.getStateStore(this.storeNames[i]);
+			this.changelogTopics[i] = context.applicationId() + "-" + this.storeNames[i] + "-changelog";
+		}
+	}
+
+	@Override
+	public KeyValue<String, GenericRecord> transform(String key, GenericRecord value) {
+		if (key == null || value == null) {
+			return null;
+		}
+		final long startNs = this.metrics.startTimer(JoinerMetrics.ASOF_JOIN);
+		final long ts = this.context.timestamp();
+		final String storeKey = storeKey(key, value);
+		this.stores[this.stream].put(storeKey, this.serializer.serialize(this.changelogTopics[this.stream], value),
+				ts);
+		if (this.stream == DRIVING_STREAM) {
+			this.metrics.leftRecord();
+			join(key, storeKey, value, ts);
+		} else {
+			final long upperMs = nextTimestamp(storeKey, ts) - 1;
+			try (final WindowStoreIterator<byte[]> it = this.stores[DRIVING_STREAM].fetch(storeKey, ts, upperMs)) {
+				while (it.hasNext()) {
+					final KeyValue<Long, byte[]> driving = it.next();
+					this.values[this.stream] = value;
+					join(key, storeKey, decode(DRIVING_STREAM, driving.value), driving.key);
+				}
+			}
+		}
+		this.metrics.stopTimer(JoinerMetrics.ASOF_JOIN, startNs);
+		return null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private String storeKey(String key, GenericRecord value) {
+		return storeKey(key, value, this.whereField);
+	}
+
+	// the record key and the where field value, which records must share to be joined
+	static String storeKey(String key, GenericRecord value, String whereField) {
+		if (whereField == null) {
+			return key;
+		}
+		return storeKey(key, String.valueOf(value.get(whereField)));
+	}
+
+	static String storeKey(String key, String where) {
+		return key + WHERE_SEPARATOR + where;
+	}
+
+	// joins the driving record to the latest records of the other streams, apart from this one if it is given
+	private void join(String key, String storeKey, GenericRecord driving, long ts) {
+		this.values[DRIVING_STREAM] = driving;
+		for (int i = 1; i < this.stores.length; ++i) {
+			if (i != this.stream) {
+				this.values[i] = floor(i, storeKey, ts);
+				if (this.values[i] == null) {
+					return;
+				}
+			}
+		}
+		final GenericRecord joinValue = this.joiner.join(this.values);
+		this.metrics.outputLag(System.currentTimeMillis() - ts);
+		this.context.forward(this.outKeyMapper.apply(key, joinValue), joinValue, To.all().withTimestamp(ts));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static WindowStore<String, byte[]>[] stores(int count) {
+		return new WindowStore[count];
+	}
+
+	// the latest record of the stream in [ts - window size, ts], found by probing back in doubling ranges until one
+	// has a record, of which only the last one is decoded
+	private GenericRecord floor(int stream, String storeKey, long ts) {
+		final long fromMs = ts - this.windowSizeMs;
+		long probeMs = FIRST_PROBE_MS;
+		for (long toMs = ts; toMs >= fromMs; toMs -= probeMs, probeMs *= 2) {
+			byte[] latest = null;
+			try (final WindowStoreIterator<byte[]> it = this.stores[stream].fetch(storeKey,
+					Math.max(fromMs, toMs - probeMs + 1), toMs)) {
+				while (it.hasNext()) {
+					latest = it.next().value;
+				}
+			}
+			if (latest != null) {
+				return decode(stream, latest);
+			}
+		}
+		return null;
+	}
+
+	private GenericRecord decode(int stream, byte[] value) {
+		return this.deserializer.deserialize(this.changelogTopics[stream], value);
+	}
+
+	// the timestamp of the next record of this stream after ts that is within the window, or the end of the window
+	private long nextTimestamp(String storeKey, long ts) {
+		final long endMs = ts + this.windowSizeMs + 1;
+		try (final WindowStoreIterator<byte[]> it = this.stores[this.stream].fetch(storeKey, ts + 1, endMs - 1)) {
+			if (it.hasNext()) {
+				return it.peekNextKey();
+			}
+		}
+		return endMs;
+	}
+}
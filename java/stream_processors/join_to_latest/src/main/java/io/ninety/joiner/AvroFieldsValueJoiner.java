@@ -1,82 +1,66 @@
 package io.ninety.joiner;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.avro.Schema;
-import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.generic.GenericRecordBuilder;
 import org.apache.kafka.streams.kstream.ValueJoiner;
 
 public class AvroFieldsValueJoiner implements ValueJoiner<GenericRecord, GenericRecord, GenericRecord> {
 
-	public static AvroFieldsValueJoiner create(Map<String, String> leftMappings, Map<String, String> rightMappings) {
-		return new AvroFieldsValueJoiner(leftMappings, rightMappings);
+	public static AvroFieldsValueJoiner create(Map<String, String> leftMappings, Map<String, String> rightMappings,
+			JoinerMetrics metrics) {
+		return new AvroFieldsValueJoiner(Arrays.asList(leftMappings, rightMappings), metrics);
 	}
-	
-	private final Map<String, String> leftMappings;
-	private final Map<String, String> rightMappings;
-	private final String schemaName;
-	private final String schemaDoc;
-	private final String schemaNamespace;
-	private Schema schema;
 
-	private AvroFieldsValueJoiner(Map<String, String> leftMappings, Map<String, String> rightMappings) {
-		this.leftMappings = leftMappings;
-		this.rightMappings = rightMappings;
+	// joins one record from each of the streams, in the order of their mappings
+	public static AvroFieldsValueJoiner create(List<Map<String, String>> mappings, JoinerMetrics metrics) {
+		return new AvroFieldsValueJoiner(mappings, metrics);
+	}
+
+	private static final int LEFT = 0;
+	private static final int RIGHT = 1;
+	private static final int MAX_PLANS = 64;
 
-		// TODO: make configurable
-		this.schemaName = "myschema";
-		this.schemaDoc = "mydoc";
-		this.schemaNamespace = "io.ninety";
+	private final AvroProjectionPlanCache plans;
+	private final JoinerMetrics metrics;
+
+	private AvroFieldsValueJoiner(List<Map<String, String>> mappings, JoinerMetrics metrics) {
+		this.metrics = metrics;
+		// TODO: make schema name, doc and namespace configurable
+		this.plans = AvroProjectionPlanCache.create(mappings, "myschema", "mydoc", "io.ninety", MAX_PLANS);
 	}
 
 	@Override
 	public GenericRecord apply(GenericRecord leftValue, GenericRecord rightValue) {
+		final long startNs = this.metrics.startTimer(JoinerMetrics.JOIN);
+		final AvroProjectionPlan plan = this.plans.get(leftValue.getSchema(), rightValue.getSchema());
+		final GenericData.Record joinValue = plan.newRecord();
+		plan.copy(joinValue, LEFT, leftValue);
+		plan.copy(joinValue, RIGHT, rightValue);
+		this.metrics.joinPair();
+		this.metrics.tracer().trace(JoinerMetrics.JOIN, null, leftValue, rightValue);
+		this.metrics.stopTimer(JoinerMetrics.JOIN, startNs);
+		return joinValue;
+	}
 
-		System.out.println("joining");
-		System.out.println(leftValue);
-		System.out.println(rightValue);
-		
-		if (this.schema == null) {
-			final List<Field> leftFields = mapFields(leftValue.getSchema(), leftMappings);
-			final List<Field> rightFields = mapFields(rightValue.getSchema(), rightMappings);
-			final List<Field> fields = new ArrayList<Field>();
-			fields.addAll(leftFields);
-			fields.addAll(rightFields);
-			this.schema = Schema.createRecord(this.schemaName, this.schemaDoc, this.schemaNamespace, false, fields);
+	public GenericRecord join(GenericRecord... values) {
+		final long startNs = this.metrics.startTimer(JoinerMetrics.JOIN);
+		final Schema[] schemas = new Schema[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			schemas[i] = values[i].getSchema();
+		}
+		final AvroProjectionPlan plan = this.plans.get(schemas);
+		final GenericData.Record joinValue = plan.newRecord();
+		for (int i = 0; i < values.length; ++i) {
+			plan.copy(joinValue, i, values[i]);
 		}
-		final GenericRecordBuilder b = new GenericRecordBuilder(this.schema);
-		mergeValue(b, leftValue, leftMappings);
-		mergeValue(b, rightValue, rightMappings);
-		final GenericRecord joinValue = b.build();
-		System.out.println(joinValue);
+		this.metrics.joinPair();
+		this.metrics.tracer().trace(JoinerMetrics.JOIN, null, joinValue);
+		this.metrics.stopTimer(JoinerMetrics.JOIN, startNs);
 		return joinValue;
 	}
-	
-	private static List<Field> mapFields(Schema s, Map<String, String> m) {
-		final List<Field> fs = new ArrayList<Field>();
-		s.getFields().forEach((f) -> {
-			final String name = f.name();
-			final String newName = m.get(name);
-			if (newName != null) {
-				final Field fnew = new Field(newName, f.schema(), f.doc(), f.defaultVal());
-				fs.add(fnew);
-			}
-		});
-		return fs;
-	}
-	private static void mergeValue(GenericRecordBuilder b, GenericRecord r, Map<String, String> m) {
-		final Schema s = r.getSchema();
-		s.getFields().forEach((f) -> {
-			final String name = f.name();
-			final Object val = r.get(name);
-			final String newName = m.get(name);
-			if (newName != null) {
-				b.set(newName, val);
-			}
-		});
-	}
 }
@@ -0,0 +1,322 @@
+package io.ninety.joiner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.errors.ProcessorStateException;
+import org.apache.kafka.streams.processor.Processor;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.ProcessorSupplier;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.StoreBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the records of a task to compressed Avro container files in &lt;dir&gt;/&lt;task id&gt;, one file per
+ * schema, in blocks of a configured size. It is a state store so that it is flushed on each commit, before the
+ * offsets are committed, which is when the blocks written since the last commit are synced and their length recorded.
+ *
+ * A file is rolled on a commit after it reaches the roll size or age, by renaming it from &lt;store&gt;.&lt;schema
+ * fingerprint&gt;.avro.inprogress to &lt;store&gt;-&lt;opened ms&gt;-&lt;schema fingerprint&gt;.avro, so readers
+ * only see whole files. When the store is closed or opened again after a crash, the in progress files are cut back to
+ * their committed length and rolled, as the records after it are processed again from the committed offsets.
+ *
+ * The files are at least once, whatever the processing guarantee: the lengths are recorded before the offsets are
+ * committed, so a crash between the two writes the records of that commit again after the recorded length.
+ */
+public final class AvroFileSink implements StateStore {
+
+	public static StoreBuilder<AvroFileSink> builder(String name, File dir, String codec, long rollBytes,
+			long rollIntervalMs, int blockBytes) {
+		return new Builder(name, dir, CodecFactory.fromString(codec), rollBytes, rollIntervalMs, blockBytes);
+	}
+
+	// writes the non-null records that it is given to the sink store
+	public static ProcessorSupplier<String, GenericRecord> processor(String storeName) {
+		return () -> new SinkProcessor(storeName);
+	}
+
+	public static final String IN_PROGRESS_SUFFIX = ".avro.inprogress";
+	public static final String FILE_SUFFIX = ".avro";
+	public static final String COMMITTED_SUFFIX = ".committed";
+
+	private static final Logger LOG = LoggerFactory.getLogger(AvroFileSink.class);
+
+	private final String name;
+	private final File dir;
+	private final CodecFactory codec;
+	private final long rollBytes;
+	private final long rollIntervalMs;
+	private final int blockBytes;
+	private final Map<Schema, Writer> writers = new HashMap<>();
+	private File taskDir;
+	private boolean open;
+
+	private AvroFileSink(String name, File dir, CodecFactory codec, long rollBytes, long rollIntervalMs,
+			int blockBytes) {
+		this.name = name;
+		this.dir = dir;
+		this.codec = codec;
+		this.rollBytes = rollBytes;
+		this.rollIntervalMs = rollIntervalMs;
+		this.blockBytes = blockBytes;
+	}
+
+	@Override
+	public String name() {
+		return this.name;
+	}
+
+	@Override
+	public void init(ProcessorContext context, StateStore root) {
+		this.taskDir = new File(this.dir, context.taskId().toString());
+		try {
+			Files.createDirectories(this.taskDir.toPath());
+			recover();
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad file sink dir: " + this.taskDir, e);
+		}
+		context.register(root, (key, value) -> {
+		});
+		this.open = true;
+	}
+
+	public void append(GenericRecord record) {
+		try {
+			Writer writer = this.writers.get(record.getSchema());
+			if (writer == null) {
+				writer = new Writer(record.getSchema());
+				this.writers.put(record.getSchema(), writer);
+			}
+			writer.file.append(record);
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad file sink append: " + this.name, e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (this.writers.isEmpty()) {
+			return;
+		}
+		try {
+			final Map<String, Long> committed = new LinkedHashMap<>();
+			boolean roll = false;
+			final long nowMs = System.currentTimeMillis();
+			for (final Writer writer : this.writers.values()) {
+				final long length = writer.file.sync();
+				writer.file.fSync();
+				committed.put(writer.path.getName(), length);
+				roll |= length >= this.rollBytes || nowMs - writer.openedMs >= this.rollIntervalMs;
+			}
+			writeCommitted(committed);
+			if (roll) {
+				for (final Writer writer : this.writers.values()) {
+					writer.file.close();
+					publish(writer.path, writer.openedMs);
+				}
+				this.writers.clear();
+				writeCommitted(Collections.emptyMap());
+			}
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad file sink flush: " + this.name, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.open = false;
+		for (final Writer writer : this.writers.values()) {
+			try {
+				writer.file.close();
+			} catch (IOException e) {
+				LOG.warn("Bad file sink close: {}", writer.path, e);
+			}
+		}
+		this.writers.clear();
+		try {
+			recover();
+		} catch (IOException e) {
+			LOG.warn("Bad file sink recovery in {}, it is done again when the store is opened", this.taskDir, e);
+		}
+	}
+
+	@Override
+	public boolean persistent() {
+		return false;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	// cut the in progress files back to their committed length and roll them, or delete them if nothing was committed
+	private void recover() throws IOException {
+		final Map<String, Long> committed = readCommitted();
+		final File[] files = this.taskDir
+				.listFiles((d, n) -> n.startsWith(this.name + ".") && n.endsWith(IN_PROGRESS_SUFFIX));
+		for (final File file : files == null ? new File[0] : files) {
+			final Long length = committed.get(file.getName());
+			if (length == null || length == 0) {
+				Files.delete(file.toPath());
+				continue;
+			}
+			try (final RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+				out.setLength(length);
+				out.getFD().sync();
+			}
+			publish(file, file.lastModified());
+		}
+		writeCommitted(Collections.emptyMap());
+	}
+
+	private void publish(File file, long openedMs) throws IOException {
+		final String fingerprint = file.getName().substring(this.name.length() + 1,
+				file.getName().length() - IN_PROGRESS_SUFFIX.length());
+		File published = new File(this.taskDir, this.name + "-" + openedMs + "-" + fingerprint + FILE_SUFFIX);
+		for (long ms = openedMs + 1; published.exists(); ++ms) {
+			published = new File(this.taskDir, this.name + "-" + ms + "-" + fingerprint + FILE_SUFFIX);
+		}
+		Files.move(file.toPath(), published.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		LOG.info("Wrote file {} of {} bytes", published, published.length());
+	}
+
+	private Map<String, Long> readCommitted() throws IOException {
+		final File file = new File(this.taskDir, this.name + COMMITTED_SUFFIX);
+		final Map<String, Long> committed = new HashMap<>();
+		if (file.exists()) {
+			for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				final String[] parts = line.split(" ");
+				if (parts.length != 2) {
+					throw new IOException("Bad file sink committed line: " + line);
+				}
+				committed.put(parts[0], Long.parseLong(parts[1]));
+			}
+		}
+		return committed;
+	}
+
+	// written to a temporary file and moved over the last one, so that it is never seen half written
+	private void writeCommitted(Map<String, Long> committed) throws IOException {
+		final StringBuilder lines = new StringBuilder();
+		committed.forEach((file, length) -> lines.append(file).append(' ').append(length).append('\n'));
+		final File file = new File(this.taskDir, this.name + COMMITTED_SUFFIX);
+		final File tmp = new File(this.taskDir, this.name + COMMITTED_SUFFIX + ".tmp");
+		Files.write(tmp.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private final class Writer {
+		private final File path;
+		private final long openedMs = System.currentTimeMillis();
+		private final DataFileWriter<GenericRecord> file;
+
+		private Writer(Schema schema) throws IOException {
+			this.path = new File(taskDir, name + "." + Long.toHexString(SchemaNormalization.parsingFingerprint64(schema))
+					+ IN_PROGRESS_SUFFIX);
+			this.file = new DataFileWriter<GenericRecord>(new GenericDatumWriter<>(schema)).setCodec(codec)
+					.setSyncInterval(blockBytes).create(schema, this.path);
+		}
+	}
+
+	private static final class SinkProcessor implements Processor<String, GenericRecord> {
+		private final String storeName;
+		private AvroFileSink store;
+
+		private SinkProcessor(String storeName) {
+			this.storeName = storeName;
+		}
+
+		@Override
+		public void init(ProcessorContext context) {
+			this.store = (AvroFileSink) context.getStateStore(this.storeName);
+		}
+
+		@Override
+		public void process(String key, GenericRecord value) {
+			if (value != null) {
+				this.store.append(value);
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final class Builder implements StoreBuilder<AvroFileSink> {
+		private final String name;
+		private final File dir;
+		private final CodecFactory codec;
+		private final long rollBytes;
+		private final long rollIntervalMs;
+		private final int blockBytes;
+
+		private Builder(String name, File dir, CodecFactory codec, long rollBytes, long rollIntervalMs,
+				int blockBytes) {
+			this.name = name;
+			this.dir = dir;
+			this.codec = codec;
+			this.rollBytes = rollBytes;
+			this.rollIntervalMs = rollIntervalMs;
+			this.blockBytes = blockBytes;
+		}
+
+		@Override
+		public StoreBuilder<AvroFileSink> withCachingEnabled() {
+			return this;
+		}
+
+		@Override
+		public StoreBuilder<AvroFileSink> withCachingDisabled() {
+			return this;
+		}
+
+		@Override
+		public StoreBuilder<AvroFileSink> withLoggingEnabled(Map<String, String> config) {
+			throw new RuntimeException("Bad file sink logging, the files are not restored from a changelog");
+		}
+
+		@Override
+		public StoreBuilder<AvroFileSink> withLoggingDisabled() {
+			return this;
+		}
+
+		@Override
+		public AvroFileSink build() {
+			return new AvroFileSink(this.name, this.dir, this.codec, this.rollBytes, this.rollIntervalMs,
+					this.blockBytes);
+		}
+
+		@Override
+		public Map<String, String> logConfig() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public boolean loggingEnabled() {
+			return false;
+		}
+
+		@Override
+		public String name() {
+			return this.name;
+		}
+	}
+}
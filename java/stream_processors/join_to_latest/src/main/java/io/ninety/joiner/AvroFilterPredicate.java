@@ -0,0 +1,76 @@
+package io.ninety.joiner;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.kstream.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filters records with a {@link FilterExpression}, compiled once for each schema of the records. A schema without
+ * some of the fields of the expression is logged once, as those fields compare as nulls, which is usually a typo.
+ */
+public class AvroFilterPredicate implements Predicate<String, GenericRecord> {
+
+	public static AvroFilterPredicate create(FilterExpression expression, JoinerMetrics metrics) {
+		return new AvroFilterPredicate(expression, metrics);
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(AvroFilterPredicate.class);
+	private static final int MAX_SCHEMAS = 100;
+
+	private final FilterExpression expression;
+	private final JoinerMetrics metrics;
+	private final Map<Schema, FilterExpression.Compiled> compiled = new ConcurrentHashMap<>();
+	private volatile Entry last; // the schemas are normally the same instances from one record to the next
+
+	private AvroFilterPredicate(FilterExpression expression, JoinerMetrics metrics) {
+		this.expression = expression;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean test(String key, GenericRecord value) {
+		final long startNs = this.metrics.startTimer(JoinerMetrics.FILTER);
+		final boolean accepted = value != null && compiled(value.getSchema()).test(value);
+		this.metrics.filter(accepted);
+		this.metrics.stopTimer(JoinerMetrics.FILTER, startNs);
+		return accepted;
+	}
+
+	private FilterExpression.Compiled compiled(Schema schema) {
+		final Entry e = this.last;
+		if (e != null && e.schema == schema) {
+			return e.compiled;
+		}
+		if (this.compiled.size() >= MAX_SCHEMAS) {
+			this.compiled.clear();
+		}
+		final FilterExpression.Compiled c = this.compiled.computeIfAbsent(schema, this::compile);
+		this.last = new Entry(schema, c);
+		return c;
+	}
+
+	private FilterExpression.Compiled compile(Schema schema) {
+		final Set<String> missing = this.expression.missingFields(schema);
+		if (!missing.isEmpty()) {
+			LOG.warn("Filter fields {} are not in the schema {}, so they are null in: {}", missing, schema.getFullName(),
+					this.expression);
+		}
+		return this.expression.compile(schema);
+	}
+
+	private static final class Entry {
+		private final Schema schema;
+		private final FilterExpression.Compiled compiled;
+
+		private Entry(Schema schema, FilterExpression.Compiled compiled) {
+			this.schema = schema;
+			this.compiled = compiled;
+		}
+	}
+}
@@ -3,12 +3,12 @@ package io.ninety.joiner;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.streams.kstream.KeyValueMapper;
 
-public class AvroKeyValueMapper implements KeyValueMapper<String, GenericRecord, String> {
+public class AvroKeyValueMapper implements KeyValueMapper<String, GenericRecord, GroupKey> {
 
 	public static AvroKeyValueMapper create(AvroTimestampExtractor timestampExtractor, String fieldName) {
 		return new AvroKeyValueMapper(timestampExtractor, fieldName);
 	}
-	
+
 	private final String fieldName;
 	private final AvroTimestampExtractor timestampExtractor;
 
@@ -18,10 +18,10 @@ public class AvroKeyValueMapper implements KeyValueMapper<String, GenericRecord,
 	}
 
 	@Override
-	public String apply(String key, GenericRecord value) {
+	public GroupKey apply(String key, GenericRecord value) {
 		final Object field = value.get(this.fieldName);
 		final long ts = this.timestampExtractor.extract(value);
-		return String.valueOf(ts) + "_" + String.valueOf(field);
+		return GroupKey.create(ts, field);
 	}
 
 }
@@ -1,50 +1,60 @@
 package io.ninety.joiner;
 
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.streams.kstream.Aggregator;
 import org.apache.kafka.streams.kstream.Initializer;
 
-public class AvroLastAggregator implements Initializer<GenericRecord>, Aggregator<String, GenericRecord, GenericRecord>{
+public class AvroLastAggregator implements Initializer<GenericRecord>, Aggregator<GroupKey, GenericRecord, GenericRecord>{
 
-	public static AvroLastAggregator create(AvroTimestampExtractor tsExtractor) {
-		return new AvroLastAggregator(tsExtractor);
+	public static AvroLastAggregator create(AvroTimestampExtractor tsExtractor, JoinerMetrics metrics) {
+		return new AvroLastAggregator(tsExtractor, false, metrics);
+	}
+
+	// merges the latest records of the salts of a group key, which arrive in no particular order, so equal timestamps
+	// are decided by the content of the records
+	public static AvroLastAggregator createMerge(AvroTimestampExtractor tsExtractor, JoinerMetrics metrics) {
+		return new AvroLastAggregator(tsExtractor, true, metrics);
 	}
 	
 	private final AvroTimestampExtractor tsExtractor;
+	private final boolean merge;
+	private final JoinerMetrics metrics;
 	
-	private AvroLastAggregator(AvroTimestampExtractor tsExtractor) {
+	private AvroLastAggregator(AvroTimestampExtractor tsExtractor, boolean merge, JoinerMetrics metrics) {
 		this.tsExtractor = tsExtractor;
+		this.merge = merge;
+		this.metrics = metrics;
 	}
 	
 	@Override
 	public GenericRecord apply() {
-		System.out.println("initializing");
 		return null;
 	}
 
 	@Override
-	public GenericRecord apply(String key, GenericRecord val, GenericRecord agg) {
+	public GenericRecord apply(GroupKey key, GenericRecord val, GenericRecord agg) {
+		final long startNs = this.metrics.startTimer(JoinerMetrics.AGGREGATE);
+		final GenericRecord result = latest(val, agg);
+		this.metrics.aggregate(result == val);
+		this.metrics.tracer().trace(JoinerMetrics.AGGREGATE, key, result);
+		this.metrics.stopTimer(JoinerMetrics.AGGREGATE, startNs);
+		return result;
+	}
 
-		System.out.println("aggregating");
-		System.out.println(key);
-		System.out.println(val);
-		System.out.println(agg);
-		
+	private GenericRecord latest(GenericRecord val, GenericRecord agg) {
 		if(agg == null) {
 			return val;
 		}
 		long tsVal = this.tsExtractor.extract(val);
 		long tsAgg = this.tsExtractor.extract(agg);
-		System.out.println(tsVal);
-		System.out.println(tsAgg);
-
-		if(tsVal >= tsAgg) {
-			System.out.println("selecting key");
-			System.out.println(val);
+		if(tsVal == tsAgg && this.merge) {
+			return GenericData.get().compare(val, agg, agg.getSchema()) > 0 ? val : agg;
+		}
+		// an equal record keeps the aggregate, as it is unchanged
+		if(tsVal > tsAgg || (tsVal == tsAgg && !val.equals(agg))) {
 			return val;
 		}
-		System.out.println("selecting agg");
-		System.out.println(agg);
 		return agg;
 	}
 }
@@ -0,0 +1,70 @@
+package io.ninety.joiner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * The mapping of the fields of a fixed set of source schemas onto a merged schema, compiled to field positions so
+ * that a merged record can be filled by index.
+ */
+public final class AvroProjectionPlan {
+
+	public static AvroProjectionPlan compile(List<Schema> sourceSchemas, List<Map<String, String>> sourceMappings,
+			String name, String doc, String namespace) {
+		final int sides = sourceSchemas.size();
+		final List<Field> fields = new ArrayList<Field>();
+		final int[][] sourcePositions = new int[sides][];
+		final int[][] targetPositions = new int[sides][];
+		for (int side = 0; side < sides; ++side) {
+			final Map<String, String> m = sourceMappings.get(side);
+			final List<Integer> sources = new ArrayList<Integer>();
+			sourceSchemas.get(side).getFields().forEach((f) -> {
+				final String newName = m.get(f.name());
+				if (newName != null) {
+					fields.add(new Field(newName, f.schema(), f.doc(), f.defaultVal()));
+					sources.add(f.pos());
+				}
+			});
+			sourcePositions[side] = new int[sources.size()];
+			targetPositions[side] = new int[sources.size()];
+			for (int i = 0; i < sources.size(); ++i) {
+				sourcePositions[side][i] = sources.get(i);
+				targetPositions[side][i] = fields.size() - sources.size() + i;
+			}
+		}
+		final Schema schema = Schema.createRecord(name, doc, namespace, false, fields);
+		return new AvroProjectionPlan(schema, sourcePositions, targetPositions);
+	}
+
+	private final Schema schema;
+	private final int[][] sourcePositions; // per side, the positions of the mapped fields in the source schema
+	private final int[][] targetPositions; // per side, the positions of the same fields in the merged schema
+
+	private AvroProjectionPlan(Schema schema, int[][] sourcePositions, int[][] targetPositions) {
+		this.schema = schema;
+		this.sourcePositions = sourcePositions;
+		this.targetPositions = targetPositions;
+	}
+
+	public Schema schema() {
+		return this.schema;
+	}
+
+	public GenericData.Record newRecord() {
+		return new GenericData.Record(this.schema);
+	}
+
+	public void copy(GenericData.Record target, int side, GenericRecord source) {
+		final int[] src = this.sourcePositions[side];
+		final int[] dst = this.targetPositions[side];
+		for (int i = 0; i < src.length; ++i) {
+			target.put(dst[i], source.get(src[i]));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package io.ninety.joiner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+/**
+ * A bounded, least recently used cache of projection plans keyed by the fingerprints of the source schemas, so that a
+ * new plan is compiled whenever an upstream schema evolves.
+ */
+public final class AvroProjectionPlanCache {
+
+	public static AvroProjectionPlanCache create(List<Map<String, String>> sourceMappings, String name, String doc,
+			String namespace, int maxPlans) {
+		return new AvroProjectionPlanCache(sourceMappings, name, doc, namespace, maxPlans);
+	}
+
+	private final List<Map<String, String>> sourceMappings;
+	private final String name;
+	private final String doc;
+	private final String namespace;
+	private final Map<PlanKey, AvroProjectionPlan> plans;
+	private volatile Entry last; // the schemas are normally the same instances from one record to the next
+
+	private AvroProjectionPlanCache(List<Map<String, String>> sourceMappings, String name, String doc,
+			String namespace, int maxPlans) {
+		this.sourceMappings = sourceMappings;
+		this.name = name;
+		this.doc = doc;
+		this.namespace = namespace;
+		this.plans = new LinkedHashMap<PlanKey, AvroProjectionPlan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PlanKey, AvroProjectionPlan> eldest) {
+				return size() > maxPlans;
+			}
+		};
+	}
+
+	public AvroProjectionPlan get(Schema... schemas) {
+		final Entry e = this.last;
+		if (e != null && e.sameSchemas(schemas)) {
+			return e.plan;
+		}
+		final long[] fingerprints = new long[schemas.length];
+		for (int i = 0; i < schemas.length; ++i) {
+			fingerprints[i] = fingerprint(schemas[i]);
+		}
+		final PlanKey key = new PlanKey(fingerprints);
+		final AvroProjectionPlan plan;
+		synchronized (this.plans) {
+			plan = this.plans.computeIfAbsent(key, k -> AvroProjectionPlan.compile(Arrays.asList(schemas),
+					this.sourceMappings, this.name, this.doc, this.namespace));
+		}
+		this.last = new Entry(schemas.clone(), plan);
+		return plan;
+	}
+
+	// unlike the parsing canonical form, the full schema text also covers logical types, docs and defaults
+	private static long fingerprint(Schema s) {
+		return SchemaNormalization.fingerprint64(s.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static final class Entry {
+		private final Schema[] schemas;
+		private final AvroProjectionPlan plan;
+
+		private Entry(Schema[] schemas, AvroProjectionPlan plan) {
+			this.schemas = schemas;
+			this.plan = plan;
+		}
+
+		private boolean sameSchemas(Schema[] other) {
+			if (other.length != this.schemas.length) {
+				return false;
+			}
+			for (int i = 0; i < other.length; ++i) {
+				if (other[i] != this.schemas[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class PlanKey {
+		private final long[] fingerprints;
+
+		private PlanKey(long[] fingerprints) {
+			this.fingerprints = fingerprints;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(this.fingerprints);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PlanKey && Arrays.equals(this.fingerprints, ((PlanKey) o).fingerprints);
+		}
+	}
+}
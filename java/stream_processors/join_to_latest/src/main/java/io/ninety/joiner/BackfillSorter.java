@@ -0,0 +1,215 @@
+package io.ninety.joiner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the records of one stream of a backfill by join key then event time, keeping the order in which records with
+ * the same join key and time were added. Records are sorted in memory in batches, and each full batch is spilled to a
+ * file as a sorted run, which are then merged.
+ */
+public final class BackfillSorter implements Closeable {
+
+	public static BackfillSorter create(File tmpDir, int bufferRecords) {
+		return new BackfillSorter(tmpDir, bufferRecords);
+	}
+
+	public static final class Entry {
+		public final String joinKey;
+		public final long timestamp;
+		public final String key;
+		public final byte[] value; // in the registry wire format
+
+		private Entry(String joinKey, long timestamp, String key, byte[] value) {
+			this.joinKey = joinKey;
+			this.timestamp = timestamp;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	// a stable sort of the entries, as the runs are sorted with a stable sort and merged in the order of the runs
+	private static final Comparator<Entry> ORDER = Comparator.<Entry, String> comparing(e -> e.joinKey)
+			.thenComparingLong(e -> e.timestamp);
+	private static final int IO_BUFFER_SIZE = 1 << 20;
+
+	private final File tmpDir;
+	private final int bufferRecords;
+	private final List<File> runs = new ArrayList<>();
+	private final List<Run> open = new ArrayList<>();
+	private List<Entry> buffer = new ArrayList<>();
+	private long size;
+
+	private BackfillSorter(File tmpDir, int bufferRecords) {
+		this.tmpDir = tmpDir;
+		this.bufferRecords = bufferRecords;
+	}
+
+	public void add(String joinKey, long timestamp, String key, byte[] value) throws IOException {
+		this.buffer.add(new Entry(joinKey, timestamp, key, value));
+		this.size++;
+		if (this.buffer.size() >= this.bufferRecords) {
+			spill();
+		}
+	}
+
+	public long size() {
+		return this.size;
+	}
+
+	// the entries in order, which can be read once all of them have been added
+	public Iterator<Entry> sorted() throws IOException {
+		this.buffer.sort(ORDER);
+		final List<Run> runs = new ArrayList<>();
+		for (final File file : this.runs) {
+			runs.add(new FileRun(file));
+		}
+		runs.add(new MemoryRun(this.buffer.iterator()));
+		this.open.addAll(runs);
+		return new MergeIterator(runs);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final Run run : this.open) {
+			run.close();
+		}
+		for (final File file : this.runs) {
+			file.delete();
+		}
+		this.buffer = new ArrayList<>();
+	}
+
+	private void spill() throws IOException {
+		this.buffer.sort(ORDER);
+		final File file = File.createTempFile("joiner-backfill-", ".run", this.tmpDir);
+		file.deleteOnExit();
+		this.runs.add(file);
+		try (final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE))) {
+			for (final Entry e : this.buffer) {
+				out.writeUTF(e.joinKey);
+				out.writeLong(e.timestamp);
+				out.writeUTF(e.key);
+				out.writeInt(e.value.length);
+				out.write(e.value);
+			}
+		}
+		this.buffer = new ArrayList<>();
+	}
+
+	private interface Run extends Closeable {
+		// the next entry or null at the end of the run
+		Entry next() throws IOException;
+	}
+
+	private static final class MemoryRun implements Run {
+		private final Iterator<Entry> it;
+
+		private MemoryRun(Iterator<Entry> it) {
+			this.it = it;
+		}
+
+		@Override
+		public Entry next() {
+			return this.it.hasNext() ? this.it.next() : null;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final class FileRun implements Run {
+		private final DataInputStream in;
+
+		private FileRun(File file) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+		}
+
+		@Override
+		public Entry next() throws IOException {
+			final String joinKey;
+			try {
+				joinKey = this.in.readUTF();
+			} catch (EOFException e) {
+				return null;
+			}
+			final long timestamp = this.in.readLong();
+			final String key = this.in.readUTF();
+			final byte[] value = new byte[this.in.readInt()];
+			this.in.readFully(value);
+			return new Entry(joinKey, timestamp, key, value);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
+
+	// a k-way merge of the runs, where equal entries are taken from the earliest run first
+	private static final class MergeIterator implements Iterator<Entry> {
+		private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+		private MergeIterator(List<Run> runs) throws IOException {
+			for (int i = 0; i < runs.size(); ++i) {
+				final Entry e = runs.get(i).next();
+				if (e != null) {
+					this.heads.add(new Head(runs.get(i), i, e));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !this.heads.isEmpty();
+		}
+
+		@Override
+		public Entry next() {
+			final Head head = this.heads.poll();
+			final Entry e = head.entry;
+			try {
+				head.entry = head.run.next();
+			} catch (IOException ex) {
+				throw new RuntimeException("Bad backfill run: " + ex.getMessage(), ex);
+			}
+			if (head.entry != null) {
+				this.heads.add(head);
+			}
+			return e;
+		}
+	}
+
+	private static final class Head implements Comparable<Head> {
+		private final Run run;
+		private final int index;
+		private Entry entry;
+
+		private Head(Run run, int index, Entry entry) {
+			this.run = run;
+			this.index = index;
+			this.entry = entry;
+		}
+
+		@Override
+		public int compareTo(Head o) {
+			final int c = ORDER.compare(this.entry, o.entry);
+			return c != 0 ? c : Integer.compare(this.index, o.index);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package io.ninety.joiner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.streams.state.RocksDBConfigSetter;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+
+/**
+ * Bounds the off-heap memory of the RocksDB stores of the process.
+ *
+ * All stores share one LRU block cache, which also holds their index and filter blocks, so the cache bounds all reads.
+ * This RocksDB version has no write buffer manager, so the memtables are bounded per store instead, to the write
+ * buffer size times the number of write buffers. The total is then roughly the cache size plus that bound times the
+ * number of open store segments. The stores configured with the same cache size share one cache, so the runtimes of a
+ * JoinerHost, which have the same streams configs, share one, while a store configured with another size gets its own.
+ */
+public class BoundedRocksDBConfigSetter implements RocksDBConfigSetter {
+
+	private static final long DEFAULT_BLOCK_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+	private static final long DEFAULT_WRITE_BUFFER_MAX_BYTES = 4L * 1024 * 1024;
+	private static final int DEFAULT_WRITE_BUFFERS = 2;
+	private static final int DEFAULT_BLOOM_FILTER_BITS = 0;
+	private static final int BLOCK_SIZE = 16 * 1024;
+
+	private static final Map<Long, Cache> CACHES = new HashMap<>(); // by size, as the caches are never closed
+	private static final Map<Integer, BloomFilter> FILTERS = new HashMap<>(); // by bits per key
+
+	@Override
+	public void setConfig(String storeName, Options options, Map<String, Object> configs) {
+		final BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+		tableConfig.setBlockCache(cache(configs));
+		tableConfig.setBlockSize(BLOCK_SIZE);
+		tableConfig.setCacheIndexAndFilterBlocks(true);
+		tableConfig.setPinL0FilterAndIndexBlocksInCache(true);
+		final BloomFilter bloomFilter = filter(configs);
+		if (bloomFilter != null) {
+			tableConfig.setFilter(bloomFilter);
+		}
+		options.setTableFormatConfig(tableConfig);
+		options.setWriteBufferSize(
+				getLong(configs, JoinerProperties.ROCKSDB_WRITE_BUFFER_MAX_BYTES, DEFAULT_WRITE_BUFFER_MAX_BYTES));
+		options.setMaxWriteBufferNumber(
+				(int) getLong(configs, JoinerProperties.ROCKSDB_WRITE_BUFFERS, DEFAULT_WRITE_BUFFERS));
+		options.setCompactionStyle(compactionStyle(configs));
+	}
+
+	private static Cache cache(Map<String, Object> configs) {
+		final long size = getLong(configs, JoinerProperties.ROCKSDB_BLOCK_CACHE_MAX_BYTES,
+				DEFAULT_BLOCK_CACHE_MAX_BYTES);
+		synchronized (CACHES) {
+			return CACHES.computeIfAbsent(size, LRUCache::new);
+		}
+	}
+
+	// whole key filters only help point lookups, not the range scans of the window stores, so they are off by default
+	private static BloomFilter filter(Map<String, Object> configs) {
+		final int bits = (int) getLong(configs, JoinerProperties.ROCKSDB_BLOOM_FILTER_BITS, DEFAULT_BLOOM_FILTER_BITS);
+		if (bits <= 0) {
+			return null;
+		}
+		synchronized (FILTERS) {
+			return FILTERS.computeIfAbsent(bits, b -> new BloomFilter(b, false));
+		}
+	}
+
+	// the window store segments are written in time order and dropped whole, which suits universal compaction
+	private static CompactionStyle compactionStyle(Map<String, Object> configs) {
+		final Object style = configs.get(JoinerProperties.ROCKSDB_COMPACTION_STYLE);
+		if (style == null) {
+			return CompactionStyle.UNIVERSAL;
+		}
+		try {
+			return CompactionStyle.valueOf(String.valueOf(style).trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Bad rocksdb compaction style: " + style);
+		}
+	}
+
+	private static long getLong(Map<String, Object> configs, String name, long defaultValue) {
+		final Object value = configs.get(name);
+		return value == null ? defaultValue : Long.parseLong(String.valueOf(value).trim());
+	}
+}
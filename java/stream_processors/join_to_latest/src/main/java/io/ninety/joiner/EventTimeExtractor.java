@@ -0,0 +1,56 @@
+package io.ninety.joiner;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.streams.processor.TimestampExtractor;
+
+/**
+ * Extracts the event time of the source records with another extractor, and records the stream time of each source
+ * partition, how far the event time is behind the wall clock, and the records that are too late for the join stores.
+ *
+ * The records are extracted in the order of each partition as they are fetched, just before they are processed, and
+ * a join store only sees the records of one partition of its stream, so the stream time of the partition is the one
+ * that the store drops late records by.
+ */
+public class EventTimeExtractor implements TimestampExtractor {
+
+	public static EventTimeExtractor create(TimestampExtractor inner, long joinWindowSizeMs,
+			AdaptiveRetention joinRetention, JoinerMetrics metrics) {
+		return new EventTimeExtractor(inner, joinWindowSizeMs, joinRetention, metrics);
+	}
+
+	private final TimestampExtractor inner;
+	private final long joinWindowSizeMs;
+	private final AdaptiveRetention joinRetention;
+	private final JoinerMetrics metrics;
+	private final Map<TopicPartition, EventTimeTracker> trackers = new ConcurrentHashMap<>();
+
+	private EventTimeExtractor(TimestampExtractor inner, long joinWindowSizeMs, AdaptiveRetention joinRetention,
+			JoinerMetrics metrics) {
+		this.inner = inner;
+		this.joinWindowSizeMs = joinWindowSizeMs;
+		this.joinRetention = joinRetention;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public long extract(ConsumerRecord<Object, Object> record, long previousTimestamp) {
+		final long timestampMs = this.inner.extract(record, previousTimestamp);
+		if (timestampMs < 0 || record.value() == null) {
+			return timestampMs; // the record is skipped, or not joined
+		}
+		final TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+		final EventTimeTracker tracker = this.trackers.computeIfAbsent(partition,
+				tp -> EventTimeTracker.create("join", this.joinWindowSizeMs, this.joinRetention));
+		this.metrics.streamTime(record.topic(), record.partition(), timestampMs);
+		this.metrics.ingestLag(System.currentTimeMillis() - timestampMs);
+		if (tracker.late(timestampMs, timestampMs + 1)) {
+			this.metrics.lateJoin();
+			tracker.logLate(timestampMs, partition + "@" + record.offset(), record.value());
+		}
+		return timestampMs;
+	}
+}
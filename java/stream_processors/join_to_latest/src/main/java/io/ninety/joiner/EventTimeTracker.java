@@ -0,0 +1,58 @@
+package io.ninety.joiner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The stream time of one stream of one task, i.e. the latest event time seen, and the records that are too late for
+ * the store that keeps their data until an end time, by the rule of the stores : the data is dropped when its end
+ * time is at or before the stream time minus the window size and retention. The retention that each record needed is
+ * recorded, so that an adaptive retention can follow it. Late records are logged as a sample, the first and then at
+ * most one per interval.
+ */
+public final class EventTimeTracker {
+
+	public static EventTimeTracker create(String stage, long windowSizeMs, AdaptiveRetention retention) {
+		return new EventTimeTracker(stage, windowSizeMs, retention);
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventTimeTracker.class);
+	private static final long LATE_LOG_INTERVAL_MS = 10000;
+
+	private final String stage;
+	private final long windowSizeMs;
+	private final AdaptiveRetention retention;
+	private long streamTimeMs = Long.MIN_VALUE;
+	private long lateCount;
+	private long lateLogMs = Long.MIN_VALUE;
+
+	private EventTimeTracker(String stage, long windowSizeMs, AdaptiveRetention retention) {
+		this.stage = stage;
+		this.windowSizeMs = windowSizeMs;
+		this.retention = retention;
+	}
+
+	public long streamTimeMs() {
+		return this.streamTimeMs;
+	}
+
+	// whether the data of the record, which is kept until the end time, has already expired
+	public boolean late(long timestampMs, long endMs) {
+		if (timestampMs > this.streamTimeMs) {
+			this.streamTimeMs = timestampMs;
+		}
+		this.retention.record(this.streamTimeMs - endMs + 1 - this.windowSizeMs);
+		return endMs <= this.streamTimeMs - this.windowSizeMs - this.retention.retentionMs();
+	}
+
+	public void logLate(long timestampMs, Object where, Object value) {
+		++this.lateCount;
+		final long nowMs = System.currentTimeMillis();
+		if (this.lateLogMs == Long.MIN_VALUE || nowMs - this.lateLogMs >= LATE_LOG_INTERVAL_MS) {
+			LOG.warn("{} late {} record(s), e.g. {}ms before the stream time at {}: {}", this.lateCount, this.stage,
+					this.streamTimeMs - timestampMs, where, value);
+			this.lateCount = 0;
+			this.lateLogMs = nowMs;
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package io.ninety.joiner;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+
+/**
+ * A boolean expression over the fields of a record, for the left, right and join filters, e.g.
+ *
+ * <pre>
+ * val between 10 and 20 and key1 in ('a', 'b') and event_time &gt;= timestamp '2019-03-15T00:00:00Z'
+ * </pre>
+ *
+ * The comparisons are =, !=, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=, in (...), not in (...), between ... and ... and is
+ * [not] null, combined with and, or, not and parentheses. Their operands are field names and literals: numbers,
+ * 'strings', true, false and timestamp 'ISO-8601 instant', which is the epoch milliseconds. Numbers compare by value
+ * whatever their type, and strings and enum symbols by their text. A comparison with a null or a value of another type
+ * is false, as is one with a field that the record does not have.
+ *
+ * An expression is parsed once and compiled once per schema, into a predicate that reads the fields by position.
+ */
+public final class FilterExpression {
+
+	public static FilterExpression parse(String text) {
+		final Parser parser = new Parser(text);
+		final Node root = parser.parseOr();
+		if (parser.peek() != null) {
+			throw new RuntimeException("Bad filter expression, unexpected " + parser.peek() + ": " + text);
+		}
+		return new FilterExpression(text, root);
+	}
+
+	// a predicate over the records of a single schema
+	public interface Compiled {
+		boolean test(IndexedRecord record);
+	}
+
+	private final String text;
+	private final Node root;
+
+	private FilterExpression(String text, Node root) {
+		this.text = text;
+		this.root = root;
+	}
+
+	// the names of the fields that the expression reads
+	public Set<String> fields() {
+		final Set<String> fields = new LinkedHashSet<>();
+		this.root.fields(fields);
+		return fields;
+	}
+
+	// the fields that the expression reads but the schema does not have, which compare as nulls
+	public Set<String> missingFields(Schema schema) {
+		final Set<String> missing = fields();
+		missing.removeIf(name -> schema.getField(name) != null);
+		return missing;
+	}
+
+	public Compiled compile(Schema schema) {
+		return this.root.compile(schema);
+	}
+
+	@Override
+	public String toString() {
+		return this.text;
+	}
+
+	private interface Node {
+		Compiled compile(Schema schema);
+
+		void fields(Set<String> fields);
+	}
+
+	// reads a value from a record, a field position or a constant once compiled
+	private interface Operand {
+		Object get(IndexedRecord record);
+	}
+
+	private static final class Field {
+		private final String name;
+
+		private Field(String name) {
+			this.name = name;
+		}
+
+		private Operand compile(Schema schema) {
+			final Schema.Field field = schema.getField(this.name);
+			if (field == null) {
+				return r -> null;
+			}
+			checkComparable(field);
+			final int pos = field.pos();
+			return r -> r.get(pos);
+		}
+	}
+
+	private static void checkComparable(Schema.Field field) {
+		for (final Schema s : field.schema().getType() == Schema.Type.UNION ? field.schema().getTypes()
+				: Collections.singletonList(field.schema())) {
+			switch (s.getType()) {
+			case RECORD:
+			case ARRAY:
+			case MAP:
+			case BYTES:
+			case FIXED:
+				throw new RuntimeException("Bad filter field, it is not comparable: " + field.name());
+			default:
+				break;
+			}
+		}
+	}
+
+	// a field or a literal value, which is normalized
+	private static Operand operand(Object term, Schema schema) {
+		if (term instanceof Field) {
+			return ((Field) term).compile(schema);
+		}
+		return r -> term;
+	}
+
+	private static void fields(Object term, Set<String> fields) {
+		if (term instanceof Field) {
+			fields.add(((Field) term).name);
+		}
+	}
+
+	private static final class Comparison implements Node {
+		private final Object left;
+		private final String op;
+		private final Object right;
+
+		private Comparison(Object left, String op, Object right) {
+			this.left = left;
+			this.op = op;
+			this.right = right;
+		}
+
+		@Override
+		public Compiled compile(Schema schema) {
+			final Operand l = operand(this.left, schema);
+			final Operand r = operand(this.right, schema);
+			final IntPredicate order = order(this.op);
+			return rec -> {
+				final int c = compare(l.get(rec), r.get(rec));
+				return c != INCOMPARABLE && order.test(c);
+			};
+		}
+
+		private static IntPredicate order(String op) {
+			switch (op) {
+			case "=":
+				return c -> c == 0;
+			case "!=":
+				return c -> c != 0;
+			case "<":
+				return c -> c < 0;
+			case "<=":
+				return c -> c <= 0;
+			case ">":
+				return c -> c > 0;
+			case ">=":
+				return c -> c >= 0;
+			default:
+				throw new RuntimeException("Bad filter operator: " + op);
+			}
+		}
+
+		@Override
+		public void fields(Set<String> fields) {
+			FilterExpression.fields(this.left, fields);
+			FilterExpression.fields(this.right, fields);
+		}
+	}
+
+	private static final class In implements Node {
+		private final Object term;
+		private final Set<Object> values;
+
+		private In(Object term, Set<Object> values) {
+			this.term = term;
+			this.values = values;
+		}
+
+		@Override
+		public Compiled compile(Schema schema) {
+			final Operand t = operand(this.term, schema);
+			return rec -> this.values.contains(normalize(t.get(rec)));
+		}
+
+		@Override
+		public void fields(Set<String> fields) {
+			FilterExpression.fields(this.term, fields);
+		}
+	}
+
+	private static final class IsNull implements Node {
+		private final Object term;
+
+		private IsNull(Object term) {
+			this.term = term;
+		}
+
+		@Override
+		public Compiled compile(Schema schema) {
+			final Operand t = operand(this.term, schema);
+			return rec -> t.get(rec) == null;
+		}
+
+		@Override
+		public void fields(Set<String> fields) {
+			FilterExpression.fields(this.term, fields);
+		}
+	}
+
+	private static final class Not implements Node {
+		private final Node node;
+
+		private Not(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		public Compiled compile(Schema schema) {
+			final Compiled c = this.node.compile(schema);
+			return rec -> !c.test(rec);
+		}
+
+		@Override
+		public void fields(Set<String> fields) {
+			this.node.fields(fields);
+		}
+	}
+
+	private static final class And implements Node {
+		private final Node left;
+		private final Node right;
+
+		private And(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Compiled compile(Schema schema) {
+			final Compiled l = this.left.compile(schema);
+			final Compiled r = this.right.compile(schema);
+			return rec -> l.test(rec) && r.test(rec);
+		}
+
+		@Override
+		public void fields(Set<String> fields) {
+			this.left.fields(fields);
+			this.right.fields(fields);
+		}
+	}
+
+	private static final class Or implements Node {
+		private final Node left;
+		private final Node right;
+
+		private Or(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Compiled compile(Schema schema) {
+			final Compiled l = this.left.compile(schema);
+			final Compiled r = this.right.compile(schema);
+			return rec -> l.test(rec) || r.test(rec);
+		}
+
+		@Override
+		public void fields(Set<String> fields) {
+			this.left.fields(fields);
+			this.right.fields(fields);
+		}
+	}
+
+	private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+	// the order of the values, or INCOMPARABLE if either is null or they have different types
+	private static int compare(Object a, Object b) {
+		final Object x = normalize(a);
+		final Object y = normalize(b);
+		if (x == null || y == null) {
+			return INCOMPARABLE;
+		}
+		if (x instanceof Long && y instanceof Long) {
+			return Integer.signum(Long.compare((Long) x, (Long) y));
+		}
+		if (x instanceof Number && y instanceof Number) {
+			return Integer.signum(Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue()));
+		}
+		if (x instanceof String && y instanceof String) {
+			return Integer.signum(((String) x).compareTo((String) y));
+		}
+		if (x instanceof Boolean && y instanceof Boolean) {
+			return Boolean.compare((Boolean) x, (Boolean) y);
+		}
+		return INCOMPARABLE;
+	}
+
+	// integral numbers as longs, other numbers as doubles, and strings, utf8 and enum symbols as strings
+	private static Object normalize(Object value) {
+		if (value instanceof Long || value instanceof String || value instanceof Boolean || value == null) {
+			return value;
+		}
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof Number) {
+			final double d = ((Number) value).doubleValue();
+			return d == (long) d && !Double.isInfinite(d) ? (Object) (long) d : (Object) d;
+		}
+		return value.toString();
+	}
+
+	private static final class Parser {
+		private final String text;
+		private final List<String> tokens = new ArrayList<>();
+		private int next;
+
+		private Parser(String text) {
+			this.text = text;
+			tokenize();
+		}
+
+		private Node parseOr() {
+			Node node = parseAnd();
+			while (accept("or")) {
+				node = new Or(node, parseAnd());
+			}
+			return node;
+		}
+
+		private Node parseAnd() {
+			Node node = parseNot();
+			while (accept("and")) {
+				node = new And(node, parseNot());
+			}
+			return node;
+		}
+
+		private Node parseNot() {
+			if (accept("not")) {
+				return new Not(parseNot());
+			}
+			if (accept("(")) {
+				final Node node = parseOr();
+				expect(")");
+				return node;
+			}
+			return parseComparison();
+		}
+
+		private Node parseComparison() {
+			final Object term = parseTerm();
+			if (accept("is")) {
+				final boolean not = accept("not");
+				expect("null");
+				return not ? new Not(new IsNull(term)) : new IsNull(term);
+			}
+			final boolean not = accept("not");
+			if (accept("in")) {
+				expect("(");
+				final Set<Object> values = new HashSet<>();
+				do {
+					final Object value = parseTerm();
+					if (value instanceof Field) {
+						throw error("a literal");
+					}
+					if (value != null) {
+						values.add(value);
+					}
+				} while (accept(","));
+				expect(")");
+				return not ? new Not(new In(term, values)) : new In(term, values);
+			}
+			if (accept("between")) {
+				final Object low = parseTerm();
+				expect("and");
+				final Object high = parseTerm();
+				final Node node = new And(new Comparison(term, ">=", low), new Comparison(term, "<=", high));
+				return not ? new Not(node) : node;
+			}
+			if (not) {
+				throw error("in or between");
+			}
+			final String op = peek();
+			if (op == null || !op.matches("=|==|!=|<>|<|<=|>|>=")) {
+				throw error("a comparison");
+			}
+			this.next++;
+			final String normalized = op.equals("==") ? "=" : op.equals("<>") ? "!=" : op;
+			return new Comparison(term, normalized, parseTerm());
+		}
+
+		// a field or a normalized literal, where null is a literal that nothing compares to
+		private Object parseTerm() {
+			final String token = peek();
+			if (token == null || "(),".contains(token) && token.length() == 1) {
+				throw error("a field or literal");
+			}
+			this.next++;
+			if (token.startsWith("'")) {
+				return token.substring(1, token.length() - 1).replace("''", "'");
+			}
+			if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '-' || token.charAt(0) == '.') {
+				try {
+					return normalize(token.matches("-?\\d+") ? (Object) Long.parseLong(token) : Double.parseDouble(token));
+				} catch (NumberFormatException e) {
+					throw new RuntimeException("Bad filter number " + token + ": " + this.text);
+				}
+			}
+			switch (token.toLowerCase(Locale.ROOT)) {
+			case "true":
+				return Boolean.TRUE;
+			case "false":
+				return Boolean.FALSE;
+			case "null":
+				return null;
+			case "timestamp":
+				final String instant = peek();
+				if (instant == null || !instant.startsWith("'")) {
+					throw error("a timestamp string");
+				}
+				this.next++;
+				try {
+					return Instant.parse(instant.substring(1, instant.length() - 1)).toEpochMilli();
+				} catch (DateTimeParseException e) {
+					throw new RuntimeException("Bad filter timestamp " + instant + ": " + this.text);
+				}
+			default:
+				if (!Character.isJavaIdentifierStart(token.charAt(0))) {
+					throw error("a field or literal");
+				}
+				return new Field(token);
+			}
+		}
+
+		private String peek() {
+			return this.next < this.tokens.size() ? this.tokens.get(this.next) : null;
+		}
+
+		// consumes the next token if it is the keyword or symbol
+		private boolean accept(String token) {
+			if (token.equalsIgnoreCase(peek())) {
+				this.next++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(String token) {
+			if (!accept(token)) {
+				throw error(token);
+			}
+		}
+
+		private RuntimeException error(String expected) {
+			return new RuntimeException("Bad filter expression, expected " + expected + " but found "
+					+ (peek() == null ? "the end" : peek()) + ": " + this.text);
+		}
+
+		private void tokenize() {
+			int i = 0;
+			while (i < this.text.length()) {
+				final char c = this.text.charAt(i);
+				final int start = i;
+				if (Character.isWhitespace(c)) {
+					i++;
+					continue;
+				}
+				if (c == '\'') {
+					// a quote within a string is doubled
+					i++;
+					while (i < this.text.length()
+							&& (this.text.charAt(i) != '\'' || i + 1 < this.text.length() && this.text.charAt(i + 1) == '\'')) {
+						i += this.text.charAt(i) == '\'' ? 2 : 1;
+					}
+					if (i == this.text.length()) {
+						throw new RuntimeException("Bad filter expression, unterminated string: " + this.text);
+					}
+					i++;
+				} else if (Character.isDigit(c) || (c == '-' || c == '.') && i + 1 < this.text.length()
+						&& (Character.isDigit(this.text.charAt(i + 1)) || this.text.charAt(i + 1) == '.')) {
+					i++;
+					while (i < this.text.length() && (Character.isLetterOrDigit(this.text.charAt(i))
+							|| this.text.charAt(i) == '.' || (this.text.charAt(i) == '-' || this.text.charAt(i) == '+')
+									&& Character.toLowerCase(this.text.charAt(i - 1)) == 'e')) {
+						i++;
+					}
+				} else if (Character.isJavaIdentifierStart(c)) {
+					while (i < this.text.length() && Character.isJavaIdentifierPart(this.text.charAt(i))) {
+						i++;
+					}
+				} else if ("<>!=".indexOf(c) >= 0) {
+					i++;
+					if (i < this.text.length() && "=>".indexOf(this.text.charAt(i)) >= 0) {
+						i++;
+					}
+				} else if ("(),".indexOf(c) >= 0) {
+					i++;
+				} else {
+					throw new RuntimeException("Bad filter expression, unexpected " + c + ": " + this.text);
+				}
+				this.tokens.add(this.text.substring(start, i));
+			}
+		}
+	}
+}
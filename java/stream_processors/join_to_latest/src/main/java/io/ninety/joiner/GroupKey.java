@@ -0,0 +1,121 @@
+package io.ninety.joiner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.avro.util.Utf8;
+
+/**
+ * The key on which joined records are grouped, i.e. a timestamp and the value of the group by field.
+ *
+ * The binary form is the timestamp as 8 big-endian bytes followed by the raw field bytes. The sign bit of the timestamp
+ * is flipped so that the unsigned lexicographic order of the bytes, in which Bytes and RocksDB compare them, is the
+ * same as the order of the keys.
+ */
+public final class GroupKey implements Comparable<GroupKey> {
+
+	public static final int MAX_SALTS = 256;
+
+	public static GroupKey create(long timestamp, Object field) {
+		return new GroupKey(timestamp, fieldBytes(field));
+	}
+
+	public static GroupKey fromBytes(byte[] bytes) {
+		final long timestamp = ByteBuffer.wrap(bytes).getLong() ^ Long.MIN_VALUE;
+		return new GroupKey(timestamp, Arrays.copyOfRange(bytes, Long.BYTES, bytes.length));
+	}
+
+	// the inverse of toString, e.g. for the keys of queries
+	public static GroupKey parse(String key) {
+		final int i = key.indexOf('_');
+		try {
+			return create(Long.parseLong(key.substring(0, Math.max(i, 0))), key.substring(i + 1));
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Bad group key: " + key);
+		}
+	}
+
+	private final long timestamp;
+	private final byte[] field;
+
+	private GroupKey(long timestamp, byte[] field) {
+		this.timestamp = timestamp;
+		this.field = field;
+	}
+
+	public long timestamp() {
+		return this.timestamp;
+	}
+
+	public byte[] field() {
+		return this.field;
+	}
+
+	// the key with a salt byte after the field, which spreads the records of a hot key over several partitions
+	public GroupKey withSalt(int salt) {
+		final byte[] salted = Arrays.copyOf(this.field, this.field.length + 1);
+		salted[this.field.length] = (byte) salt;
+		return new GroupKey(this.timestamp, salted);
+	}
+
+	public GroupKey withoutSalt() {
+		return new GroupKey(this.timestamp, Arrays.copyOf(this.field, this.field.length - 1));
+	}
+
+	public byte[] toBytes() {
+		return ByteBuffer.allocate(Long.BYTES + this.field.length).putLong(this.timestamp ^ Long.MIN_VALUE)
+				.put(this.field).array();
+	}
+
+	@Override
+	public int compareTo(GroupKey o) {
+		final int c = Long.compare(this.timestamp, o.timestamp);
+		return c != 0 ? c : compareBytes(this.field, o.field);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof GroupKey)) {
+			return false;
+		}
+		final GroupKey k = (GroupKey) o;
+		return this.timestamp == k.timestamp && Arrays.equals(this.field, k.field);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Long.hashCode(this.timestamp) + Arrays.hashCode(this.field);
+	}
+
+	// the same format as the string keys used before, for the out topic
+	@Override
+	public String toString() {
+		return String.valueOf(this.timestamp) + "_" + new String(this.field, StandardCharsets.UTF_8);
+	}
+
+	public static int compareBytes(byte[] a, byte[] b) {
+		final int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; ++i) {
+			final int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static byte[] fieldBytes(Object field) {
+		if (field instanceof Utf8) {
+			final Utf8 u = (Utf8) field;
+			return Arrays.copyOf(u.getBytes(), u.getByteLength());
+		}
+		if (field instanceof ByteBuffer) {
+			final ByteBuffer b = ((ByteBuffer) field).duplicate();
+			final byte[] bytes = new byte[b.remaining()];
+			b.get(bytes);
+			return bytes;
+		}
+		return String.valueOf(field).getBytes(StandardCharsets.UTF_8);
+	}
+}
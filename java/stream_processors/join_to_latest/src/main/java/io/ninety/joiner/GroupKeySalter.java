@@ -0,0 +1,60 @@
+package io.ninety.joiner;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.KeyValueMapper;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Keys the joined records by their salted group key before the group by, so that the records of a hot group key are
+ * spread round robin over the spread salts, and so over as many repartition partitions and tasks. Other keys have salt
+ * 0. The latest record of each salted key is then merged into the latest record of the group key.
+ */
+public class GroupKeySalter implements Transformer<String, GenericRecord, KeyValue<GroupKey, GenericRecord>> {
+
+	public static GroupKeySalter create(KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper,
+			double sampleRate, double hotFraction, int spread, JoinerMetrics metrics) {
+		return new GroupKeySalter(groupKeyMapper, HotKeySketch.create(sampleRate, hotFraction), spread, metrics);
+	}
+
+	private final KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper;
+	private final HotKeySketch sketch;
+	private final int spread;
+	private final JoinerMetrics metrics;
+	private int next;
+
+	private GroupKeySalter(KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper, HotKeySketch sketch,
+			int spread, JoinerMetrics metrics) {
+		if (spread < 1 || spread > GroupKey.MAX_SALTS) {
+			throw new RuntimeException("Bad hot key spread: " + spread);
+		}
+		this.groupKeyMapper = groupKeyMapper;
+		this.sketch = sketch;
+		this.spread = spread;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void init(ProcessorContext context) {
+		this.metrics.bind(context);
+	}
+
+	@Override
+	public KeyValue<GroupKey, GenericRecord> transform(String key, GenericRecord value) {
+		if (value == null) {
+			return null;
+		}
+		final GroupKey groupKey = this.groupKeyMapper.apply(key, value);
+		if (!this.sketch.offer(groupKey.toBytes())) {
+			return KeyValue.pair(groupKey.withSalt(0), value);
+		}
+		this.metrics.hotKeySalted();
+		this.next = (this.next + 1) % this.spread;
+		return KeyValue.pair(groupKey.withSalt(this.next), value);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,50 @@
+package io.ninety.joiner;
+
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+
+public class GroupKeySerde extends Serdes.WrapperSerde<GroupKey> {
+
+	public static GroupKeySerde create() {
+		return new GroupKeySerde();
+	}
+
+	private GroupKeySerde() {
+		super(new GroupKeySerializer(), new GroupKeyDeserializer());
+	}
+
+	public static class GroupKeySerializer implements Serializer<GroupKey> {
+
+		@Override
+		public void configure(Map<String, ?> configs, boolean isKey) {
+		}
+
+		@Override
+		public byte[] serialize(String topic, GroupKey key) {
+			return key == null ? null : key.toBytes();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public static class GroupKeyDeserializer implements Deserializer<GroupKey> {
+
+		@Override
+		public void configure(Map<String, ?> configs, boolean isKey) {
+		}
+
+		@Override
+		public GroupKey deserialize(String topic, byte[] bytes) {
+			return bytes == null ? null : GroupKey.fromBytes(bytes);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package io.ninety.joiner;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.streams.processor.StreamPartitioner;
+
+/**
+ * Partitions the out topic records by the hash of their key, as the default partitioner does, except that the records
+ * of hot keys are spread round robin over the spread partitions that follow the hashed one. The records of a hot key
+ * are then no longer in order within one partition.
+ */
+public class HotKeyPartitioner implements StreamPartitioner<String, GenericRecord> {
+
+	public static HotKeyPartitioner create(double sampleRate, double hotFraction, int spread) {
+		return new HotKeyPartitioner(sampleRate, hotFraction, spread);
+	}
+
+	private final int spread;
+	private final ThreadLocal<HotKeySketch> sketches; // the partitioner is shared by the stream threads
+	private final ThreadLocal<int[]> next = ThreadLocal.withInitial(() -> new int[1]);
+
+	private HotKeyPartitioner(double sampleRate, double hotFraction, int spread) {
+		if (spread < 1) {
+			throw new RuntimeException("Bad hot key spread: " + spread);
+		}
+		this.spread = spread;
+		this.sketches = ThreadLocal.withInitial(() -> HotKeySketch.create(sampleRate, hotFraction));
+	}
+
+	@Override
+	public Integer partition(String topic, String key, GenericRecord value, int numPartitions) {
+		if (key == null) {
+			return null;
+		}
+		final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		final int partition = Utils.toPositive(Utils.murmur2(bytes)) % numPartitions;
+		if (!this.sketches.get().offer(bytes)) {
+			return partition;
+		}
+		final int[] next = this.next.get();
+		next[0] = (next[0] + 1) % Math.min(this.spread, numPartitions);
+		return (partition + next[0]) % numPartitions;
+	}
+}
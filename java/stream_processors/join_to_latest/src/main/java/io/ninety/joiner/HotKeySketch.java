@@ -0,0 +1,61 @@
+package io.ninety.joiner;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * Finds the hot keys of a stream from a random sample of its keys, counted in a count-min sketch.
+ *
+ * A key is hot once its estimated count is at least the hot fraction of the sampled keys. The counts are halved every
+ * DECAY_SAMPLES samples, so keys stop being hot some time after their traffic falls. An instance is not thread safe.
+ */
+public final class HotKeySketch {
+
+	public static HotKeySketch create(double sampleRate, double hotFraction) {
+		return new HotKeySketch(sampleRate, hotFraction);
+	}
+
+	private static final int DEPTH = 4;
+	private static final int WIDTH = 1024; // a power of 2
+	private static final int DECAY_SAMPLES = 10000;
+	private static final int MIN_SAMPLES = 100; // so that the first few keys are not all hot
+
+	private final double sampleRate;
+	private final double hotFraction;
+	private final int[] counts = new int[DEPTH * WIDTH];
+	private int samples;
+
+	private HotKeySketch(double sampleRate, double hotFraction) {
+		if (sampleRate <= 0 || sampleRate > 1 || hotFraction <= 0 || hotFraction > 1) {
+			throw new RuntimeException("Bad hot key sketch: sample rate " + sampleRate + ", fraction " + hotFraction);
+		}
+		this.sampleRate = sampleRate;
+		this.hotFraction = hotFraction;
+	}
+
+	// samples the key, and returns whether it is hot
+	public boolean offer(byte[] key) {
+		final int h1 = Utils.murmur2(key);
+		final int h2 = Integer.reverse(h1) * 0x9E3779B9 | 1;
+		if (ThreadLocalRandom.current().nextDouble() < this.sampleRate) {
+			for (int i = 0; i < DEPTH; ++i) {
+				this.counts[i * WIDTH + ((h1 + i * h2) & (WIDTH - 1))]++;
+			}
+			if (++this.samples >= DECAY_SAMPLES) {
+				for (int i = 0; i < this.counts.length; ++i) {
+					this.counts[i] >>>= 1;
+				}
+				this.samples >>>= 1;
+			}
+		}
+		if (this.samples < MIN_SAMPLES) {
+			return false;
+		}
+		int estimate = Integer.MAX_VALUE;
+		for (int i = 0; i < DEPTH; ++i) {
+			estimate = Math.min(estimate, this.counts[i * WIDTH + ((h1 + i * h2) & (WIDTH - 1))]);
+		}
+		return estimate >= this.hotFraction * this.samples;
+	}
+}
@@ -0,0 +1,335 @@
+package io.ninety.joiner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongSupplier;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.internals.TimeWindow;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * A window store held on the heap, for short windows. It is restored from its changelog on start.
+ *
+ * The windows are indexed both by key then time, for single key fetches, and by time then key, for range fetches and
+ * expiry. Range fetches are ordered by time then key, which is the order of the record cache when the segment
+ * interval is one. Windows are dropped once they are older than the retention period before the stream time.
+ */
+public class InMemoryWindowStore implements WindowStore<Bytes, byte[]> {
+
+	public static WindowBytesStoreSupplier supplier(String name, long retentionMs, long windowSizeMs) {
+		return new Supplier(name, retentionMs, () -> retentionMs, windowSizeMs);
+	}
+
+	// the current retention may change while the store is open, up to the retention period
+	public static WindowBytesStoreSupplier supplier(String name, long retentionMs, LongSupplier currentRetentionMs,
+			long windowSizeMs) {
+		return new Supplier(name, retentionMs, currentRetentionMs, windowSizeMs);
+	}
+
+	private static final int CHANGELOG_SUFFIX_SIZE = Long.BYTES + Integer.BYTES; // the window start and sequence number
+
+	private final String name;
+	private final LongSupplier retentionMs;
+	private final long windowSizeMs;
+	private final ConcurrentNavigableMap<Bytes, ConcurrentNavigableMap<Long, byte[]>> byKey = new ConcurrentSkipListMap<>();
+	private final ConcurrentNavigableMap<Long, ConcurrentSkipListSet<Bytes>> byTime = new ConcurrentSkipListMap<>();
+	private ProcessorContext context;
+	private long streamTimeMs = Long.MIN_VALUE;
+	private volatile boolean open;
+
+	private InMemoryWindowStore(String name, LongSupplier retentionMs, long windowSizeMs) {
+		this.name = name;
+		this.retentionMs = retentionMs;
+		this.windowSizeMs = windowSizeMs;
+	}
+
+	@Override
+	public String name() {
+		return this.name;
+	}
+
+	@Override
+	public void init(ProcessorContext context, StateStore root) {
+		this.context = context;
+		context.register(root, (key, value) -> {
+			final int keySize = key.length - CHANGELOG_SUFFIX_SIZE;
+			put(Bytes.wrap(Arrays.copyOf(key, keySize)), value, ByteBuffer.wrap(key, keySize, Long.BYTES).getLong());
+		});
+		this.open = true;
+	}
+
+	@Override
+	public void put(Bytes key, byte[] value) {
+		put(key, value, this.context.timestamp());
+	}
+
+	@Override
+	public void put(Bytes key, byte[] value, long windowStartTimestamp) {
+		this.streamTimeMs = Math.max(this.streamTimeMs, windowStartTimestamp);
+		final long expiredMs = this.streamTimeMs - this.retentionMs.getAsLong();
+		if (windowStartTimestamp <= expiredMs) {
+			return;
+		}
+		if (value == null) {
+			// drop the containers that the delete empties, as keys that are only ever deleted would otherwise pile up
+			final Map<Long, byte[]> windows = this.byKey.get(key);
+			if (windows != null && windows.remove(windowStartTimestamp) != null) {
+				if (windows.isEmpty()) {
+					this.byKey.remove(key, windows);
+				}
+				final Set<Bytes> keys = this.byTime.get(windowStartTimestamp);
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					this.byTime.remove(windowStartTimestamp, keys);
+				}
+			}
+		} else {
+			this.byKey.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>()).put(windowStartTimestamp, value);
+			this.byTime.computeIfAbsent(windowStartTimestamp, t -> new ConcurrentSkipListSet<>()).add(key);
+		}
+		expire(expiredMs);
+	}
+
+	@Override
+	public byte[] fetch(Bytes key, long time) {
+		final Map<Long, byte[]> windows = this.byKey.get(key);
+		return windows == null ? null : windows.get(time);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+		final NavigableMap<Long, byte[]> windows = this.byKey.get(key);
+		if (windows == null || timeFrom > timeTo) {
+			return new TimeIterator(Collections.emptyIterator());
+		}
+		return new TimeIterator(windows.subMap(timeFrom, true, timeTo, true).entrySet().iterator());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes from, Bytes to, long timeFrom, long timeTo) {
+		if (from.compareTo(to) > 0 || timeFrom > timeTo) {
+			return new WindowedIterator(Collections.emptyIterator());
+		}
+		return new WindowedIterator(this.byTime.subMap(timeFrom, true, timeTo, true).entrySet().stream()
+				.flatMap(e -> e.getValue().subSet(from, true, to, true).stream().map(k -> windowed(k, e.getKey())))
+				.iterator());
+	}
+
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+		return new WindowedIterator(this.byTime.entrySet().stream()
+				.flatMap(e -> e.getValue().stream().map(k -> windowed(k, e.getKey()))).iterator());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+		if (timeFrom > timeTo) {
+			return new WindowedIterator(Collections.emptyIterator());
+		}
+		return new WindowedIterator(this.byTime.subMap(timeFrom, true, timeTo, true).entrySet().stream()
+				.flatMap(e -> e.getValue().stream().map(k -> windowed(k, e.getKey()))).iterator());
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+		this.byKey.clear();
+		this.byTime.clear();
+		this.open = false;
+	}
+
+	@Override
+	public boolean persistent() {
+		return false;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	// drop the windows that start at or before the expiry time
+	private void expire(long expiredMs) {
+		final NavigableMap<Long, ConcurrentSkipListSet<Bytes>> expired = this.byTime.headMap(expiredMs, true);
+		for (Map.Entry<Long, ConcurrentSkipListSet<Bytes>> e = expired.pollFirstEntry(); e != null; e = expired
+				.pollFirstEntry()) {
+			for (final Bytes key : e.getValue()) {
+				final Map<Long, byte[]> windows = this.byKey.get(key);
+				if (windows != null) {
+					windows.remove(e.getKey());
+					if (windows.isEmpty()) {
+						this.byKey.remove(key, windows);
+					}
+				}
+			}
+		}
+	}
+
+	// the window, or null if it was removed since its key was read from the time index
+	private KeyValue<Windowed<Bytes>, byte[]> windowed(Bytes key, long windowStartMs) {
+		final byte[] value = fetch(key, windowStartMs);
+		return value == null ? null
+				: KeyValue.pair(new Windowed<>(key, new TimeWindow(windowStartMs, windowStartMs + this.windowSizeMs)),
+						value);
+	}
+
+	static class TimeIterator implements WindowStoreIterator<byte[]> {
+		private final Iterator<Map.Entry<Long, byte[]>> it;
+		private KeyValue<Long, byte[]> next;
+
+		TimeIterator(Iterator<Map.Entry<Long, byte[]>> it) {
+			this.it = it;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.next == null && this.it.hasNext()) {
+				final Map.Entry<Long, byte[]> e = this.it.next();
+				this.next = KeyValue.pair(e.getKey(), e.getValue());
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public KeyValue<Long, byte[]> next() {
+			final KeyValue<Long, byte[]> kv = peek();
+			this.next = null;
+			return kv;
+		}
+
+		@Override
+		public Long peekNextKey() {
+			return peek().key;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private KeyValue<Long, byte[]> peek() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return this.next;
+		}
+	}
+
+	static class WindowedIterator implements KeyValueIterator<Windowed<Bytes>, byte[]> {
+		private final Iterator<KeyValue<Windowed<Bytes>, byte[]>> it;
+		private KeyValue<Windowed<Bytes>, byte[]> next;
+
+		WindowedIterator(Iterator<KeyValue<Windowed<Bytes>, byte[]>> it) {
+			this.it = it;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null && this.it.hasNext()) {
+				this.next = this.it.next();
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public KeyValue<Windowed<Bytes>, byte[]> next() {
+			final KeyValue<Windowed<Bytes>, byte[]> kv = peek();
+			this.next = null;
+			return kv;
+		}
+
+		@Override
+		public Windowed<Bytes> peekNextKey() {
+			return peek().key;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private KeyValue<Windowed<Bytes>, byte[]> peek() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return this.next;
+		}
+	}
+
+	private static class Supplier implements WindowBytesStoreSupplier {
+		private final String name;
+		private final long retentionMs;
+		private final LongSupplier currentRetentionMs;
+		private final long windowSizeMs;
+
+		private Supplier(String name, long retentionMs, LongSupplier currentRetentionMs, long windowSizeMs) {
+			this.name = name;
+			this.retentionMs = retentionMs;
+			this.currentRetentionMs = currentRetentionMs;
+			this.windowSizeMs = windowSizeMs;
+		}
+
+		@Override
+		public String name() {
+			return this.name;
+		}
+
+		@Override
+		public WindowStore<Bytes, byte[]> get() {
+			return new InMemoryWindowStore(this.name, this.currentRetentionMs, this.windowSizeMs);
+		}
+
+		@Override
+		public String metricsScope() {
+			return "in-memory-window";
+		}
+
+		@Deprecated
+		@Override
+		public int segments() {
+			return 1;
+		}
+
+		// a segment per millisecond orders the record cache by time then key, as the range fetches are
+		@Override
+		public long segmentIntervalMs() {
+			return 1;
+		}
+
+		@Override
+		public long windowSize() {
+			return this.windowSizeMs;
+		}
+
+		@Override
+		public boolean retainDuplicates() {
+			return false;
+		}
+
+		@Override
+		public long retentionPeriod() {
+			return this.retentionMs;
+		}
+	}
+}
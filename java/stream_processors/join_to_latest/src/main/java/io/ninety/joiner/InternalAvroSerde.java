@@ -0,0 +1,216 @@
+package io.ninety.joiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+/**
+ * An Avro serde for the internal topics and stores of the joiner.
+ *
+ * The wire format is the same as GenericAvroSerde (a magic byte and the schema registry id of the writer schema), so
+ * existing changelogs stay readable, but the registry is only called the first time each schema or id is seen. The
+ * datum readers and writers are kept per schema and the encoders, decoders and output buffer are reused per thread.
+ *
+ * A projected serde reads only the given fields, using a reader schema derived from each writer schema, so that the
+ * other fields are skipped rather than decoded. It is used to read the source topics.
+ */
+public class InternalAvroSerde extends Serdes.WrapperSerde<GenericRecord> {
+
+	public static InternalAvroSerde create(SchemaRegistryClient schemaRegistry) {
+		return new InternalAvroSerde(new Schemas(schemaRegistry, null));
+	}
+
+	public static InternalAvroSerde createProjected(SchemaRegistryClient schemaRegistry, Set<String> fields) {
+		return new InternalAvroSerde(new Schemas(schemaRegistry, fields));
+	}
+
+	private static final byte MAGIC_BYTE = 0x0;
+	private static final int HEADER_SIZE = 5;
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private InternalAvroSerde(Schemas schemas) {
+		super(new InternalAvroSerializer(schemas), new InternalAvroDeserializer(schemas));
+	}
+
+	private static class InternalAvroSerializer implements Serializer<GenericRecord> {
+
+		private final Schemas schemas;
+		private final ThreadLocal<Output> output = ThreadLocal.withInitial(Output::new);
+
+		private InternalAvroSerializer(Schemas schemas) {
+			this.schemas = schemas;
+		}
+
+		@Override
+		public void configure(Map<String, ?> configs, boolean isKey) {
+		}
+
+		@Override
+		public byte[] serialize(String topic, GenericRecord value) {
+			if (value == null) {
+				return null;
+			}
+			final Writer writer = this.schemas.writer(topic, value.getSchema());
+			final Output out = this.output.get();
+			out.reset();
+			out.write(MAGIC_BYTE);
+			out.writeInt(writer.id);
+			try {
+				writer.datumWriter.write(value, out.encoder);
+				out.encoder.flush();
+			} catch (IOException e) {
+				throw new SerializationException("Bad record for schema id " + writer.id, e);
+			}
+			return out.toByteArray();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static class InternalAvroDeserializer implements Deserializer<GenericRecord> {
+
+		private final Schemas schemas;
+		private final ThreadLocal<BinaryDecoder> decoder = new ThreadLocal<>();
+
+		private InternalAvroDeserializer(Schemas schemas) {
+			this.schemas = schemas;
+		}
+
+		@Override
+		public void configure(Map<String, ?> configs, boolean isKey) {
+		}
+
+		@Override
+		public GenericRecord deserialize(String topic, byte[] bytes) {
+			if (bytes == null) {
+				return null;
+			}
+			if (bytes.length < HEADER_SIZE || bytes[0] != MAGIC_BYTE) {
+				throw new SerializationException("Bad avro header on topic: " + topic);
+			}
+			final int id = ((bytes[1] & 0xff) << 24) | ((bytes[2] & 0xff) << 16) | ((bytes[3] & 0xff) << 8)
+					| (bytes[4] & 0xff);
+			final BinaryDecoder d = DecoderFactory.get().binaryDecoder(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE,
+					this.decoder.get());
+			this.decoder.set(d);
+			try {
+				return this.schemas.reader(id).read(null, d);
+			} catch (IOException e) {
+				throw new SerializationException("Bad record for schema id " + id, e);
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	// the registry ids, readers and writers of the schemas seen by one serde, shared by its serializer and deserializer
+	private static class Schemas {
+
+		private final SchemaRegistryClient schemaRegistry;
+		private final Set<String> projection; // the fields to read, or null for all
+		private final Map<Schema, Writer> writers = new ConcurrentHashMap<>();
+		private final Map<Integer, GenericDatumReader<GenericRecord>> readers = new ConcurrentHashMap<>();
+
+		private Schemas(SchemaRegistryClient schemaRegistry, Set<String> projection) {
+			this.schemaRegistry = schemaRegistry;
+			this.projection = projection;
+		}
+
+		private Writer writer(String topic, Schema schema) {
+			final Writer writer = this.writers.get(schema);
+			if (writer != null) {
+				return writer;
+			}
+			return this.writers.computeIfAbsent(schema, s -> {
+				try {
+					return new Writer(this.schemaRegistry.register(topic + "-value", s), new GenericDatumWriter<>(s));
+				} catch (IOException | RestClientException e) {
+					throw new SerializationException("Bad schema registration on topic: " + topic, e);
+				}
+			});
+		}
+
+		private GenericDatumReader<GenericRecord> reader(int id) {
+			final GenericDatumReader<GenericRecord> reader = this.readers.get(id);
+			if (reader != null) {
+				return reader;
+			}
+			return this.readers.computeIfAbsent(id, i -> {
+				try {
+					final Schema writerSchema = this.schemaRegistry.getById(i);
+					return new GenericDatumReader<>(writerSchema, project(writerSchema));
+				} catch (IOException | RestClientException e) {
+					throw new SerializationException("Bad schema id: " + i, e);
+				}
+			});
+		}
+
+		// the writer schema with only the projected fields, which keeps its name so that it resolves against it
+		private Schema project(Schema writerSchema) {
+			if (this.projection == null || writerSchema.getType() != Schema.Type.RECORD) {
+				return writerSchema;
+			}
+			final List<Field> fields = new ArrayList<>();
+			for (final Field f : writerSchema.getFields()) {
+				if (this.projection.contains(f.name())) {
+					fields.add(new Field(f.name(), f.schema(), f.doc(), f.defaultVal(), f.order()));
+				}
+			}
+			final Schema readerSchema = Schema.createRecord(writerSchema.getName(), writerSchema.getDoc(),
+					writerSchema.getNamespace(), writerSchema.isError(), fields);
+			writerSchema.getAliases().forEach(readerSchema::addAlias);
+			return readerSchema;
+		}
+	}
+
+	private static class Writer {
+		private final int id;
+		private final GenericDatumWriter<GenericRecord> datumWriter;
+
+		private Writer(int id, GenericDatumWriter<GenericRecord> datumWriter) {
+			this.id = id;
+			this.datumWriter = datumWriter;
+		}
+	}
+
+	// a reusable buffer with an encoder that writes directly into it
+	private static class Output extends ByteArrayOutputStream {
+		private final BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(this, null);
+
+		private Output() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		private void writeInt(int i) {
+			write(i >>> 24);
+			write(i >>> 16);
+			write(i >>> 8);
+			write(i);
+		}
+	}
+}
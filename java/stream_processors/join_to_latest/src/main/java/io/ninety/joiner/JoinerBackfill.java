@@ -0,0 +1,432 @@
+package io.ninety.joiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.kstream.KeyValueMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+
+/**
+ * Joins bounded ranges of the topics, or avro files, in one batch, with the same output as the asof join mode once all
+ * late records have arrived, but without the window stores or their retention limit.
+ *
+ * Each stream is read once and sorted by join key then event time, spilling to sorted files when it does not fit in
+ * memory. The sorted streams are then merged, so each record of the first stream is joined to the last record at or
+ * before it, within the join window, of each other stream. The output is written to the out topic, with large producer
+ * batches, or to an avro file. Records read from files have no key, so they are joined on their where fields only.
+ * The schema registry is only needed to read or write topics, as the records of a file are sorted in the binary
+ * encoding of its schema.
+ */
+public class JoinerBackfill {
+
+	// the schema registry may be null if every stream is read from a file and the output is written to a file
+	public static JoinerBackfill create(JoinerProperties props, SchemaRegistryClient schemaRegistry) {
+		return new JoinerBackfill(props, schemaRegistry);
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(JoinerBackfill.class);
+	private static final String LEFT = "left";
+	private static final String RIGHT = "right";
+	private static final String FILE_KEY = "";
+	private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+	private final JoinerProperties props;
+	private final SchemaRegistryClient schemaRegistry;
+	private final JoinerMetrics metrics;
+	private final List<Source> sources = new ArrayList<>();
+
+	private JoinerBackfill(JoinerProperties props, SchemaRegistryClient schemaRegistry) {
+		this.props = props;
+		this.schemaRegistry = schemaRegistry;
+		this.metrics = JoinerMetrics.create(props.outTopic(), props.traceSampleRate());
+		if (props.joinStreams().isEmpty()) {
+			this.sources.add(new Source(LEFT, props.leftTopic(), props.leftWhereField(), props.leftTimestampField(),
+					props.leftFields(), props.leftReferencedFields(), props.leftFilter()));
+			this.sources.add(new Source(RIGHT, props.rightTopic(), props.rightWhereField(),
+					props.rightTimestampField(), props.rightFields(), props.rightReferencedFields(), props.rightFilter()));
+		} else {
+			for (final String name : props.joinStreams()) {
+				this.sources.add(new Source(name, props.streamTopic(name), props.streamWhereField(name),
+						props.streamTimestampField(name), props.streamFields(name), props.streamReferencedFields(name),
+						props.streamFilter(name)));
+			}
+		}
+		if (schemaRegistry == null && (props.backfillOutFile() == null
+				|| this.sources.stream().anyMatch(source -> source.file == null))) {
+			throw new RuntimeException("Bad schema registry url, it is needed to read or write topics: null");
+		}
+	}
+
+	// returns the number of records written
+	public long run() throws IOException {
+		final List<BackfillSorter> sorters = new ArrayList<>();
+		try {
+			for (int i = 0; i < this.sources.size(); ++i) {
+				final BackfillSorter sorter = BackfillSorter.create(new File(this.props.backfillTmpDir()),
+						this.props.backfillSortBufferRecords());
+				sorters.add(sorter);
+				read(this.sources.get(i), i == AsOfJoinTransformer.DRIVING_STREAM, sorter);
+			}
+			return join(sorters);
+		} finally {
+			for (final BackfillSorter sorter : sorters) {
+				sorter.close();
+			}
+		}
+	}
+
+	// sorts the records of the stream in the event time range, which for the other streams starts a window earlier
+	private void read(Source source, boolean driving, BackfillSorter sorter) throws IOException {
+		final Instant from = this.props.backfillFrom();
+		final Instant to = this.props.backfillTo();
+		final long windowMs = this.props.joinWindowSize().toMillis();
+		final long fromMs = from == null ? Long.MIN_VALUE : from.toEpochMilli() - (driving ? 0 : windowMs);
+		final long toMs = to == null ? Long.MAX_VALUE : to.toEpochMilli();
+		if (source.file != null) {
+			readFile(source, fromMs, toMs, sorter);
+		} else {
+			readTopic(source, from == null ? null : fromMs, to == null ? null : toMs, sorter);
+		}
+	}
+
+	// the records are sorted in the binary encoding of the schema of the file, which is then used to decode them
+	private void readFile(Source source, long fromMs, long toMs, BackfillSorter sorter) throws IOException {
+		try (final DataFileReader<GenericRecord> reader = new DataFileReader<>(new File(source.file),
+				new GenericDatumReader<>())) {
+			final GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(reader.getSchema());
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			BinaryEncoder encoder = null;
+			source.fileReader = new GenericDatumReader<>(reader.getSchema());
+			GenericRecord value = null;
+			while (reader.hasNext()) {
+				value = reader.next(value);
+				final long ts = source.timestampExtractor.extract(value);
+				if (ts >= fromMs && ts < toMs && source.accepts(FILE_KEY, value)) {
+					out.reset();
+					encoder = EncoderFactory.get().directBinaryEncoder(out, encoder);
+					writer.write(value, encoder);
+					sorter.add(AsOfJoinTransformer.storeKey(FILE_KEY, value, source.whereField), ts, FILE_KEY,
+							out.toByteArray());
+				}
+			}
+		}
+	}
+
+	// reads from the offsets of the start time to those of the end time plus the retention, or to the end offsets when
+	// the backfill starts, as records may arrive up to the retention after their event time
+	private void readTopic(Source source, Long fromMs, Long toMs, BackfillSorter sorter) throws IOException {
+		final Properties consumerProps = new Properties();
+		consumerProps.putAll(this.props.innerProps());
+		consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+		consumerProps.putIfAbsent(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "10000");
+		final long retentionMs = this.props.joinWindowRetention().toMillis();
+		final long minMs = fromMs == null ? Long.MIN_VALUE : fromMs;
+		final long maxMs = toMs == null ? Long.MAX_VALUE : toMs;
+		try (final KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(consumerProps,
+				new StringDeserializer(), new ByteArrayDeserializer())) {
+			final List<TopicPartition> partitions = consumer.partitionsFor(source.topic).stream()
+					.map(p -> new TopicPartition(source.topic, p.partition())).collect(Collectors.toList());
+			consumer.assign(partitions);
+			final Map<TopicPartition, Long> starts = offsets(consumer, partitions, fromMs, false);
+			final Map<TopicPartition, Long> ends = offsets(consumer, partitions,
+					toMs == null ? null : toMs + retentionMs, true);
+			final Set<TopicPartition> remaining = new HashSet<>();
+			for (final TopicPartition p : partitions) {
+				consumer.seek(p, starts.get(p));
+				if (starts.get(p) < ends.get(p)) {
+					remaining.add(p);
+				} else {
+					consumer.pause(Arrays.asList(p));
+				}
+			}
+			while (!remaining.isEmpty()) {
+				for (final ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+					final TopicPartition p = new TopicPartition(record.topic(), record.partition());
+					if (record.key() == null || record.value() == null || record.offset() >= ends.get(p)) {
+						continue;
+					}
+					final GenericRecord value = source.decode(record.value());
+					final long ts = source.timestampExtractor.extract(value);
+					if (ts >= minMs && ts < maxMs && source.accepts(record.key(), value)) {
+						sorter.add(AsOfJoinTransformer.storeKey(record.key(), value, source.whereField), ts,
+								record.key(), record.value());
+					}
+				}
+				for (final Iterator<TopicPartition> it = remaining.iterator(); it.hasNext();) {
+					final TopicPartition p = it.next();
+					if (consumer.position(p) >= ends.get(p)) {
+						consumer.pause(Arrays.asList(p));
+						it.remove();
+					}
+				}
+			}
+		}
+	}
+
+	// the offsets of the first records at or after the time, or the beginning or end offsets if there is no time
+	private static Map<TopicPartition, Long> offsets(KafkaConsumer<?, ?> consumer, List<TopicPartition> partitions,
+			Long timeMs, boolean end) {
+		final Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+		if (timeMs == null) {
+			return end ? endOffsets : consumer.beginningOffsets(partitions);
+		}
+		final Map<TopicPartition, Long> times = new HashMap<>();
+		partitions.forEach(p -> times.put(p, Math.max(0, timeMs)));
+		final Map<TopicPartition, OffsetAndTimestamp> found = consumer.offsetsForTimes(times);
+		final Map<TopicPartition, Long> offsets = new HashMap<>();
+		for (final TopicPartition p : partitions) {
+			final OffsetAndTimestamp offset = found.get(p);
+			offsets.put(p, offset == null ? endOffsets.get(p) : offset.offset());
+		}
+		return offsets;
+	}
+
+	private long join(List<BackfillSorter> sorters) throws IOException {
+		final int n = sorters.size();
+		final AvroFieldsValueJoiner joiner = AvroFieldsValueJoiner
+				.create(this.sources.stream().map(s -> s.fields).collect(Collectors.toList()), this.metrics);
+		final KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper = AvroKeyValueMapper
+				.create(AvroTimestampExtractor.create(this.props.groupByTimestampField()), this.props.groupByField());
+		final AvroFilterPredicate joinCondition = this.props.joinCondition() == null ? null
+				: AvroFilterPredicate.create(this.props.joinCondition(), this.metrics);
+		final long windowMs = this.props.joinWindowSize().toMillis();
+		final Iterator<BackfillSorter.Entry> driving = sorters.get(AsOfJoinTransformer.DRIVING_STREAM).sorted();
+		final Cursor[] cursors = new Cursor[n];
+		for (int i = 1; i < n; ++i) {
+			cursors[i] = new Cursor(sorters.get(i).sorted(), this.sources.get(i));
+		}
+		final Source drivingSource = this.sources.get(AsOfJoinTransformer.DRIVING_STREAM);
+		final GenericRecord[] values = new GenericRecord[n];
+		long count = 0;
+		try (final Sink sink = sink()) {
+			while (driving.hasNext()) {
+				final BackfillSorter.Entry e = driving.next();
+				boolean complete = true;
+				for (int i = 1; complete && i < n; ++i) {
+					values[i] = cursors[i].floor(e.joinKey, e.timestamp - windowMs, e.timestamp);
+					complete = values[i] != null;
+				}
+				if (complete) {
+					values[AsOfJoinTransformer.DRIVING_STREAM] = drivingSource.decode(e.value);
+					final GenericRecord joinValue = joiner.join(values);
+					if (joinCondition != null && !joinCondition.test(e.key, joinValue)) {
+						continue;
+					}
+					sink.write(groupKeyMapper.apply(e.key, joinValue).toString(), joinValue, e.timestamp);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private Sink sink() {
+		final String file = this.props.backfillOutFile();
+		return file != null ? new FileSink(new File(file)) : new TopicSink();
+	}
+
+	private final class Source {
+		private final String name;
+		private final String topic;
+		private final String whereField;
+		private final AvroTimestampExtractor timestampExtractor;
+		private final Map<String, String> fields;
+		private final String file; // read instead of the topic, if set
+		private final Deserializer<GenericRecord> deserializer; // decodes only the fields that the joiner reads
+		private final AvroFilterPredicate filter;
+		private GenericDatumReader<GenericRecord> fileReader; // decodes the records of the file, once it is read
+		private BinaryDecoder decoder;
+
+		private Source(String name, String topic, String whereField, String timestampField, Map<String, String> fields,
+				Set<String> referencedFields, FilterExpression filter) {
+			this.name = name;
+			this.topic = topic;
+			this.whereField = whereField;
+			this.timestampExtractor = AvroTimestampExtractor.create(timestampField);
+			this.fields = fields;
+			this.file = JoinerBackfill.this.props.backfillFile(name);
+			this.deserializer = this.file != null ? null
+					: InternalAvroSerde.createProjected(JoinerBackfill.this.schemaRegistry, referencedFields)
+							.deserializer();
+			this.filter = filter == null ? null : AvroFilterPredicate.create(filter, JoinerBackfill.this.metrics);
+		}
+
+		private boolean accepts(String key, GenericRecord value) {
+			return this.filter == null || this.filter.test(key, value);
+		}
+
+		private GenericRecord decode(byte[] value) {
+			if (this.fileReader == null) {
+				return this.deserializer.deserialize(this.topic, value);
+			}
+			this.decoder = DecoderFactory.get().binaryDecoder(value, this.decoder);
+			try {
+				return this.fileReader.read(null, this.decoder);
+			} catch (IOException e) {
+				throw new RuntimeException("Bad backfill record of file: " + this.file, e);
+			}
+		}
+	}
+
+	// walks a sorted stream forwards to the latest record at or before each of a sequence of ascending join keys and
+	// times
+	private static final class Cursor {
+		private final Iterator<BackfillSorter.Entry> it;
+		private final Source source;
+		private BackfillSorter.Entry next;
+		private BackfillSorter.Entry latest;
+		private GenericRecord latestValue;
+
+		private Cursor(Iterator<BackfillSorter.Entry> it, Source source) {
+			this.it = it;
+			this.source = source;
+			this.next = it.hasNext() ? it.next() : null;
+		}
+
+		private GenericRecord floor(String joinKey, long fromMs, long toMs) {
+			while (this.next != null) {
+				final int c = this.next.joinKey.compareTo(joinKey);
+				if (c > 0 || (c == 0 && this.next.timestamp > toMs)) {
+					break;
+				}
+				this.latest = this.next;
+				this.latestValue = null;
+				this.next = this.it.hasNext() ? this.it.next() : null;
+			}
+			if (this.latest == null || !this.latest.joinKey.equals(joinKey) || this.latest.timestamp < fromMs) {
+				return null;
+			}
+			if (this.latestValue == null) {
+				this.latestValue = this.source.decode(this.latest.value);
+			}
+			return this.latestValue;
+		}
+	}
+
+	private interface Sink extends Closeable {
+		void write(String key, GenericRecord value, long timestamp) throws IOException;
+	}
+
+	private final class TopicSink implements Sink {
+		private final KafkaProducer<String, GenericRecord> producer;
+		private final AtomicReference<Exception> error = new AtomicReference<>();
+
+		private TopicSink() {
+			final GenericAvroSerde avroSerde = new GenericAvroSerde(JoinerBackfill.this.schemaRegistry);
+			avroSerde.configure(JoinerBackfill.this.props.toMap(), false);
+			final Properties producerProps = new Properties();
+			producerProps.putAll(JoinerBackfill.this.props.innerProps());
+			producerProps.putIfAbsent(ProducerConfig.BATCH_SIZE_CONFIG, "1048576");
+			producerProps.putIfAbsent(ProducerConfig.LINGER_MS_CONFIG, "100");
+			producerProps.putIfAbsent(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+			producerProps.putIfAbsent(ProducerConfig.ACKS_CONFIG, "all");
+			this.producer = new KafkaProducer<>(producerProps, new StringSerializer(), avroSerde.serializer());
+		}
+
+		@Override
+		public void write(String key, GenericRecord value, long timestamp) {
+			checkError();
+			this.producer.send(new ProducerRecord<>(JoinerBackfill.this.props.outTopic(), null, timestamp, key, value),
+					(metadata, e) -> {
+						if (e != null) {
+							this.error.compareAndSet(null, e);
+						}
+					});
+		}
+
+		@Override
+		public void close() {
+			this.producer.close();
+			checkError();
+		}
+
+		private void checkError() {
+			final Exception e = this.error.get();
+			if (e != null) {
+				throw new RuntimeException("Bad backfill write: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static final class FileSink implements Sink {
+		private final File file;
+		private DataFileWriter<GenericRecord> writer;
+
+		private FileSink(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public void write(String key, GenericRecord value, long timestamp) throws IOException {
+			if (this.writer == null) {
+				this.writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(value.getSchema()));
+				this.writer.create(value.getSchema(), this.file);
+			}
+			this.writer.append(value);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.writer != null) {
+				this.writer.close();
+			}
+		}
+	}
+
+	// e.g. java io.ninety.joiner.JoinerBackfill backfill.properties
+	public static void main(final String[] args) throws IOException {
+		final JoinerProperties props = new JoinerProperties();
+		if (args.length > 0) {
+			props.loadFromFile(args[0]);
+		}
+		props.loadFromEnvironment("APP_");
+		final String url = props.innerProps().getProperty(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG);
+		final SchemaRegistryClient schemaRegistry = url == null ? null
+				: new CachedSchemaRegistryClient(url, JoinerTopology.MAX_SCHEMAS);
+		final long startNs = System.nanoTime();
+		final long records = JoinerBackfill.create(props, schemaRegistry).run();
+		LOG.info("Wrote {} records in {}ms", records, (System.nanoTime() - startNs) / 1000000);
+	}
+}
@@ -0,0 +1,308 @@
+package io.ninety.joiner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.Topology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
+
+/**
+ * Runs the pipelines configured by the properties files of a directory in a few shared KafkaStreams runtimes.
+ *
+ * The host.properties file holds the streams configs of the runtimes and the defaults of the pipelines, and every other
+ * *.properties file configures one pipeline. The pipelines of a runtime are built into one topology, so they share its
+ * threads, consumer group, record cache and schema registry client, and the bounded RocksDB settings share one block
+ * cache across all runtimes. The window mode pipelines each run in their own runtime, as Kafka Streams numbers their
+ * window join stores in the order in which the pipelines of a topology are built. The directory is watched, and a
+ * runtime is only restarted when one of its pipelines is added, changed or removed.
+ */
+public class JoinerHost implements Closeable {
+
+	public static final String HOST_FILE = "host.properties";
+
+	public static JoinerHost create(File dir) throws IOException {
+		return new JoinerHost(dir);
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(JoinerHost.class);
+	private static final String PROPERTIES_SUFFIX = ".properties";
+	private static final long RELOAD_DELAY_MS = 1000; // waits for a batch of file changes to finish
+	private static final long CLOSE_TIMEOUT_MS = 60000;
+
+	private final File dir;
+	private final Map<String, StreamsRuntime> runtimes = new HashMap<>();
+	private SchemaRegistryClient schemaRegistry;
+	private String schemaRegistryUrl;
+
+	private JoinerHost(File dir) {
+		this.dir = dir;
+	}
+
+	// reads the directory again and restarts the runtimes whose pipelines differ from the running ones
+	public synchronized void reload() throws IOException {
+		final Properties hostProps = load(new File(this.dir, HOST_FILE));
+		final JoinerProperties defaults = new JoinerProperties();
+		defaults.put(StreamsConfig.APPLICATION_ID_CONFIG, "streams-joiner.host");
+		defaults.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+		defaults.loadFromProperties(hostProps);
+		defaults.loadFromEnvironment("APP_");
+		final String url = defaults.innerProps().getProperty(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG);
+		if (url == null) {
+			throw new RuntimeException("Bad schema registry url: " + url);
+		}
+		if (this.schemaRegistry == null || !url.equals(this.schemaRegistryUrl)) {
+			this.schemaRegistry = new CachedSchemaRegistryClient(url, JoinerTopology.MAX_SCHEMAS);
+			this.schemaRegistryUrl = url;
+		}
+
+		// assign the pipelines to runtimes, in file name order
+		final Map<String, Map<String, Properties>> pipelines = new TreeMap<>();
+		final File[] files = this.dir.listFiles((d, name) -> name.endsWith(PROPERTIES_SUFFIX) && !name.equals(HOST_FILE));
+		for (final File file : files == null ? new File[0] : files) {
+			final String name = file.getName().substring(0, file.getName().length() - PROPERTIES_SUFFIX.length());
+			final Properties props = new Properties();
+			props.putAll(defaults.innerProps());
+			props.putAll(load(file));
+			pipelines.computeIfAbsent(runtimeName(name, props, defaults.hostRuntimes()), r -> new TreeMap<>())
+					.put(name, props);
+		}
+
+		// stop the runtimes that no longer have pipelines and restart those that have changed
+		for (final String name : new ArrayList<>(this.runtimes.keySet())) {
+			if (!pipelines.containsKey(name)) {
+				LOG.info("Stopping runtime {}", name);
+				this.runtimes.remove(name).close();
+			}
+		}
+		for (final Map.Entry<String, Map<String, Properties>> e : pipelines.entrySet()) {
+			final StreamsRuntime running = this.runtimes.get(e.getKey());
+			if (running != null && running.pipelines.equals(e.getValue())) {
+				continue;
+			}
+			final StreamsRuntime runtime;
+			try {
+				runtime = new StreamsRuntime(e.getKey(), defaults, e.getValue(), this.schemaRegistry);
+			} catch (RuntimeException ex) {
+				LOG.error("Bad pipelines for runtime {}, keeping the running ones", e.getKey(), ex);
+				continue;
+			}
+			// the replacement has the same application id and state directory, so it can only start once the running
+			// runtime has released its tasks, and the running pipelines are started again if it fails to start
+			if (running != null) {
+				LOG.info("Restarting runtime {} with pipelines {}", e.getKey(), e.getValue().keySet());
+				running.close();
+				this.runtimes.remove(e.getKey());
+			} else {
+				LOG.info("Starting runtime {} with pipelines {}", e.getKey(), e.getValue().keySet());
+			}
+			if (start(runtime) || running == null) {
+				continue;
+			}
+			LOG.info("Restarting runtime {} with its previous pipelines {}", e.getKey(), running.pipelines.keySet());
+			try {
+				start(new StreamsRuntime(e.getKey(), running.defaults, running.pipelines, this.schemaRegistry));
+			} catch (RuntimeException ex) {
+				LOG.error("Bad previous pipelines for runtime {}", e.getKey(), ex);
+			}
+		}
+	}
+
+	private boolean start(StreamsRuntime runtime) {
+		try {
+			runtime.start();
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Failed to start runtime {}", runtime.name, e);
+			runtime.close();
+			return false;
+		}
+		this.runtimes.put(runtime.name, runtime);
+		return true;
+	}
+
+	// reloads the directory on each batch of changes to it, until interrupted
+	public void watch() throws IOException, InterruptedException {
+		try (final WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			this.dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			reload();
+			while (true) {
+				WatchKey key = watcher.take();
+				boolean changed = false;
+				while (key != null) {
+					changed |= key.pollEvents().stream()
+							.anyMatch(ev -> ((Path) ev.context()).toString().endsWith(PROPERTIES_SUFFIX));
+					key.reset();
+					key = watcher.poll(RELOAD_DELAY_MS, TimeUnit.MILLISECONDS);
+				}
+				if (changed) {
+					reload();
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		this.runtimes.values().forEach(StreamsRuntime::close);
+		this.runtimes.clear();
+	}
+
+	// the topology of the pipelines of a runtime, in name order, as the generated internal topic and store names
+	// depend on the order in which they are built
+	public static Topology createTopology(Map<String, Properties> pipelines, SchemaRegistryClient schemaRegistry) {
+		final Map<String, String> sourceTopics = new HashMap<>();
+		final ArrayList<JoinerProperties> pipelineProps = new ArrayList<>();
+		for (final Map.Entry<String, Properties> e : new TreeMap<>(pipelines).entrySet()) {
+			final JoinerProperties props = new JoinerProperties();
+			props.loadFromProperties(e.getValue());
+			if (pipelines.size() > 1 && numberedStores(props)) {
+				throw new RuntimeException("Bad pipeline " + e.getKey()
+						+ ": the window join mode cannot share a runtime, as adding or removing another pipeline would"
+						+ " reset its window join stores");
+			}
+			for (final String topic : props.sourceTopics()) {
+				final String other = sourceTopics.put(topic, e.getKey());
+				if (other != null) {
+					throw new RuntimeException("Bad pipeline " + e.getKey() + ": topic " + topic
+							+ " is already read by pipeline " + other + " of the same runtime");
+				}
+			}
+			pipelineProps.add(props);
+		}
+		return JoinerTopology.create(pipelineProps, schemaRegistry);
+	}
+
+	// the window mode pipelines run alone, in a runtime named after them, and the others share the runtimes
+	private static String runtimeName(String pipeline, Properties props, int runtimes) {
+		final JoinerProperties pipelineProps = new JoinerProperties();
+		pipelineProps.loadFromProperties(props);
+		if (pipelineProps.hostRuntime() != null) {
+			return pipelineProps.hostRuntime();
+		}
+		return numberedStores(pipelineProps) ? pipeline : String.valueOf(Math.floorMod(pipeline.hashCode(), runtimes));
+	}
+
+	// whether the pipeline has window join stores, which Kafka Streams 2.2 cannot name, so it numbers them in the order
+	// in which they are built
+	private static boolean numberedStores(JoinerProperties props) {
+		return props.joinStreams().isEmpty() && JoinerProperties.JOIN_MODE_WINDOW.equals(props.joinMode());
+	}
+
+	private static Properties load(File file) throws IOException {
+		final Properties props = new Properties();
+		if (file.exists()) {
+			try (final InputStream in = new FileInputStream(file)) {
+				props.load(in);
+			}
+		}
+		return props;
+	}
+
+	private static class StreamsRuntime {
+		private final String name;
+		private final JoinerProperties defaults;
+		private final Map<String, Properties> pipelines;
+		private final Properties streamsProps;
+		private final KafkaStreams streams;
+
+		private StreamsRuntime(String name, JoinerProperties defaults, Map<String, Properties> pipelines,
+				SchemaRegistryClient schemaRegistry) {
+			this.name = name;
+			this.defaults = defaults;
+			this.pipelines = pipelines;
+			final JoinerProperties props = new JoinerProperties();
+			props.loadFromProperties(defaults.innerProps());
+			props.put(StreamsConfig.APPLICATION_ID_CONFIG, defaults.innerProps().getProperty(
+					StreamsConfig.APPLICATION_ID_CONFIG) + "." + name);
+			JoinerTopology.configure(props);
+			for (final Properties pipeline : pipelines.values()) {
+				final JoinerProperties pipelineProps = new JoinerProperties();
+				pipelineProps.loadFromProperties(pipeline);
+				JoinerTopology.checkCoPartitioned(pipelineProps);
+			}
+			this.streamsProps = props.innerProps();
+			this.streams = new KafkaStreams(createTopology(pipelines, schemaRegistry), props.innerProps());
+		}
+
+		private void start() throws IOException {
+			final Set<String> snapshotDirs = new TreeSet<>();
+			for (final Properties pipeline : this.pipelines.values()) {
+				final String dir = pipeline.getProperty(JoinerProperties.STORE_SNAPSHOT_DIR);
+				if (dir != null) {
+					snapshotDirs.add(dir);
+				}
+			}
+			for (final String dir : snapshotDirs) {
+				StoreSnapshots.restore(this.streamsProps, dir);
+			}
+			this.streams.start();
+		}
+
+		private void close() {
+			this.streams.close(Duration.ofMillis(CLOSE_TIMEOUT_MS));
+		}
+	}
+
+	// e.g. java io.ninety.joiner.JoinerHost /etc/joiner
+	public static void main(final String[] args) throws IOException {
+		final File dir = new File(args.length > 0 ? args[0] : ".");
+		final JoinerHost host = JoinerHost.create(dir);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Thread watcher = new Thread(() -> {
+			try {
+				host.watch();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final Throwable e) {
+				LOG.error("Stopping the host", e);
+			} finally {
+				latch.countDown();
+			}
+		}, "streams-joiner-host-watcher");
+
+		// attach shutdown handler to catch control-c
+		Runtime.getRuntime().addShutdownHook(new Thread("streams-joiner-shutdown-hook") {
+			@Override
+			public void run() {
+				watcher.interrupt();
+				host.close();
+				latch.countDown();
+			}
+		});
+
+		try {
+			watcher.start();
+			latch.await();
+		} catch (final Throwable e) {
+			System.exit(1);
+		}
+		host.close();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,377 @@
+package io.ninety.joiner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.MeasurableStat;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.Sensor.RecordingLevel;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing;
+import org.apache.kafka.common.metrics.stats.Value;
+import org.apache.kafka.streams.StreamsMetrics;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * The sensors of one joiner pipeline, registered in the Kafka Streams metrics registry (and so exposed over JMX) under
+ * the {@value #GROUP} group with a pipeline tag.
+ *
+ * The functional operators (joiner, filter, aggregator) have no processor context, so the sensors are registered when
+ * the first processor of the pipeline is initialised. Until then, recording does nothing. Counts are recorded at the
+ * INFO level and processing times at the DEBUG level.
+ */
+public final class JoinerMetrics {
+
+	public static final String GROUP = "joiner-metrics";
+
+	// operators
+	public static final String JOIN = "join";
+	public static final String WHERE_FILTER = "where-filter";
+	public static final String AGGREGATE = "aggregate";
+	public static final String OUTPUT = "output";
+	public static final String ASOF_JOIN = "asof-join";
+	public static final String CHANGE_FILTER = "change-filter";
+	public static final String FILTER = "filter";
+
+	private static final String[] OPERATORS = { JOIN, WHERE_FILTER, AGGREGATE, OUTPUT, ASOF_JOIN, CHANGE_FILTER,
+			FILTER };
+	private static final double MAX_PROCESS_TIME_NS = 10_000_000;
+	private static final int PERCENTILES_SIZE_BYTES = 4000;
+	private static final double MAX_LAG_MS = 3_600_000; // the lag percentiles are accurate up to an hour
+
+	public static JoinerMetrics create(String pipeline, double traceSampleRate) {
+		return new JoinerMetrics(pipeline, RecordTracer.create(pipeline, traceSampleRate));
+	}
+
+	private final String pipeline;
+	private final RecordTracer tracer;
+	private final LongAdder leftRecordCount = new LongAdder();
+	private final LongAdder whereFilterCount = new LongAdder();
+	private volatile Sensors sensors;
+
+	private JoinerMetrics(String pipeline, RecordTracer tracer) {
+		this.pipeline = pipeline;
+		this.tracer = tracer;
+	}
+
+	public void bind(ProcessorContext context) {
+		if (this.sensors == null) {
+			synchronized (this) {
+				if (this.sensors == null) {
+					this.sensors = new Sensors(context.metrics());
+				}
+			}
+		}
+	}
+
+	public RecordTracer tracer() {
+		return this.tracer;
+	}
+
+	public void leftRecord() {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			this.leftRecordCount.increment();
+			s.leftRecords.record();
+		}
+	}
+
+	public void joinPair() {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.joinPairs.record();
+		}
+	}
+
+	public void whereFilter(boolean accepted) {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			this.whereFilterCount.increment();
+			if (!accepted) {
+				s.whereFilterRejected.record();
+			}
+		}
+	}
+
+	public void filter(boolean accepted) {
+		final Sensors s = this.sensors;
+		if (s != null && !accepted) {
+			s.filterRejected.record();
+		}
+	}
+
+	// the event time of a record read from a source partition, which moves its stream time on if it is later
+	public void streamTime(String topic, int partition, long timestampMs) {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.streamTime(topic, partition).record(timestampMs);
+		}
+	}
+
+	// the wall clock time minus the event time of a record read from a source topic
+	public void ingestLag(long lagMs) {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.ingestLag.record(lagMs);
+		}
+	}
+
+	// the wall clock time minus the event time of a record written to the out topic
+	public void outputLag(long lagMs) {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.outputLag.record(lagMs);
+		}
+	}
+
+	// a source record that is too late for the join stores
+	public void lateJoin() {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.lateJoinDropped.record();
+		}
+	}
+
+	// a joined record that is too late for the windows of the aggregate
+	public void lateAggregate() {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.lateAggregateDropped.record();
+		}
+	}
+
+	// the retention of the join or group windows, after it is adapted to the lateness percentile
+	public void retention(String name, long retentionMs, long lateMs) {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.retention(name, retentionMs, lateMs);
+		}
+	}
+
+	public void aggregate(boolean replaced) {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			(replaced ? s.aggregateReplaced : s.aggregateKept).record();
+		}
+	}
+
+	public void aggregateChange(boolean changed) {
+		final Sensors s = this.sensors;
+		if (s != null && !changed) {
+			s.unchangedAggregateDropped.record();
+		}
+	}
+
+	public void hotKeySalted() {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.hotKeySalted.record();
+		}
+	}
+
+	public void nullAggregateDropped() {
+		final Sensors s = this.sensors;
+		if (s != null) {
+			s.nullAggregateDropped.record();
+		}
+	}
+
+	// returns the start time to pass to stopTimer, or zero if processing times are not being recorded
+	public long startTimer(String operator) {
+		final Sensors s = this.sensors;
+		if (s != null && s.processTime.get(operator).shouldRecord()) {
+			return System.nanoTime();
+		}
+		return 0;
+	}
+
+	public void stopTimer(String operator, long startNs) {
+		if (startNs != 0) {
+			this.sensors.processTime.get(operator).record(System.nanoTime() - startNs);
+		}
+	}
+
+	private final class Sensors {
+		private final Sensor leftRecords;
+		private final Sensor joinPairs;
+		private final Sensor whereFilterRejected;
+		private final Sensor filterRejected;
+		private final Sensor aggregateReplaced;
+		private final Sensor aggregateKept;
+		private final Sensor unchangedAggregateDropped;
+		private final Sensor nullAggregateDropped;
+		private final Sensor hotKeySalted;
+		private final Sensor ingestLag;
+		private final Sensor outputLag;
+		private final Sensor lateJoinDropped;
+		private final Sensor lateAggregateDropped;
+		private final Map<String, Sensor> processTime = new HashMap<>();
+		private final Map<String, Sensor> streamTimes = new ConcurrentHashMap<>(); // by source topic partition
+		private final Map<String, Sensor[]> retentions = new ConcurrentHashMap<>(); // the retention and lateness by name
+		private final StreamsMetrics metrics;
+
+		private Sensors(StreamsMetrics metrics) {
+			this.metrics = metrics;
+			this.leftRecords = meter(metrics, "left-records", "left records");
+			this.joinPairs = meter(metrics, "join-pairs", "pairs produced by the join");
+			this.joinPairs.add(name("join-fanout", "The average number of joined pairs per left record"),
+					new Ratio(leftRecordCount));
+			this.whereFilterRejected = meter(metrics, "where-filter-rejected", "joined pairs rejected by the where filter");
+			this.whereFilterRejected.add(
+					name("where-filter-rejection-ratio", "The fraction of joined pairs rejected by the where filter"),
+					new Ratio(whereFilterCount));
+			this.filterRejected = meter(metrics, "filter-rejected",
+					"records rejected by the left, right and stream filters or the join condition");
+			this.aggregateReplaced = meter(metrics, "aggregate-replaced", "aggregates replaced by a later record");
+			this.aggregateKept = meter(metrics, "aggregate-kept", "aggregates kept over an earlier record");
+			this.unchangedAggregateDropped = meter(metrics, "unchanged-aggregate-dropped",
+					"joined records dropped before the group by as they would not change the aggregate");
+			this.nullAggregateDropped = meter(metrics, "null-aggregate-dropped", "null aggregates dropped");
+			this.hotKeySalted = meter(metrics, "hot-key-salted", "joined records of hot group keys spread over salts");
+			this.ingestLag = lag(metrics, "ingest-lag", "read from the source topics");
+			this.outputLag = lag(metrics, "output-lag", "written to the out topic");
+			this.lateJoinDropped = meter(metrics, "late-join-dropped",
+					"source records older than the join window retention before the stream time of their task");
+			this.lateAggregateDropped = meter(metrics, "late-aggregate-dropped",
+					"joined records for group windows that were closed by the group window retention");
+			for (final String operator : OPERATORS) {
+				this.processTime.put(operator, processTime(metrics, operator));
+			}
+		}
+
+		private Sensor meter(StreamsMetrics metrics, String name, String description) {
+			final Sensor sensor = metrics.addSensor(sensorName(name), RecordingLevel.INFO);
+			sensor.add(new Meter(name(name + "-rate", "The number per second of " + description),
+					name(name + "-total", "The total number of " + description)));
+			return sensor;
+		}
+
+		private Sensor lag(StreamsMetrics metrics, String name, String description) {
+			final Sensor sensor = metrics.addSensor(sensorName(name), RecordingLevel.INFO);
+			final String what = "The event time lag in ms of the records " + description;
+			sensor.add(name(name + "-avg", "The average event time lag in ms of the records " + description), new Avg());
+			sensor.add(name(name + "-max", "The maximum event time lag in ms of the records " + description), new Max());
+			sensor.add(new Percentiles(PERCENTILES_SIZE_BYTES, MAX_LAG_MS, BucketSizing.LINEAR,
+					new Percentile(name(name + "-p50", what + ", median"), 50),
+					new Percentile(name(name + "-p99", what + ", 99th percentile"), 99)));
+			return sensor;
+		}
+
+		// the latest event time read from the partition, and how far it is behind the wall clock
+		private Sensor streamTime(String topic, int partition) {
+			return this.streamTimes.computeIfAbsent(topic + "-" + partition, tp -> {
+				final Sensor sensor = this.metrics.addSensor(sensorName("stream-time." + tp), RecordingLevel.INFO);
+				final Map<String, String> tags = tags();
+				tags.put("topic", topic);
+				tags.put("partition", String.valueOf(partition));
+				final StreamTime streamTime = new StreamTime();
+				sensor.add(new MetricName("stream-time", GROUP, "The latest event time in ms read from the partition",
+						tags), streamTime);
+				sensor.add(new MetricName("stream-time-lag", GROUP,
+						"The wall clock time minus the latest event time read from the partition, in ms", tags),
+						streamTime.lag());
+				return sensor;
+			});
+		}
+
+		private void retention(String name, long retentionMs, long lateMs) {
+			final Sensor[] sensors = this.retentions.computeIfAbsent(name, n -> new Sensor[] {
+					value(n + "-retention-ms", "The adapted retention of the " + n + " windows in ms"),
+					value(n + "-lateness-ms", "The lateness percentile that the " + n + " retention is adapted to, in ms") });
+			sensors[0].record(retentionMs);
+			sensors[1].record(lateMs);
+		}
+
+		private Sensor value(String name, String description) {
+			final Sensor sensor = this.metrics.addSensor(sensorName(name), RecordingLevel.INFO);
+			sensor.add(name(name, description), new Value());
+			return sensor;
+		}
+
+		private Sensor processTime(StreamsMetrics metrics, String operator) {
+			final Sensor sensor = metrics.addSensor(sensorName(operator + "-process-time"), RecordingLevel.DEBUG);
+			final Map<String, String> tags = tags();
+			tags.put("operator", operator);
+			sensor.add(new MetricName("process-time-avg", GROUP, "The average processing time in ns", tags), new Avg());
+			sensor.add(new MetricName("process-time-max", GROUP, "The maximum processing time in ns", tags), new Max());
+			sensor.add(new Percentiles(PERCENTILES_SIZE_BYTES, MAX_PROCESS_TIME_NS, BucketSizing.LINEAR,
+					new Percentile(new MetricName("process-time-p50", GROUP, "The median processing time in ns", tags), 50),
+					new Percentile(new MetricName("process-time-p99", GROUP, "The 99th percentile processing time in ns", tags), 99)));
+			return sensor;
+		}
+
+		private String sensorName(String name) {
+			return GROUP + "." + pipeline + "." + name;
+		}
+
+		private MetricName name(String name, String description) {
+			return new MetricName(name, GROUP, description, tags());
+		}
+
+		private Map<String, String> tags() {
+			final Map<String, String> tags = new HashMap<>();
+			tags.put("pipeline", pipeline);
+			return tags;
+		}
+	}
+
+	// the maximum value ever recorded, which unlike Max is not reset as its samples expire
+	private static final class StreamTime implements MeasurableStat {
+		private volatile long maxMs = Long.MIN_VALUE;
+
+		@Override
+		public void record(MetricConfig config, double value, long timeMs) {
+			if (value > this.maxMs) {
+				this.maxMs = (long) value;
+			}
+		}
+
+		@Override
+		public double measure(MetricConfig config, long now) {
+			return this.maxMs == Long.MIN_VALUE ? Double.NaN : this.maxMs;
+		}
+
+		private MeasurableStat lag() {
+			return new MeasurableStat() {
+				@Override
+				public void record(MetricConfig config, double value, long timeMs) {
+				}
+
+				@Override
+				public double measure(MetricConfig config, long now) {
+					final long maxMs = StreamTime.this.maxMs;
+					return maxMs == Long.MIN_VALUE ? Double.NaN : now - maxMs;
+				}
+			};
+		}
+	}
+
+	// the count of records on a sensor divided by a count of other records
+	private static final class Ratio implements MeasurableStat {
+		private final LongAdder numerator = new LongAdder();
+		private final LongAdder denominator;
+
+		private Ratio(LongAdder denominator) {
+			this.denominator = denominator;
+		}
+
+		@Override
+		public void record(MetricConfig config, double value, long timeMs) {
+			this.numerator.increment();
+		}
+
+		@Override
+		public double measure(MetricConfig config, long now) {
+			final long d = this.denominator.sum();
+			return d == 0 ? 0 : (double) this.numerator.sum() / d;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package io.ninety.joiner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of an application, e.g. {@code KafkaStreams::metrics}, over HTTP in the prometheus text format,
+ * on GET /metrics. Each metric is a gauge named by its group and name, e.g. joiner_metrics_ingest_lag_p99, with its tags as
+ * labels. Metrics that are not numbers are left out.
+ */
+public final class JoinerMetricsServer implements Closeable {
+
+	public static JoinerMetricsServer create(Supplier<Map<MetricName, ? extends Metric>> metrics, int port)
+			throws IOException {
+		return new JoinerMetricsServer(metrics, port);
+	}
+
+	public static final String METRICS_PATH = "/metrics";
+
+	private static final Logger LOG = LoggerFactory.getLogger(JoinerMetricsServer.class);
+
+	private final Supplier<Map<MetricName, ? extends Metric>> metrics;
+	private final HttpServer server;
+
+	private JoinerMetricsServer(Supplier<Map<MetricName, ? extends Metric>> metrics, int port) throws IOException {
+		this.metrics = metrics;
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.server.createContext(METRICS_PATH, this::handle);
+	}
+
+	public void start() {
+		this.server.start();
+	}
+
+	// the port the server listens on, e.g. when it was created with port 0
+	public int port() {
+		return this.server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "GET only\n");
+				return;
+			}
+			respond(exchange, 200, scrape(this.metrics.get()));
+		} catch (RuntimeException e) {
+			LOG.warn("Bad metrics request: {}", exchange.getRequestURI(), e);
+			respond(exchange, 500, e.getMessage() + "\n");
+		}
+	}
+
+	// the samples of each metric name together, as the format requires, after its type
+	public static String scrape(Map<MetricName, ? extends Metric> metrics) {
+		final Map<String, StringBuilder> samples = new TreeMap<>();
+		for (final Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+			final Object value = metric.getValue().metricValue();
+			if (!(value instanceof Number)) {
+				continue;
+			}
+			final MetricName name = metric.getKey();
+			final String sampleName = sanitize(name.group() + "_" + name.name());
+			final StringBuilder sample = samples.computeIfAbsent(sampleName, n -> new StringBuilder());
+			sample.append(sampleName);
+			if (!name.tags().isEmpty()) {
+				sample.append('{');
+				String sep = "";
+				for (final Map.Entry<String, String> tag : new TreeMap<>(name.tags()).entrySet()) {
+					sample.append(sep).append(sanitize(tag.getKey())).append("=\"").append(escape(tag.getValue()))
+							.append('"');
+					sep = ",";
+				}
+				sample.append('}');
+			}
+			sample.append(' ').append(number(((Number) value).doubleValue())).append('\n');
+		}
+		final StringBuilder out = new StringBuilder();
+		for (final Map.Entry<String, StringBuilder> sample : samples.entrySet()) {
+			out.append("# TYPE ").append(sample.getKey()).append(" gauge\n").append(sample.getValue());
+		}
+		return out.toString();
+	}
+
+	private static String sanitize(String name) {
+		final String sanitized = name.replaceAll("[^a-zA-Z0-9_:]", "_");
+		return Character.isDigit(sanitized.charAt(0)) ? "_" + sanitized : sanitized;
+	}
+
+	private static String escape(String value) {
+		return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String number(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -3,10 +3,16 @@ package io.ninety.joiner;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class JoinerProperties {
@@ -21,6 +27,9 @@ public class JoinerProperties {
 	public static final String RIGHT_WHERE_FIELD = "right.where.field";
 	public static final String LEFT_TIMESTAMP_FIELD = "left.timestamp.field";
 	public static final String RIGHT_TIMESTAMP_FIELD = "right.timestamp.field";
+	public static final String LEFT_FILTER = "left.filter"; // e.g. val between 10 and 20 and key1 in ('a', 'b'), over the left source fields, applied before the join
+	public static final String RIGHT_FILTER = "right.filter";
+	public static final String JOIN_CONDITION = "join.condition"; // e.g. val_1 < val_2, over the mapped fields of the joined record, applied after the join
 	public static final String GROUP_BY_FIELD = "group.by.field"; // the field name on which to group after the join
 	public static final String GROUP_BY_TIMESTAMP_FIELD = "group.by.timestamp.field"; // the timestamp field on which to group after the join
 	public static final String AGGREGATE_TIMESTAMP_FIELD = "aggregate.timestamp.field"; // the timestamp field used to determine the latest record within each group
@@ -28,6 +37,94 @@ public class JoinerProperties {
 	public static final String GROUP_WINDOW_SIZE = "group.window.size";
 	public static final String JOIN_WINDOW_RETENTION = "join.window.retention";
 	public static final String GROUP_WINDOW_RETENTION = "group.window.retention";
+	public static final String RETENTION_ADAPTIVE = "retention.adaptive"; // true to adapt the join and group window retentions to the lateness of the records, with the ones above as the maximums, one per join and group rather than per input, needs the memory or tiered store backend, and never shrinks the window join stores of the window mode
+	public static final String JOIN_WINDOW_RETENTION_MIN = "join.window.retention.min"; // ISO-8601 duration string, the minimum adaptive join window retention, default PT0S
+	public static final String GROUP_WINDOW_RETENTION_MIN = "group.window.retention.min"; // ISO-8601 duration string, the minimum adaptive group window retention, default PT0S
+	public static final String RETENTION_ADAPTIVE_PERCENTILE = "retention.adaptive.percentile"; // the percentile of the lateness that the retentions are adapted to, default 99.9
+	public static final String RETENTION_ADAPTIVE_MARGIN = "retention.adaptive.margin"; // ISO-8601 duration string, added to the lateness percentile, default PT1M
+	public static final String RETENTION_ADAPTIVE_INTERVAL = "retention.adaptive.interval"; // ISO-8601 duration string, how often the retentions are adapted, default PT5M
+	public static final String JOIN_MODE = "join.mode"; // one of the JOIN_MODE_* values below
+	public static final String TRACE_SAMPLE_RATE = "trace.sample.rate"; // fraction of records to log at debug level, 0 (default) is off
+	public static final String JOIN_STREAMS = "join.streams"; // e.g. x, y, z to join each x record to the latest past y and z records, instead of left and right
+	public static final String STREAM_PREFIX = "stream."; // followed by the stream name and one of the STREAM_* suffixes below, e.g. stream.y.topic
+	public static final String JOIN_PARTITION_BY = "join.partition.by"; // one of the JOIN_PARTITION_BY_* values below
+	public static final String LEFT_WHERE_IS_KEY = "left.where.is.key"; // true if the record key is already the where field value, so no repartition is needed if both sides are
+	public static final String RIGHT_WHERE_IS_KEY = "right.where.is.key";
+	public static final String GROUP_CHANGE_FILTER = "group.change.filter"; // true to drop joined records that would not change the latest record of their group, false (default) to keep the internal topic names of existing applications
+	public static final String STORE_BACKEND = "store.backend"; // one of the STORE_BACKEND_* values below, for the stores other than the window join stores
+	public static final String STORE_TIERED_HOT_DURATION = "store.tiered.hot.duration"; // ISO-8601 duration string, how long windows stay on the heap in the tiered backend, default PT5M
+	public static final String STORE_SNAPSHOT_DIR = "store.snapshot.dir"; // where the stores other than the window join stores are snapshotted, for fast restores, which is off by default
+	public static final String STORE_SNAPSHOT_INTERVAL = "store.snapshot.interval"; // ISO-8601 duration string, the minimum time between snapshots of a store, default PT10M
+	public static final String FILE_SINK_DIR = "file.sink.dir"; // where the joined records are also written to avro container files, which is off by default
+	public static final String FILE_SINK_CODEC = "file.sink.codec"; // the avro codec of the files e.g. snappy, default deflate
+	public static final String FILE_SINK_BLOCK_BYTES = "file.sink.block.bytes"; // the size of the compressed blocks that the records are buffered in, default 4194304
+	public static final String FILE_SINK_ROLL_BYTES = "file.sink.roll.bytes"; // the size a file is rolled at, on the next commit, default 134217728
+	public static final String FILE_SINK_ROLL_INTERVAL = "file.sink.roll.interval"; // ISO-8601 duration string, the age a file is rolled at, on the next commit, default PT15M
+	public static final String ROCKSDB_BOUNDED = "rocksdb.bounded"; // true to bound the memory of all rocksdb stores with the settings below
+	public static final String ROCKSDB_BLOCK_CACHE_MAX_BYTES = "rocksdb.block.cache.max.bytes"; // shared by all stores, including index and filter blocks
+	public static final String ROCKSDB_WRITE_BUFFER_MAX_BYTES = "rocksdb.write.buffer.max.bytes"; // per store segment
+	public static final String ROCKSDB_WRITE_BUFFERS = "rocksdb.write.buffers"; // the maximum number of write buffers per store segment
+	public static final String ROCKSDB_BLOOM_FILTER_BITS = "rocksdb.bloom.filter.bits"; // bits per key, 0 (default) is off
+	public static final String ROCKSDB_COMPACTION_STYLE = "rocksdb.compaction.style"; // level, universal (default) or fifo
+	public static final String GROUP_EMIT = "group.emit"; // one of the GROUP_EMIT_* values below, for the window join mode
+	public static final String GROUP_EMIT_INTERVAL = "group.emit.interval"; // ISO-8601 duration string, the minimum time between records for a group key in the rate emission
+	public static final String GROUP_EMIT_BUFFER_MAX_BYTES = "group.emit.buffer.max.bytes"; // the memory bound of the suppression buffer of each task
+	public static final String GROUP_EMIT_BUFFER_FULL = "group.emit.buffer.full"; // one of the GROUP_EMIT_BUFFER_FULL_* values below
+	public static final String HOST_RUNTIMES = "host.runtimes"; // the number of shared runtimes that the pipelines of a JoinerHost are spread over, default 1
+	public static final String HOST_RUNTIME = "host.runtime"; // the runtime name of a pipeline, instead of one chosen by the hash of its file name
+	public static final String BACKFILL_FROM = "backfill.from"; // ISO-8601 instant e.g. 2019-03-15T00:00:00Z, the earliest left event time to backfill, default the start of the topics
+	public static final String BACKFILL_TO = "backfill.to"; // ISO-8601 instant, the left event time to backfill up to, exclusive, default the end of the topics when the backfill starts
+	public static final String BACKFILL_PREFIX = "backfill."; // followed by left, right or a join stream name and .file, e.g. backfill.left.file, to read an avro file instead of the topic
+	public static final String BACKFILL_FILE = ".file";
+	public static final String BACKFILL_OUT_FILE = "backfill.out.file"; // an avro file to write to instead of the out topic
+	public static final String BACKFILL_SORT_BUFFER_RECORDS = "backfill.sort.buffer.records"; // the records sorted in memory before they are spilled to a file
+	public static final String BACKFILL_TMP_DIR = "backfill.tmp.dir"; // where the sorted files are spilled, default java.io.tmpdir
+	public static final String GROUP_PARTITIONER = "group.partitioner"; // one of the GROUP_PARTITIONER_* values below, for the window join mode
+	public static final String OUT_PARTITIONER = "out.partitioner"; // one of the OUT_PARTITIONER_* values below
+	public static final String OUT_PARTITIONER_UNORDERED = "out.partitioner.unordered"; // must be true for out partitioners that break the per key order of the out topic, default false
+	public static final String PARTITIONER_SAMPLE_RATE = "partitioner.sample.rate"; // the fraction of keys counted to find the hot keys, default 0.01
+	public static final String PARTITIONER_HOT_KEY_FRACTION = "partitioner.hot.key.fraction"; // the fraction of the counted keys above which a key is hot, default 0.01
+	public static final String PARTITIONER_HOT_KEY_SPREAD = "partitioner.hot.key.spread"; // the number of partitions that a hot key is spread over, default 8
+	public static final String QUERY_PORT = "query.port"; // the port of the interactive query server, which is off by default
+	public static final String QUERY_HOST = "query.host"; // the host name that other instances reach the query server on, default the local host name
+	public static final String METRICS_PORT = "metrics.port"; // the port of the http endpoint that serves the metrics in the prometheus text format, which is off by default
+
+	// supported join modes
+	public static final String JOIN_MODE_WINDOW = "window"; // windowed join of all pairs, then group by and aggregate to the latest
+	public static final String JOIN_MODE_ASOF = "asof"; // join each left record to its nearest past right record directly
+
+	// supported per stream property suffixes, with the same meaning as the left.* and right.* properties
+	public static final String STREAM_TOPIC = ".topic";
+	public static final String STREAM_FIELDS = ".fields";
+	public static final String STREAM_WHERE_FIELD = ".where.field";
+	public static final String STREAM_TIMESTAMP_FIELD = ".timestamp.field";
+	public static final String STREAM_FILTER = ".filter";
+
+	// supported join partitionings
+	public static final String JOIN_PARTITION_BY_KEY = "key"; // join on the record key, then filter on the where fields
+	public static final String JOIN_PARTITION_BY_WHERE = "where"; // re-key both sides by their key and where field and join on both
+
+	// supported store backends
+	public static final String STORE_BACKEND_ROCKSDB = "rocksdb";
+	public static final String STORE_BACKEND_MEMORY = "memory"; // on the heap and restored from the changelog on start, for short windows
+	public static final String STORE_BACKEND_TIERED = "tiered"; // recent windows on the heap and older ones in memory mapped files, for long retention
+
+	// supported group emissions
+	public static final String GROUP_EMIT_CHANGES = "changes"; // emit every update of the latest record of each group
+	public static final String GROUP_EMIT_WINDOW_CLOSE = "window.close"; // emit only the final record of each group, once its window has closed
+	public static final String GROUP_EMIT_RATE = "rate"; // emit the latest record of each group at most once per emit interval
+
+	// supported group partitioners
+	public static final String GROUP_PARTITIONER_HASH = "hash"; // partition by the hash of the group key
+	public static final String GROUP_PARTITIONER_SALTED = "salted"; // spread hot group keys over salts, then merge the latest record of each salt
+
+	// supported out partitioners
+	public static final String OUT_PARTITIONER_HASH = "hash"; // partition by the hash of the key
+	public static final String OUT_PARTITIONER_HOT_KEYS = "hot.keys"; // spread hot keys round robin over several partitions, needs out.partitioner.unordered
+
+	// supported policies when the suppression buffer is full
+	public static final String GROUP_EMIT_BUFFER_FULL_SHUTDOWN = "shutdown"; // stop the application, so no early results are emitted
+	public static final String GROUP_EMIT_BUFFER_FULL_EMIT_EARLY = "emit.early"; // emit the oldest buffered records early, not valid for window.close
 
 	// other constants
 	private static final String CSV_REGEX = "\\s*,\\s*";
@@ -37,10 +134,19 @@ public class JoinerProperties {
 	private final Properties props = new Properties();
 	private Map<String, String> leftFields = new HashMap<>(); // mapped field to source field e.g. myalias1 -> field1
 	private Map<String, String> rightFields = new HashMap<>();
+	private final Map<String, Map<String, String>> streamFields = new HashMap<>(); // by stream name
 	private Duration joinWindowSize;
 	private Duration groupWindowSize;
 	private Duration joinWindowRetention;
 	private Duration groupWindowRetention;
+	private Duration storeTieredHotDuration = Duration.ofMinutes(5);
+	private Duration storeSnapshotInterval = Duration.ofMinutes(10);
+	private Duration fileSinkRollInterval = Duration.ofMinutes(15);
+	private Duration joinWindowRetentionMin = Duration.ZERO;
+	private Duration groupWindowRetentionMin = Duration.ZERO;
+	private Duration retentionAdaptiveMargin = Duration.ofMinutes(1);
+	private Duration retentionAdaptiveInterval = Duration.ofMinutes(5);
+	private Duration groupEmitInterval;
 
 	public void loadFromProperties(Properties props) {
 		props.forEach((k, v) -> put(String.valueOf(k), String.valueOf(v)));
@@ -100,6 +206,66 @@ public class JoinerProperties {
 		return this.rightFields.get(this.rightWhereField());
 	}
 
+	// the fields of the left records read by the joiner, all others are skipped when the records are deserialized
+	public Set<String> leftReferencedFields() {
+		return referencedFields(this.leftFields, leftFilter(), leftWhereField(), leftTimestampField());
+	}
+
+	public Set<String> rightReferencedFields() {
+		return referencedFields(this.rightFields, rightFilter(), rightWhereField(), rightTimestampField());
+	}
+
+	// the topics that the pipeline reads
+	public List<String> sourceTopics() {
+		final List<String> streams = joinStreams();
+		if (streams.isEmpty()) {
+			return Arrays.asList(leftTopic(), rightTopic());
+		}
+		return streams.stream().map(this::streamTopic).collect(Collectors.toList());
+	}
+
+	public List<String> joinStreams() {
+		final String streams = this.props.getProperty(JOIN_STREAMS, "").trim();
+		return streams.isEmpty() ? Collections.emptyList() : Arrays.asList(streams.split(CSV_REGEX));
+	}
+
+	public String streamTopic(String stream) {
+		return this.props.getProperty(STREAM_PREFIX + stream + STREAM_TOPIC);
+	}
+
+	public Map<String, String> streamFields(String stream) {
+		return this.streamFields.getOrDefault(stream, Collections.emptyMap());
+	}
+
+	public String streamWhereField(String stream) {
+		return this.props.getProperty(STREAM_PREFIX + stream + STREAM_WHERE_FIELD);
+	}
+
+	public String streamTimestampField(String stream) {
+		return this.props.getProperty(STREAM_PREFIX + stream + STREAM_TIMESTAMP_FIELD);
+	}
+
+	public Set<String> streamReferencedFields(String stream) {
+		return referencedFields(streamFields(stream), streamFilter(stream), streamWhereField(stream),
+				streamTimestampField(stream));
+	}
+
+	public FilterExpression leftFilter() {
+		return filter(LEFT_FILTER);
+	}
+
+	public FilterExpression rightFilter() {
+		return filter(RIGHT_FILTER);
+	}
+
+	public FilterExpression streamFilter(String stream) {
+		return filter(STREAM_PREFIX + stream + STREAM_FILTER);
+	}
+
+	public FilterExpression joinCondition() {
+		return filter(JOIN_CONDITION);
+	}
+
 	public String leftTimestampField() {
 		return this.props.getProperty(LEFT_TIMESTAMP_FIELD);
 	}
@@ -136,6 +302,180 @@ public class JoinerProperties {
 		return this.groupWindowRetention;
 	}
 
+	public boolean retentionAdaptive() {
+		return Boolean.parseBoolean(this.props.getProperty(RETENTION_ADAPTIVE, "false"));
+	}
+
+	public Duration joinWindowRetentionMin() {
+		return this.joinWindowRetentionMin;
+	}
+
+	public Duration groupWindowRetentionMin() {
+		return this.groupWindowRetentionMin;
+	}
+
+	public double retentionAdaptivePercentile() {
+		return Double.parseDouble(this.props.getProperty(RETENTION_ADAPTIVE_PERCENTILE, "99.9"));
+	}
+
+	public Duration retentionAdaptiveMargin() {
+		return this.retentionAdaptiveMargin;
+	}
+
+	public Duration retentionAdaptiveInterval() {
+		return this.retentionAdaptiveInterval;
+	}
+
+	public String joinMode() {
+		return this.props.getProperty(JOIN_MODE, JOIN_MODE_WINDOW);
+	}
+
+	public String joinPartitionBy() {
+		return this.props.getProperty(JOIN_PARTITION_BY, JOIN_PARTITION_BY_KEY);
+	}
+
+	public boolean leftWhereIsKey() {
+		return Boolean.parseBoolean(this.props.getProperty(LEFT_WHERE_IS_KEY, "false"));
+	}
+
+	public boolean rightWhereIsKey() {
+		return Boolean.parseBoolean(this.props.getProperty(RIGHT_WHERE_IS_KEY, "false"));
+	}
+
+	public boolean groupChangeFilter() {
+		return Boolean.parseBoolean(this.props.getProperty(GROUP_CHANGE_FILTER, "false"));
+	}
+
+	public String storeBackend() {
+		return this.props.getProperty(STORE_BACKEND, STORE_BACKEND_ROCKSDB);
+	}
+
+	public int hostRuntimes() {
+		return Integer.parseInt(this.props.getProperty(HOST_RUNTIMES, "1").trim());
+	}
+
+	public String hostRuntime() {
+		return this.props.getProperty(HOST_RUNTIME);
+	}
+
+	public Instant backfillFrom() {
+		return instant(BACKFILL_FROM);
+	}
+
+	public Instant backfillTo() {
+		return instant(BACKFILL_TO);
+	}
+
+	public String backfillFile(String stream) {
+		return this.props.getProperty(BACKFILL_PREFIX + stream + BACKFILL_FILE);
+	}
+
+	public String backfillOutFile() {
+		return this.props.getProperty(BACKFILL_OUT_FILE);
+	}
+
+	public int backfillSortBufferRecords() {
+		return Integer.parseInt(this.props.getProperty(BACKFILL_SORT_BUFFER_RECORDS, "1000000"));
+	}
+
+	public String backfillTmpDir() {
+		return this.props.getProperty(BACKFILL_TMP_DIR, System.getProperty("java.io.tmpdir"));
+	}
+
+	public String groupPartitioner() {
+		return this.props.getProperty(GROUP_PARTITIONER, GROUP_PARTITIONER_HASH);
+	}
+
+	public String outPartitioner() {
+		return this.props.getProperty(OUT_PARTITIONER, OUT_PARTITIONER_HASH);
+	}
+
+	public boolean outPartitionerUnordered() {
+		return Boolean.parseBoolean(this.props.getProperty(OUT_PARTITIONER_UNORDERED, "false"));
+	}
+
+	public double partitionerSampleRate() {
+		return Double.parseDouble(this.props.getProperty(PARTITIONER_SAMPLE_RATE, "0.01"));
+	}
+
+	public double partitionerHotKeyFraction() {
+		return Double.parseDouble(this.props.getProperty(PARTITIONER_HOT_KEY_FRACTION, "0.01"));
+	}
+
+	public int partitionerHotKeySpread() {
+		return Integer.parseInt(this.props.getProperty(PARTITIONER_HOT_KEY_SPREAD, "8"));
+	}
+
+	public Integer queryPort() {
+		final String port = this.props.getProperty(QUERY_PORT);
+		return port == null ? null : Integer.valueOf(port.trim());
+	}
+
+	public String queryHost() {
+		return this.props.getProperty(QUERY_HOST);
+	}
+
+	public Integer metricsPort() {
+		final String port = this.props.getProperty(METRICS_PORT);
+		return port == null ? null : Integer.valueOf(port.trim());
+	}
+
+	public Duration storeTieredHotDuration() {
+		return this.storeTieredHotDuration;
+	}
+
+	public String storeSnapshotDir() {
+		return this.props.getProperty(STORE_SNAPSHOT_DIR);
+	}
+
+	public Duration storeSnapshotInterval() {
+		return this.storeSnapshotInterval;
+	}
+
+	public String fileSinkDir() {
+		return this.props.getProperty(FILE_SINK_DIR);
+	}
+
+	public String fileSinkCodec() {
+		return this.props.getProperty(FILE_SINK_CODEC, "deflate");
+	}
+
+	public int fileSinkBlockBytes() {
+		return Integer.parseInt(this.props.getProperty(FILE_SINK_BLOCK_BYTES, "4194304"));
+	}
+
+	public long fileSinkRollBytes() {
+		return Long.parseLong(this.props.getProperty(FILE_SINK_ROLL_BYTES, "134217728"));
+	}
+
+	public Duration fileSinkRollInterval() {
+		return this.fileSinkRollInterval;
+	}
+
+	public boolean rocksDbBounded() {
+		return Boolean.parseBoolean(this.props.getProperty(ROCKSDB_BOUNDED, "false"));
+	}
+
+	public String groupEmit() {
+		return this.props.getProperty(GROUP_EMIT, GROUP_EMIT_CHANGES);
+	}
+
+	public Duration groupEmitInterval() {
+		return this.groupEmitInterval;
+	}
+
+	public long groupEmitBufferMaxBytes() {
+		return Long.parseLong(this.props.getProperty(GROUP_EMIT_BUFFER_MAX_BYTES, "16777216"));
+	}
+
+	public String groupEmitBufferFull() {
+		return this.props.getProperty(GROUP_EMIT_BUFFER_FULL, GROUP_EMIT_BUFFER_FULL_SHUTDOWN);
+	}
+
+	public double traceSampleRate() {
+		return Double.parseDouble(this.props.getProperty(TRACE_SAMPLE_RATE, "0"));
+	}
+
 	public Properties innerProps() {
 		return this.props;
 	}
@@ -145,6 +485,30 @@ public class JoinerProperties {
 				.collect(Collectors.toMap(e -> String.valueOf(e.getKey()), e -> String.valueOf(e.getValue())));
 	}
 
+	private Instant instant(String name) {
+		final String value = this.props.getProperty(name);
+		try {
+			return value == null ? null : Instant.parse(value.trim());
+		} catch (DateTimeParseException e) {
+			throw new RuntimeException("Bad " + name + ": " + value);
+		}
+	}
+
+	private static Set<String> referencedFields(Map<String, String> fields, FilterExpression filter,
+			String... otherFields) {
+		final Set<String> referenced = new HashSet<>(fields.keySet());
+		if (filter != null) {
+			referenced.addAll(filter.fields());
+		}
+		Arrays.stream(otherFields).filter(f -> f != null).forEach(referenced::add);
+		return referenced;
+	}
+
+	private FilterExpression filter(String name) {
+		final String filter = this.props.getProperty(name, "").trim();
+		return filter.isEmpty() ? null : FilterExpression.parse(filter);
+	}
+
 	private Map<String, String> parseFields(String fields) {
 		final String[] fieldSpecifiers = fields.trim().split(CSV_REGEX);
 		return Arrays.stream(fieldSpecifiers).map(s -> {
@@ -160,6 +524,10 @@ public class JoinerProperties {
 		this.props.put(name, value);
 
 		// process fields
+		if (name.startsWith(STREAM_PREFIX) && name.endsWith(STREAM_FIELDS)) {
+			this.streamFields.put(name.substring(STREAM_PREFIX.length(), name.length() - STREAM_FIELDS.length()),
+					parseFields(value));
+		}
 		switch (name) {
 		case LEFT_FIELDS:
 			this.leftFields = parseFields(value);
@@ -179,6 +547,30 @@ public class JoinerProperties {
 		case GROUP_WINDOW_RETENTION:
 			this.groupWindowRetention = Duration.parse(value);
 			break;
+		case GROUP_EMIT_INTERVAL:
+			this.groupEmitInterval = Duration.parse(value);
+			break;
+		case STORE_TIERED_HOT_DURATION:
+			this.storeTieredHotDuration = Duration.parse(value);
+			break;
+		case STORE_SNAPSHOT_INTERVAL:
+			this.storeSnapshotInterval = Duration.parse(value);
+			break;
+		case FILE_SINK_ROLL_INTERVAL:
+			this.fileSinkRollInterval = Duration.parse(value);
+			break;
+		case JOIN_WINDOW_RETENTION_MIN:
+			this.joinWindowRetentionMin = Duration.parse(value);
+			break;
+		case GROUP_WINDOW_RETENTION_MIN:
+			this.groupWindowRetentionMin = Duration.parse(value);
+			break;
+		case RETENTION_ADAPTIVE_MARGIN:
+			this.retentionAdaptiveMargin = Duration.parse(value);
+			break;
+		case RETENTION_ADAPTIVE_INTERVAL:
+			this.retentionAdaptiveInterval = Duration.parse(value);
+			break;
 		}
 	}
 }
@@ -0,0 +1,355 @@
+package io.ninety.joiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+import org.apache.kafka.streams.state.ReadOnlyWindowStore;
+import org.apache.kafka.streams.state.StreamsMetadata;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the latest joined record of each group from the aggregate stores over HTTP, as JSON :
+ *
+ * <ul>
+ * <li>GET /stores/&lt;store&gt;/latest/&lt;group key&gt; - the record of the latest window of the group key</li>
+ * <li>GET /stores/&lt;store&gt;/keys/&lt;group key&gt;?from=&amp;to= - the windows of the group key that start in
+ * the time range, in epoch ms</li>
+ * <li>GET /stores/&lt;store&gt;/range?from.key=&amp;to.key=&amp;from=&amp;to= - the windows of the group keys in the
+ * key range, or of all keys, that start in the time range</li>
+ * </ul>
+ *
+ * A group key is in the form of the out topic keys, e.g. 1552680000000_k2. Key lookups are forwarded to the instance
+ * that owns the key, and range scans are gathered from all of the instances.
+ */
+public final class JoinerQueryServer implements Closeable {
+
+	// where the stores are and how they are read, which is the streams metadata and local stores of an application
+	public interface Stores {
+
+		ReadOnlyWindowStore<GroupKey, GenericRecord> store(String name);
+
+		// the instance that owns the key, or null if it is not known yet
+		HostInfo owner(String name, GroupKey key);
+
+		Collection<HostInfo> hosts(String name);
+	}
+
+	public static JoinerQueryServer create(KafkaStreams streams, HostInfo self) throws IOException {
+		return create(new StreamsStores(streams), self);
+	}
+
+	public static JoinerQueryServer create(Stores stores, HostInfo self) throws IOException {
+		return new JoinerQueryServer(stores, self);
+	}
+
+	public static final String STORES_PATH = "/stores/";
+	public static final String LOCAL_PARAM = "local"; // true on the requests between instances, which are not forwarded
+
+	private static final Logger LOG = LoggerFactory.getLogger(JoinerQueryServer.class);
+	private static final int THREADS = 4;
+	private static final int TIMEOUT_MS = 10000;
+
+	private final Stores stores;
+	private final HostInfo self;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private JoinerQueryServer(Stores stores, HostInfo self) throws IOException {
+		this.stores = stores;
+		this.self = self;
+		this.server = HttpServer.create(new InetSocketAddress(self.port()), 0);
+		this.executor = Executors.newFixedThreadPool(THREADS);
+		this.server.setExecutor(this.executor);
+		this.server.createContext(STORES_PATH, this::handle);
+	}
+
+	public void start() {
+		this.server.start();
+	}
+
+	// the port the server listens on, e.g. when it was created with port 0
+	public int port() {
+		return this.server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdown();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "{\"error\":\"GET only\"}");
+				return;
+			}
+			final String[] path = exchange.getRequestURI().getPath().substring(STORES_PATH.length()).split("/", 3);
+			final Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+			final boolean local = Boolean.parseBoolean(params.get(LOCAL_PARAM));
+			final String op = path.length > 1 ? path[1] : "";
+			final String store = path[0];
+			final Instant from = Instant.ofEpochMilli(longParam(params, "from", 0));
+			final Instant to = Instant.ofEpochMilli(longParam(params, "to", Long.MAX_VALUE));
+			switch (op) {
+			case "latest":
+			case "keys":
+				final GroupKey key = groupKey(path.length > 2 ? path[2] : null);
+				final HostInfo owner = local ? this.self : this.stores.owner(store, key);
+				if (owner == null) {
+					respond(exchange, 503, "{\"error\":\"no owner yet\"}");
+				} else if (!owner.equals(this.self)) {
+					forward(exchange, owner);
+				} else if (op.equals("latest")) {
+					// the windows are in start time order, so the last is the latest
+					final List<String> windows = windows(this.stores.store(store), key, from, to);
+					if (windows.isEmpty()) {
+						respond(exchange, 404, "{\"error\":\"not found\"}");
+					} else {
+						respond(exchange, 200, windows.get(windows.size() - 1));
+					}
+				} else {
+					respond(exchange, 200, array(windows(this.stores.store(store), key, from, to)));
+				}
+				break;
+			case "range":
+				final String fromKey = params.get("from.key");
+				final String toKey = params.get("to.key");
+				if ((fromKey == null) != (toKey == null)) {
+					throw new BadQueryException("both or neither of from.key and to.key");
+				}
+				final List<String> entries = new ArrayList<>();
+				final Collection<HostInfo> hosts = local ? Collections.singleton(this.self)
+						: this.stores.hosts(store);
+				for (final HostInfo host : hosts) {
+					if (host.equals(this.self)) {
+						entries.addAll(range(this.stores.store(store), fromKey == null ? null : groupKey(fromKey),
+								toKey == null ? null : groupKey(toKey), from, to));
+					} else {
+						entries.addAll(gather(exchange, host));
+					}
+				}
+				respond(exchange, 200, array(entries));
+				break;
+			default:
+				respond(exchange, 404, "{\"error\":\"unknown path\"}");
+			}
+		} catch (BadQueryException e) {
+			respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+		} catch (InvalidStateStoreException e) {
+			respond(exchange, 503, "{\"error\":" + quote(e.getMessage()) + "}");
+		} catch (RuntimeException | IOException e) {
+			LOG.error("Failed query {}", exchange.getRequestURI(), e);
+			respond(exchange, 500, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+		}
+	}
+
+	private static List<String> windows(ReadOnlyWindowStore<GroupKey, GenericRecord> store, GroupKey key,
+			Instant from, Instant to) {
+		final List<String> entries = new ArrayList<>();
+		try (final WindowStoreIterator<GenericRecord> it = store.fetch(key, from, to)) {
+			while (it.hasNext()) {
+				final KeyValue<Long, GenericRecord> kv = it.next();
+				if (kv.value != null) {
+					entries.add(entry(key, kv.key, kv.value));
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static List<String> range(ReadOnlyWindowStore<GroupKey, GenericRecord> store, GroupKey fromKey,
+			GroupKey toKey, Instant from, Instant to) {
+		final List<String> entries = new ArrayList<>();
+		try (final KeyValueIterator<Windowed<GroupKey>, GenericRecord> it = fromKey == null ? store.fetchAll(from, to)
+				: store.fetch(fromKey, toKey, from, to)) {
+			while (it.hasNext()) {
+				final KeyValue<Windowed<GroupKey>, GenericRecord> kv = it.next();
+				if (kv.value != null) {
+					entries.add(entry(kv.key.key(), kv.key.window().start(), kv.value));
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static String entry(GroupKey key, long windowStart, GenericRecord value) {
+		return "{\"key\":" + quote(key.toString()) + ",\"window\":" + windowStart + ",\"value\":"
+				+ GenericData.get().toString(value) + "}";
+	}
+
+	private static String array(List<String> entries) {
+		return entries.stream().collect(Collectors.joining(",", "[", "]"));
+	}
+
+	// sends the same request to the owner of the key and relays its response
+	private void forward(HttpExchange exchange, HostInfo host) throws IOException {
+		final HttpURLConnection conn = open(exchange, host);
+		final int status = conn.getResponseCode();
+		respond(exchange, status, read(status < 400 ? conn.getInputStream() : conn.getErrorStream()));
+	}
+
+	// the local entries of another instance
+	private List<String> gather(HttpExchange exchange, HostInfo host) throws IOException {
+		final HttpURLConnection conn = open(exchange, host);
+		if (conn.getResponseCode() != 200) {
+			throw new IOException("Bad response from " + host + ": " + conn.getResponseCode());
+		}
+		final String body = read(conn.getInputStream());
+		final String inner = body.substring(1, body.length() - 1);
+		final List<String> entries = new ArrayList<>();
+		if (!inner.isEmpty()) {
+			entries.add(inner);
+		}
+		return entries;
+	}
+
+	private static HttpURLConnection open(HttpExchange exchange, HostInfo host) throws IOException {
+		final String query = exchange.getRequestURI().getRawQuery();
+		final URL url = new URL("http", host.host(), host.port(), exchange.getRequestURI().getRawPath() + "?"
+				+ (query == null ? "" : query + "&") + LOCAL_PARAM + "=true");
+		final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setConnectTimeout(TIMEOUT_MS);
+		conn.setReadTimeout(TIMEOUT_MS);
+		return conn;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		try (final InputStream is = in) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static Map<String, String> params(String query) throws UnsupportedEncodingException {
+		final Map<String, String> params = new HashMap<>();
+		if (query != null) {
+			for (final String param : query.split("&")) {
+				final int i = param.indexOf('=');
+				if (i > 0) {
+					params.put(URLDecoder.decode(param.substring(0, i), "UTF-8"),
+							URLDecoder.decode(param.substring(i + 1), "UTF-8"));
+				}
+			}
+		}
+		return params;
+	}
+
+	private static long longParam(Map<String, String> params, String name, long defaultValue) {
+		final String value = params.get(name);
+		try {
+			return value == null ? defaultValue : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new BadQueryException(name + ": " + value);
+		}
+	}
+
+	private static GroupKey groupKey(String key) {
+		if (key == null || key.isEmpty()) {
+			throw new BadQueryException("no group key");
+		}
+		try {
+			return GroupKey.parse(key);
+		} catch (RuntimeException e) {
+			throw new BadQueryException(e.getMessage());
+		}
+	}
+
+	private static String quote(String s) {
+		final StringBuilder b = new StringBuilder("\"");
+		for (final char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if (c < 0x20) {
+				b.append(String.format("\\u%04x", (int) c));
+			} else {
+				b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+
+	private static final class BadQueryException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private BadQueryException(String message) {
+			super("Bad query: " + message);
+		}
+	}
+
+	private static final class StreamsStores implements Stores {
+		private final KafkaStreams streams;
+
+		private StreamsStores(KafkaStreams streams) {
+			this.streams = streams;
+		}
+
+		@Override
+		public ReadOnlyWindowStore<GroupKey, GenericRecord> store(String name) {
+			return this.streams.store(name, QueryableStoreTypes.<GroupKey, GenericRecord> windowStore());
+		}
+
+		@Override
+		public HostInfo owner(String name, GroupKey key) {
+			final StreamsMetadata metadata = this.streams.metadataForKey(name, key,
+					new GroupKeySerde.GroupKeySerializer());
+			return metadata == null || metadata == StreamsMetadata.NOT_AVAILABLE ? null : metadata.hostInfo();
+		}
+
+		@Override
+		public Collection<HostInfo> hosts(String name) {
+			return this.streams.allMetadataForStore(name).stream().map(StreamsMetadata::hostInfo)
+					.collect(Collectors.toList());
+		}
+	}
+}
@@ -1,17 +1,20 @@
 package io.ninety.joiner;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsConfig;
 import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.state.HostInfo;
 
 import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
 
 public class JoinerStreamProcessor {
 
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws IOException {
 		final JoinerProperties props = new JoinerProperties();
 		props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "broker:9092");
 		props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
@@ -38,15 +41,39 @@ public class JoinerStreamProcessor {
 		// in order to decouple different instances that process different topics, we ensure the app id is unique
 		final String appId = String.format("streams-joiner.%s.%s.%s", props.leftTopic(), props.rightTopic(), props.outTopic());
 		props.put(StreamsConfig.APPLICATION_ID_CONFIG, appId);
-		
+
+		// the query server is advertised to the other instances so that they can forward the lookups of our keys
+		final HostInfo queryHost = props.queryPort() == null ? null : new HostInfo(
+				props.queryHost() != null ? props.queryHost() : InetAddress.getLocalHost().getHostName(), props.queryPort());
+		if (queryHost != null) {
+			props.put(StreamsConfig.APPLICATION_SERVER_CONFIG, queryHost.host() + ":" + queryHost.port());
+		}
+
+		// the stores start from their latest snapshots, if any, and restore only the changelog records after them
+		if (props.storeSnapshotDir() != null) {
+			StoreSnapshots.restore(props.innerProps(), props.storeSnapshotDir());
+		}
+
+		// the asof join relies on the source topics being co-partitioned
+		JoinerTopology.checkCoPartitioned(props);
+
 		final Topology topology = JoinerTopology.create(props);
 		final KafkaStreams streams = new KafkaStreams(topology, props.innerProps());
+		final JoinerQueryServer queryServer = queryHost == null ? null : JoinerQueryServer.create(streams, queryHost);
+		final JoinerMetricsServer metricsServer = props.metricsPort() == null ? null
+				: JoinerMetricsServer.create(streams::metrics, props.metricsPort());
 		final CountDownLatch latch = new CountDownLatch(1);
 
 		// attach shutdown handler to catch control-c
 		Runtime.getRuntime().addShutdownHook(new Thread("streams-joiner-shutdown-hook") {
 			@Override
 			public void run() {
+				if (queryServer != null) {
+					queryServer.close();
+				}
+				if (metricsServer != null) {
+					metricsServer.close();
+				}
 				streams.close();
 				latch.countDown();
 			}
@@ -54,6 +81,12 @@ public class JoinerStreamProcessor {
 
 		try {
 			streams.start();
+			if (queryServer != null) {
+				queryServer.start();
+			}
+			if (metricsServer != null) {
+				metricsServer.start();
+			}
 			latch.await();
 		} catch (final Throwable e) {
 			System.exit(1);
@@ -1,12 +1,23 @@
 package io.ninety.joiner;
 
+import java.io.File;
 import java.time.Duration;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.TopicDescription;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
 import org.apache.kafka.streams.Topology;
 import org.apache.kafka.streams.kstream.Consumed;
 import org.apache.kafka.streams.kstream.Grouped;
@@ -17,64 +28,487 @@ import org.apache.kafka.streams.kstream.KTable;
 import org.apache.kafka.streams.kstream.KeyValueMapper;
 import org.apache.kafka.streams.kstream.Materialized;
 import org.apache.kafka.streams.kstream.Produced;
-import org.apache.kafka.streams.kstream.TimeWindowedKStream;
+import org.apache.kafka.streams.kstream.Suppressed;
+import org.apache.kafka.streams.kstream.Suppressed.BufferConfig;
 import org.apache.kafka.streams.kstream.TimeWindows;
 import org.apache.kafka.streams.kstream.ValueJoiner;
 import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
 
+import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
 import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
 
 public final class JoinerTopology {
 
+	static final int MAX_SCHEMAS = 1000;
+
 	public static Topology create(JoinerProperties props) {
+		return create(props, new CachedSchemaRegistryClient(
+				props.innerProps().getProperty(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG), MAX_SCHEMAS));
+	}
+
+	public static Topology create(JoinerProperties props, SchemaRegistryClient schemaRegistry) {
+		configure(props);
+		return create(Collections.singletonList(props), schemaRegistry);
+	}
+
+	// builds the pipelines into one topology, so that they share the threads, record cache and state of one runtime
+	public static Topology create(List<JoinerProperties> pipelines, SchemaRegistryClient schemaRegistry) {
+		final StreamsBuilder builder = new StreamsBuilder();
+		for (final JoinerProperties props : pipelines) {
+			create(builder, props, schemaRegistry);
+		}
+		return builder.build();
+	}
 
-		// make the avro serde
-		final GenericAvroSerde avroSerde = new GenericAvroSerde();
+	// sets the streams configs of the runtime that the pipelines rely on
+	public static void configure(JoinerProperties props) {
+
+		// bound the memory of the rocksdb stores, unless a config setter is already given
+		if (props.rocksDbBounded()) {
+			props.innerProps().putIfAbsent(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG,
+					BoundedRocksDBConfigSetter.class.getName());
+		}
+	}
+
+	// the asof join transformers join the partitions with the same number of each source topic, which Streams only
+	// checks for its own joins, so the partition counts are checked against the cluster before the pipeline starts
+	public static void checkCoPartitioned(JoinerProperties props) {
+		final List<String> topics = new ArrayList<>();
+		if (!props.joinStreams().isEmpty()) {
+			props.joinStreams().forEach(name -> topics.add(props.streamTopic(name)));
+		} else if (JoinerProperties.JOIN_MODE_ASOF.equals(props.joinMode())) {
+			topics.add(props.leftTopic());
+			topics.add(props.rightTopic());
+		} else {
+			return; // the window join is checked by Streams
+		}
+		final Map<String, Integer> partitions = new TreeMap<>();
+		try (final AdminClient admin = AdminClient.create(new StreamsConfig(props.innerProps())
+				.getAdminConfigs(props.outTopic() + "-partition-check"))) {
+			for (final TopicDescription topic : admin.describeTopics(topics).all().get().values()) {
+				partitions.put(topic.name(), topic.partitions().size());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Bad source topics: " + topics, e);
+		}
+		if (partitions.values().stream().distinct().count() > 1) {
+			throw new RuntimeException("Bad source topic partitions, the asof join needs the same number on every topic: "
+					+ partitions);
+		}
+	}
+
+	private static void create(StreamsBuilder builder, JoinerProperties props, SchemaRegistryClient schemaRegistry) {
+
+		// make the avro serdes, the registry framed serde is used at the sink topic only
+		final GenericAvroSerde avroSerde = new GenericAvroSerde(schemaRegistry);
 		avroSerde.configure(props.toMap(), false);
+		final InternalAvroSerde internalSerde = InternalAvroSerde.create(schemaRegistry);
 		final Serde<String> strSerde = Serdes.String();
+		final JoinerMetrics metrics = JoinerMetrics.create(props.outTopic(), props.traceSampleRate());
+		final AdaptiveRetention joinRetention = retention(props, "join", props.joinWindowRetentionMin(),
+				props.joinWindowRetention(), metrics);
+		final AdaptiveRetention groupRetention = retention(props, "group", props.groupWindowRetentionMin(),
+				props.groupWindowRetention(), metrics);
+		if (props.queryPort() != null
+				&& (!props.joinStreams().isEmpty() || !JoinerProperties.JOIN_MODE_WINDOW.equals(props.joinMode()))) {
+			throw new RuntimeException("Bad join mode for queries, only the window join mode has an aggregate store: "
+					+ props.joinMode());
+		}
+		if (!props.joinStreams().isEmpty()) {
+			createMultiJoin(builder, props, schemaRegistry, avroSerde, internalSerde, joinRetention, metrics);
+			return;
+		}
 
-		// timestamp extractors
+		// timestamp extractors, which also measure the event time of the sources
 		final AvroTimestampExtractor leftTsExtractor = AvroTimestampExtractor.create(props.leftTimestampField());
 		final AvroTimestampExtractor rightTsExtractor = AvroTimestampExtractor.create(props.rightTimestampField());
+		final long joinWindowSizeMs = props.joinWindowSize().toMillis();
+
+		// create the streams from the topics, decoding only the fields that the joiner reads, and filter them before
+		// they reach the join stores
+		final Serde<GenericRecord> leftSerde = InternalAvroSerde.createProjected(schemaRegistry,
+				props.leftReferencedFields());
+		final Serde<GenericRecord> rightSerde = InternalAvroSerde.createProjected(schemaRegistry,
+				props.rightReferencedFields());
+		final Consumed<String, GenericRecord> leftConsumed = Consumed.with(strSerde, leftSerde)
+				.withTimestampExtractor(EventTimeExtractor.create(leftTsExtractor, joinWindowSizeMs, joinRetention,
+						metrics));
+		final KStream<String, GenericRecord> leftStream = filtered(builder.stream(props.leftTopic(), leftConsumed),
+				props.leftFilter(), metrics);
+		final Consumed<String, GenericRecord> rightConsumed = Consumed.with(strSerde, rightSerde)
+				.withTimestampExtractor(EventTimeExtractor.create(rightTsExtractor, joinWindowSizeMs, joinRetention,
+						metrics));
+		final KStream<String, GenericRecord> rightStream = filtered(builder.stream(props.rightTopic(), rightConsumed),
+				props.rightFilter(), metrics);
+
+		switch (props.joinMode()) {
+		case JoinerProperties.JOIN_MODE_WINDOW:
+			createWindowJoin(builder, props, leftStream, rightStream, avroSerde, internalSerde, groupRetention,
+					metrics);
+			break;
+		case JoinerProperties.JOIN_MODE_ASOF:
+			createAsOfJoin(builder, props, leftStream, rightStream, avroSerde, internalSerde, joinRetention,
+					metrics);
+			break;
+		default:
+			throw new RuntimeException("Bad join mode: " + props.joinMode());
+		}
+	}
+
+	private static void createWindowJoin(StreamsBuilder builder, JoinerProperties props, KStream<String, GenericRecord> leftStream,
+			KStream<String, GenericRecord> rightStream, Serde<GenericRecord> avroSerde, Serde<GenericRecord> internalSerde,
+			AdaptiveRetention groupRetention, JoinerMetrics metrics) {
+
+		final Serde<String> strSerde = Serdes.String();
 		final AvroTimestampExtractor groupByTsExtractor = AvroTimestampExtractor.create(props.groupByTimestampField());
 		final AvroTimestampExtractor aggregateTsExtractor = AvroTimestampExtractor.create(props.aggregateTimestampField());
 
-		System.out.println(props.toMap());
-		
-		// create the streams from the topics
-		final StreamsBuilder builder = new StreamsBuilder();
-		final Consumed<String, GenericRecord> leftConsumed = Consumed.with(strSerde, avroSerde)
-				.withTimestampExtractor(leftTsExtractor);
-		final KStream<String, GenericRecord> leftStream = builder.stream(props.leftTopic(), leftConsumed);
-		final Consumed<String, GenericRecord> rightConsumed = Consumed.with(strSerde, avroSerde)
-				.withTimestampExtractor(rightTsExtractor);
-		final KStream<String, GenericRecord> rightStream = builder.stream(props.rightTopic(), rightConsumed);
-
-		// setup the join
-		final Joined<String, GenericRecord, GenericRecord> joined = Joined.with(strSerde, avroSerde, avroSerde);
+		// setup the join, either on the record key with a filter on the where fields, or on the where fields directly
 		final ValueJoiner<GenericRecord, GenericRecord, GenericRecord> joiner = AvroFieldsValueJoiner
-				.create(props.leftFields(), props.rightFields());
+				.create(props.leftFields(), props.rightFields(), metrics);
 		final JoinWindows joinWindow = JoinWindows.of(Duration.ZERO).before(props.joinWindowSize()).grace(props.joinWindowRetention());
-		final KStream<String, GenericRecord> joinStream = leftStream.join(rightStream, joiner, joinWindow, joined)
-				.filter((k,v) -> Objects.deepEquals(v.get(props.leftMappedWhereField()), v.get(props.rightMappedWhereField())))
-				.transform(() -> new TimestampTransformer(props.groupByTimestampField()));
+		final KStream<String, GenericRecord> joinStream;
+		switch (props.joinPartitionBy()) {
+		case JoinerProperties.JOIN_PARTITION_BY_KEY:
+			joinStream = leftStream.peek((k, v) -> metrics.leftRecord())
+					.join(rightStream, joiner, joinWindow,
+							Joined.with(strSerde, internalSerde, internalSerde, props.outTopic() + "-join"))
+					.filter(WhereFieldPredicate.create(props.leftMappedWhereField(), props.rightMappedWhereField(), metrics));
+			break;
+		case JoinerProperties.JOIN_PARTITION_BY_WHERE:
+			final Joined<String, GenericRecord, GenericRecord> joined = Joined.with(strSerde, internalSerde,
+					internalSerde, props.outTopic() + "-where");
+			if (props.leftWhereIsKey() && props.rightWhereIsKey()) {
+				// equal keys are equal where field values, so neither side is repartitioned
+				joinStream = leftStream.peek((k, v) -> metrics.leftRecord()).join(rightStream, joiner, joinWindow,
+						joined);
+			} else {
+				joinStream = whereKeyed(leftStream, props.leftWhereField(), props.leftWhereIsKey())
+						.peek((k, v) -> metrics.leftRecord())
+						.join(whereKeyed(rightStream, props.rightWhereField(), props.rightWhereIsKey()), joiner,
+								joinWindow, joined);
+			}
+			break;
+		default:
+			throw new RuntimeException("Bad join partitioning: " + props.joinPartitionBy());
+		}
+		checkJoinCondition(props, Arrays.asList(props.leftFields(), props.rightFields()));
+		final KStream<String, GenericRecord> timestampedStream = filtered(joinStream, props.joinCondition(), metrics)
+				.transform(() -> new TimestampTransformer(props.groupByTimestampField(),
+						props.groupWindowSize().toMillis(), groupRetention, metrics));
 
-		// setup the grouping
-		final KeyValueMapper<String, GenericRecord, String> groupKeyMapper = AvroKeyValueMapper
+		// setup the grouping, optionally dropping the joined records that would not change the aggregate first
+		final GroupKeySerde groupKeySerde = GroupKeySerde.create();
+		final KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper = AvroKeyValueMapper
 				.create(groupByTsExtractor, props.groupByField());
-		final TimeWindowedKStream<String, GenericRecord> groupStream = joinStream
-				.groupBy(groupKeyMapper, Grouped.with(strSerde, avroSerde))
-				.windowedBy(TimeWindows.of(props.groupWindowSize()).grace(props.groupWindowRetention()));
-		final AvroLastAggregator lastAggregator = AvroLastAggregator.create(aggregateTsExtractor);
-		final KTable<Windowed<String>, GenericRecord> groupTable = groupStream
-				.aggregate(lastAggregator, lastAggregator, Materialized.with(strSerde, avroSerde))
-				.filter((key, value) -> value != null);
-
-		// write the changelog stream to the topic
-		final Produced<String, GenericRecord> produced = Produced.with(strSerde, avroSerde);
-		groupTable.toStream(WindowedKeyValueMapper.create(groupKeyMapper)).to(props.outTopic(), produced);
+		final KStream<String, GenericRecord> groupByStream;
+		if (props.groupChangeFilter()) {
+			final String changeStoreName = props.outTopic() + "-group-changes";
+			builder.addStateStore(Stores.windowStoreBuilder(
+					windowStore(props, changeStoreName, groupRetention, props.groupWindowSize()), groupKeySerde,
+					Serdes.ByteArray()));
+			groupByStream = timestampedStream.transform(() -> AggregateChangeFilter.create(changeStoreName,
+					groupKeyMapper, aggregateTsExtractor, metrics), changeStoreName);
+		} else {
+			groupByStream = timestampedStream;
+		}
+		final TimeWindows groupWindows = TimeWindows.of(props.groupWindowSize()).grace(props.groupWindowRetention());
+		final AvroLastAggregator lastAggregator = AvroLastAggregator.create(aggregateTsExtractor, metrics);
+		final KTable<Windowed<GroupKey>, GenericRecord> groupTable;
+		switch (props.groupPartitioner()) {
+		case JoinerProperties.GROUP_PARTITIONER_HASH:
+			groupTable = groupByStream
+					.groupBy(groupKeyMapper, Grouped.with(props.outTopic() + "-group-by", groupKeySerde, internalSerde))
+					.windowedBy(groupWindows)
+					.aggregate(lastAggregator, lastAggregator, groupMaterialized(props, groupRetention, groupKeySerde, internalSerde));
+			break;
+		case JoinerProperties.GROUP_PARTITIONER_SALTED:
+			// the latest record of each salted key, then the latest of those for each group key
+			final KTable<Windowed<GroupKey>, GenericRecord> saltedTable = groupByStream
+					.transform(() -> GroupKeySalter.create(groupKeyMapper, props.partitionerSampleRate(),
+							props.partitionerHotKeyFraction(), props.partitionerHotKeySpread(), metrics))
+					.groupByKey(Grouped.with(props.outTopic() + "-group-by-salted", groupKeySerde, internalSerde))
+					.windowedBy(groupWindows)
+					.aggregate(lastAggregator, lastAggregator, Materialized.<GroupKey, GenericRecord> as(
+							windowStore(props, props.outTopic() + "-group-salted", groupRetention,
+									props.groupWindowSize()))
+							.withKeySerde(groupKeySerde).withValueSerde(internalSerde));
+			final AvroLastAggregator mergeAggregator = AvroLastAggregator.createMerge(aggregateTsExtractor, metrics);
+			groupTable = saltedTable.toStream().filter((k, v) -> v != null)
+					.selectKey((k, v) -> k.key().withoutSalt())
+					.groupByKey(Grouped.with(props.outTopic() + "-group-by", groupKeySerde, internalSerde))
+					.windowedBy(groupWindows)
+					.aggregate(mergeAggregator, mergeAggregator, groupMaterialized(props, groupRetention, groupKeySerde, internalSerde));
+			break;
+		default:
+			throw new RuntimeException("Bad group partitioner: " + props.groupPartitioner());
+		}
 
-		return builder.build();
+		// write the changelog stream to the topic, keyed by the group key in its string form
+		final KStream<String, GenericRecord> outStream = emitted(groupTable, props).toStream()
+				.transform(() -> WindowedOutputTransformer.create(metrics));
+		outStream.to(props.outTopic(), outProduced(props, avroSerde));
+		fileSink(builder, props, outStream);
+	}
+
+	private static void createAsOfJoin(StreamsBuilder builder, JoinerProperties props,
+			KStream<String, GenericRecord> leftStream, KStream<String, GenericRecord> rightStream,
+			Serde<GenericRecord> avroSerde, Serde<GenericRecord> internalSerde, AdaptiveRetention joinRetention,
+			JoinerMetrics metrics) {
+		final List<KStream<String, GenericRecord>> streams = Arrays.asList(leftStream, rightStream);
+		final String[] storeNames = { props.outTopic() + "-asof-left", props.outTopic() + "-asof-right" };
+		final String[] whereFields = { asOfWhereField(props, props.leftWhereField()),
+				asOfWhereField(props, props.rightWhereField()) };
+		final AvroFieldsValueJoiner joiner = AvroFieldsValueJoiner.create(props.leftFields(), props.rightFields(),
+				metrics);
+		checkJoinCondition(props, Arrays.asList(props.leftFields(), props.rightFields()));
+		createAsOfJoin(builder, props, streams, storeNames, whereFields, joiner, avroSerde, internalSerde,
+				joinRetention, metrics);
+	}
+
+	// joins any number of streams in one sub-topology, without repartitioning the intermediate results
+	private static void createMultiJoin(StreamsBuilder builder, JoinerProperties props,
+			SchemaRegistryClient schemaRegistry, Serde<GenericRecord> avroSerde, Serde<GenericRecord> internalSerde,
+			AdaptiveRetention joinRetention, JoinerMetrics metrics) {
+		final List<String> names = props.joinStreams();
+		if (names.size() < 2) {
+			throw new RuntimeException("Bad join streams: " + names);
+		}
+		final List<KStream<String, GenericRecord>> streams = new ArrayList<>();
+		final String[] storeNames = new String[names.size()];
+		final String[] whereFields = new String[names.size()];
+		final List<Map<String, String>> mappings = new ArrayList<>();
+		final long joinWindowSizeMs = props.joinWindowSize().toMillis();
+		for (int i = 0; i < names.size(); ++i) {
+			final String name = names.get(i);
+			final Serde<GenericRecord> serde = InternalAvroSerde.createProjected(schemaRegistry,
+					props.streamReferencedFields(name));
+			final Consumed<String, GenericRecord> consumed = Consumed.with(Serdes.String(), serde)
+					.withTimestampExtractor(EventTimeExtractor.create(
+							AvroTimestampExtractor.create(props.streamTimestampField(name)), joinWindowSizeMs,
+							joinRetention, metrics));
+			streams.add(filtered(builder.stream(props.streamTopic(name), consumed), props.streamFilter(name), metrics));
+			storeNames[i] = props.outTopic() + "-asof-" + name;
+			whereFields[i] = props.streamWhereField(name);
+			mappings.add(props.streamFields(name));
+		}
+		final AvroFieldsValueJoiner joiner = AvroFieldsValueJoiner.create(mappings, metrics);
+		checkJoinCondition(props, mappings);
+		createAsOfJoin(builder, props, streams, storeNames, whereFields, joiner, avroSerde, internalSerde,
+				joinRetention, metrics);
+	}
+
+	private static void createAsOfJoin(StreamsBuilder builder, JoinerProperties props,
+			List<KStream<String, GenericRecord>> streams, String[] storeNames, String[] whereFields,
+			AvroFieldsValueJoiner joiner, Serde<GenericRecord> avroSerde, Serde<GenericRecord> internalSerde,
+			AdaptiveRetention joinRetention, JoinerMetrics metrics) {
+
+		final Serde<String> strSerde = Serdes.String();
+		final AvroTimestampExtractor groupByTsExtractor = AvroTimestampExtractor.create(props.groupByTimestampField());
+
+		// every stream is kept for the window size plus the retention so that late records on any stream can be joined,
+		// serialized by the transformers, so that they only decode the records that they join
+		for (final String storeName : storeNames) {
+			builder.addStateStore(Stores.windowStoreBuilder(
+					windowStore(props, storeName, joinRetention, props.joinWindowSize()), strSerde,
+					Serdes.ByteArray()));
+		}
+
+		// each joined record is keyed in the same way as the group by in the window join mode
+		final KeyValueMapper<String, GenericRecord, GroupKey> groupKeyMapper = AvroKeyValueMapper
+				.create(groupByTsExtractor, props.groupByField());
+		final KeyValueMapper<String, GenericRecord, String> outKeyMapper = (k, v) -> groupKeyMapper.apply(k, v)
+				.toString();
+		final long windowSizeMs = props.joinWindowSize().toMillis();
+		KStream<String, GenericRecord> joinStream = null;
+		for (int i = 0; i < streams.size(); ++i) {
+			final int stream = i;
+			final KStream<String, GenericRecord> streamJoin = streams.get(i).transform(
+					() -> AsOfJoinTransformer.create(stream, storeNames, whereFields[stream], windowSizeMs,
+							internalSerde, joiner, outKeyMapper, metrics),
+					storeNames);
+			joinStream = joinStream == null ? streamJoin : joinStream.merge(streamJoin);
+		}
+
+		final KStream<String, GenericRecord> outStream = filtered(joinStream, props.joinCondition(), metrics);
+		outStream.to(props.outTopic(), outProduced(props, avroSerde));
+		fileSink(builder, props, outStream);
+	}
+
+	// the out records are also written to files, in large compressed blocks, if there is a file sink dir
+	private static void fileSink(StreamsBuilder builder, JoinerProperties props,
+			KStream<String, GenericRecord> outStream) {
+		if (props.fileSinkDir() == null) {
+			return;
+		}
+		final String storeName = props.outTopic() + "-file-sink";
+		builder.addStateStore(AvroFileSink.builder(storeName, new File(props.fileSinkDir()), props.fileSinkCodec(),
+				props.fileSinkRollBytes(), props.fileSinkRollInterval().toMillis(), props.fileSinkBlockBytes()));
+		outStream.process(AvroFileSink.processor(storeName), storeName);
+	}
+
+	// the stream without the records that the filter rejects, if there is one
+	private static KStream<String, GenericRecord> filtered(KStream<String, GenericRecord> stream,
+			FilterExpression filter, JoinerMetrics metrics) {
+		return filter == null ? stream : stream.filter(AvroFilterPredicate.create(filter, metrics));
+	}
+
+	// the join condition can only read the fields that the joiner maps into the joined records
+	private static void checkJoinCondition(JoinerProperties props, List<Map<String, String>> mappings) {
+		final FilterExpression condition = props.joinCondition();
+		if (condition == null) {
+			return;
+		}
+		for (final String field : condition.fields()) {
+			if (mappings.stream().noneMatch(m -> m.containsValue(field))) {
+				throw new RuntimeException("Bad join condition field, it is not a mapped field: " + field);
+			}
+		}
+	}
+
+	private static Produced<String, GenericRecord> outProduced(JoinerProperties props, Serde<GenericRecord> avroSerde) {
+		final Produced<String, GenericRecord> produced = Produced.with(Serdes.String(), avroSerde);
+		switch (props.outPartitioner()) {
+		case JoinerProperties.OUT_PARTITIONER_HASH:
+			return produced;
+		case JoinerProperties.OUT_PARTITIONER_HOT_KEYS:
+			// the records of a hot key land on several partitions, so the out topic is no longer a table of its keys
+			if (!props.outPartitionerUnordered()) {
+				throw new RuntimeException("Bad out partitioner, it breaks the per key order of the out topic unless "
+						+ JoinerProperties.OUT_PARTITIONER_UNORDERED + "=true: " + props.outPartitioner());
+			}
+			return produced.withStreamPartitioner(HotKeyPartitioner.create(props.partitionerSampleRate(),
+					props.partitionerHotKeyFraction(), props.partitionerHotKeySpread()));
+		default:
+			throw new RuntimeException("Bad out partitioner: " + props.outPartitioner());
+		}
+	}
+
+	// the group table with its updates suppressed according to the emission policy
+	private static KTable<Windowed<GroupKey>, GenericRecord> emitted(KTable<Windowed<GroupKey>, GenericRecord> table,
+			JoinerProperties props) {
+		final String name = props.outTopic() + "-emit";
+		switch (props.groupEmit()) {
+		case JoinerProperties.GROUP_EMIT_CHANGES:
+			return table;
+		case JoinerProperties.GROUP_EMIT_WINDOW_CLOSE:
+			if (!JoinerProperties.GROUP_EMIT_BUFFER_FULL_SHUTDOWN.equals(props.groupEmitBufferFull())) {
+				throw new RuntimeException("Bad group emit buffer full policy for window close: " + props.groupEmitBufferFull());
+			}
+			return table.suppress(Suppressed
+					.untilWindowCloses(BufferConfig.maxBytes(props.groupEmitBufferMaxBytes()).shutDownWhenFull())
+					.withName(name));
+		case JoinerProperties.GROUP_EMIT_RATE:
+			if (props.groupEmitInterval() == null) {
+				throw new RuntimeException("Bad group emit interval: " + props.groupEmitInterval());
+			}
+			return table.suppress(Suppressed.untilTimeLimit(props.groupEmitInterval(), emitBufferConfig(props)).withName(name));
+		default:
+			throw new RuntimeException("Bad group emit: " + props.groupEmit());
+		}
 	}
 
+	private static BufferConfig<?> emitBufferConfig(JoinerProperties props) {
+		final BufferConfig<?> buffer = BufferConfig.maxBytes(props.groupEmitBufferMaxBytes());
+		switch (props.groupEmitBufferFull()) {
+		case JoinerProperties.GROUP_EMIT_BUFFER_FULL_SHUTDOWN:
+			return buffer.shutDownWhenFull();
+		case JoinerProperties.GROUP_EMIT_BUFFER_FULL_EMIT_EARLY:
+			return buffer.emitEarlyWhenFull();
+		default:
+			throw new RuntimeException("Bad group emit buffer full policy: " + props.groupEmitBufferFull());
+		}
+	}
+
+	// the stream keyed by its where field value, which is repartitioned before the join unless it is already the key
+	// the stream keyed by its record key and where field value, as the as-of join stores are, so that the join still
+	// needs both to match but drops no joined pairs
+	private static KStream<String, GenericRecord> whereKeyed(KStream<String, GenericRecord> stream, String whereField,
+			boolean whereIsKey) {
+		if (whereIsKey) {
+			return stream.selectKey((k, v) -> AsOfJoinTransformer.storeKey(k, k));
+		}
+		if (whereField == null) {
+			throw new RuntimeException("Bad join partitioning, no where field: " + JoinerProperties.JOIN_PARTITION_BY_WHERE);
+		}
+		return stream.selectKey((k, v) -> AsOfJoinTransformer.storeKey(k, v, whereField));
+	}
+
+	// the as-of join transformers do not repartition their input, so partitioning by the where fields requires that they are the keys
+	private static String asOfWhereField(JoinerProperties props, String whereField) {
+		switch (props.joinPartitionBy()) {
+		case JoinerProperties.JOIN_PARTITION_BY_KEY:
+			return whereField;
+		case JoinerProperties.JOIN_PARTITION_BY_WHERE:
+			if (!props.leftWhereIsKey() || !props.rightWhereIsKey()) {
+				throw new RuntimeException("Bad join partitioning for the asof join mode, the where fields must be the keys: "
+						+ JoinerProperties.JOIN_PARTITION_BY_WHERE);
+			}
+			return null;
+		default:
+			throw new RuntimeException("Bad join partitioning: " + props.joinPartitionBy());
+		}
+	}
+
+	private static WindowBytesStoreSupplier windowStore(JoinerProperties props, String name,
+			AdaptiveRetention retention, Duration windowSize) {
+		final WindowBytesStoreSupplier supplier = backendWindowStore(props, name, retention, windowSize);
+		return props.storeSnapshotDir() == null ? supplier
+				: SnapshotWindowStore.supplier(supplier, new File(props.storeSnapshotDir()),
+						props.storeSnapshotInterval().toMillis());
+	}
+
+	// the stores keep the window size plus the retention, and the memory and tiered stores follow an adaptive
+	// retention, while the segments of the rocksdb stores are sized by its maximum
+	private static WindowBytesStoreSupplier backendWindowStore(JoinerProperties props, String name,
+			AdaptiveRetention retention, Duration windowSize) {
+		final long windowSizeMs = windowSize.toMillis();
+		final long retentionMs = windowSizeMs + retention.maxMs();
+		switch (props.storeBackend()) {
+		case JoinerProperties.STORE_BACKEND_ROCKSDB:
+			return Stores.persistentWindowStore(name, Duration.ofMillis(retentionMs), windowSize, false);
+		case JoinerProperties.STORE_BACKEND_MEMORY:
+			return InMemoryWindowStore.supplier(name, retentionMs, () -> windowSizeMs + retention.retentionMs(),
+					windowSizeMs);
+		case JoinerProperties.STORE_BACKEND_TIERED:
+			return TieredWindowStore.supplier(name, retentionMs, () -> windowSizeMs + retention.retentionMs(),
+					windowSizeMs, props.storeTieredHotDuration().toMillis());
+		default:
+			throw new RuntimeException("Bad store backend: " + props.storeBackend());
+		}
+	}
+
+	// the retention of the join or group windows, which adapts to the lateness of the records if configured, only for
+	// the stores that follow it, as the late aggregate records are dropped by the adapted retention
+	private static AdaptiveRetention retention(JoinerProperties props, String name, Duration min, Duration max,
+			JoinerMetrics metrics) {
+		if (!props.retentionAdaptive()) {
+			return AdaptiveRetention.fixed(max.toMillis());
+		}
+		if (JoinerProperties.STORE_BACKEND_ROCKSDB.equals(props.storeBackend())) {
+			throw new RuntimeException("Bad store backend for adaptive retention, only the memory and tiered stores adapt: "
+					+ props.storeBackend());
+		}
+		return AdaptiveRetention.create(name, min.toMillis(), max.toMillis(), props.retentionAdaptivePercentile(),
+				props.retentionAdaptiveMargin().toMillis(), props.retentionAdaptiveInterval().toMillis(), metrics);
+	}
+
+	// the name of the aggregate store of the window join mode, which is queryable by it
+	public static String groupStoreName(JoinerProperties props) {
+		return props.outTopic() + "-group";
+	}
+
+	// the aggregate store is named, so it can be queried and snapshot, and its changelog topic is named after it
+	private static Materialized<GroupKey, GenericRecord, WindowStore<Bytes, byte[]>> groupMaterialized(
+			JoinerProperties props, AdaptiveRetention retention, Serde<GroupKey> keySerde,
+			Serde<GenericRecord> valueSerde) {
+		return Materialized.<GroupKey, GenericRecord> as(
+				windowStore(props, groupStoreName(props), retention, props.groupWindowSize()))
+				.withKeySerde(keySerde).withValueSerde(valueSerde);
+	}
 }
@@ -0,0 +1,38 @@
+package io.ninety.joiner;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs a random sample of records at debug level. It is off unless a sample rate above zero is configured.
+ */
+public final class RecordTracer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RecordTracer.class);
+
+	public static RecordTracer create(String pipeline, double sampleRate) {
+		return new RecordTracer(pipeline, sampleRate);
+	}
+
+	private final String pipeline;
+	private final double sampleRate;
+
+	private RecordTracer(String pipeline, double sampleRate) {
+		this.pipeline = pipeline;
+		this.sampleRate = sampleRate;
+	}
+
+	public void trace(String operator, Object key, Object value) {
+		if (this.sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < this.sampleRate && LOG.isDebugEnabled()) {
+			LOG.debug("{} {}: key={} value={}", this.pipeline, operator, key, value);
+		}
+	}
+
+	public void trace(String operator, Object key, Object value, Object other) {
+		if (this.sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < this.sampleRate && LOG.isDebugEnabled()) {
+			LOG.debug("{} {}: key={} value={} other={}", this.pipeline, operator, key, value, other);
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package io.ninety.joiner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.errors.ProcessorStateException;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A window store that snapshots another to a directory, so that a task can be restored from the latest snapshot and
+ * the changelog records after it, instead of the whole changelog. See {@link StoreSnapshots}.
+ *
+ * When a commit flushes the store and the snapshot interval has passed, all of its windows are written to a snapshot,
+ * stamped with the changelog offset of the previous commit. The store loads the snapshot that
+ * {@link StoreSnapshots#restore} imported into the task directory when it is initialised, before the changelog is
+ * restored. It is reported as persistent so that its changelog offset is checkpointed. When the store it wraps is not
+ * persistent, it is snapshotted into the task directory on close, to match the checkpoint that follows.
+ */
+public class SnapshotWindowStore implements WindowStore<Bytes, byte[]> {
+
+	public static WindowBytesStoreSupplier supplier(WindowBytesStoreSupplier inner, File snapshotDir,
+			long intervalMs) {
+		return new Supplier(inner, snapshotDir, intervalMs);
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(SnapshotWindowStore.class);
+
+	private final WindowStore<Bytes, byte[]> inner;
+	private final File snapshotDir;
+	private final long intervalMs;
+	private ProcessorContext context;
+	private TopicPartition changelog;
+	private File taskSnapshotDir;
+	private long snapshotMs;
+
+	private SnapshotWindowStore(WindowStore<Bytes, byte[]> inner, File snapshotDir, long intervalMs) {
+		this.inner = inner;
+		this.snapshotDir = snapshotDir;
+		this.intervalMs = intervalMs;
+	}
+
+	@Override
+	public String name() {
+		return this.inner.name();
+	}
+
+	@Override
+	public void init(ProcessorContext context, StateStore root) {
+		this.context = context;
+		this.changelog = new TopicPartition(StoreSnapshots.changelogTopic(context.applicationId(), name()),
+				context.taskId().partition);
+		this.taskSnapshotDir = new File(context.stateDir(), StoreSnapshots.TASK_SNAPSHOT_DIR);
+		this.inner.init(context, root);
+		try {
+			if (!this.inner.persistent()) {
+				this.taskSnapshotDir.mkdirs();
+				new File(this.taskSnapshotDir, name() + StoreSnapshots.VOLATILE_SUFFIX).createNewFile();
+			}
+			final File imported = new File(this.taskSnapshotDir, name() + StoreSnapshots.SNAPSHOT_SUFFIX);
+			if (imported.exists()) {
+				final long startMs = System.currentTimeMillis();
+				StoreSnapshots.load(imported, this.inner);
+				LOG.info("Loaded snapshot of store {} of task {} in {}ms", name(), context.taskId(),
+						System.currentTimeMillis() - startMs);
+				if (!imported.delete()) {
+					throw new IOException("Bad snapshot delete: " + imported);
+				}
+			}
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad snapshot of store " + name(), e);
+		}
+		this.snapshotMs = System.currentTimeMillis();
+	}
+
+	@Override
+	public void put(Bytes key, byte[] value) {
+		this.inner.put(key, value);
+	}
+
+	@Override
+	public void put(Bytes key, byte[] value, long windowStartTimestamp) {
+		this.inner.put(key, value, windowStartTimestamp);
+	}
+
+	@Override
+	public byte[] fetch(Bytes key, long time) {
+		return this.inner.fetch(key, time);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+		return this.inner.fetch(key, timeFrom, timeTo);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes from, Bytes to, long timeFrom, long timeTo) {
+		return this.inner.fetch(from, to, timeFrom, timeTo);
+	}
+
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+		return this.inner.all();
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+		return this.inner.fetchAll(timeFrom, timeTo);
+	}
+
+	@Override
+	public void flush() {
+		this.inner.flush();
+		final long nowMs = System.currentTimeMillis();
+		if (nowMs - this.snapshotMs < this.intervalMs) {
+			return;
+		}
+		try {
+			// the offset of the previous commit, as the offset of this one is checkpointed after the flush
+			final Map<TopicPartition, Long> checkpoint = StoreSnapshots
+					.readCheckpoint(new File(this.context.stateDir(), StoreSnapshots.CHECKPOINT_FILE));
+			final Long offset = checkpoint.get(this.changelog);
+			if (offset == null) {
+				return;
+			}
+			final File dir = new File(new File(this.snapshotDir, this.context.applicationId()),
+					this.context.taskId().toString());
+			final File file = StoreSnapshots.write(dir, name(), this.changelog, offset, this.inner.persistent(),
+					this.inner);
+			this.snapshotMs = nowMs;
+			LOG.info("Wrote snapshot {} in {}ms", file, System.currentTimeMillis() - nowMs);
+		} catch (IOException e) {
+			// the changelog still has every record, so a failed snapshot only makes the next restore slower
+			LOG.warn("Bad snapshot of store {} of task {}", name(), this.context.taskId(), e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!this.inner.persistent() && this.inner.isOpen()) {
+			try {
+				StoreSnapshots.write(new File(this.taskSnapshotDir, name() + StoreSnapshots.SNAPSHOT_SUFFIX),
+						this.changelog, -1, false, this.inner);
+			} catch (IOException e) {
+				LOG.warn("Bad snapshot of store {} of task {} on close", name(), this.context.taskId(), e);
+			}
+		}
+		this.inner.close();
+	}
+
+	@Override
+	public boolean persistent() {
+		return true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.inner.isOpen();
+	}
+
+	private static class Supplier implements WindowBytesStoreSupplier {
+		private final WindowBytesStoreSupplier inner;
+		private final File snapshotDir;
+		private final long intervalMs;
+
+		private Supplier(WindowBytesStoreSupplier inner, File snapshotDir, long intervalMs) {
+			this.inner = inner;
+			this.snapshotDir = snapshotDir;
+			this.intervalMs = intervalMs;
+		}
+
+		@Override
+		public String name() {
+			return this.inner.name();
+		}
+
+		@Override
+		public WindowStore<Bytes, byte[]> get() {
+			return new SnapshotWindowStore(this.inner.get(), this.snapshotDir, this.intervalMs);
+		}
+
+		@Override
+		public String metricsScope() {
+			return this.inner.metricsScope();
+		}
+
+		@Deprecated
+		@Override
+		public int segments() {
+			return this.inner.segments();
+		}
+
+		@Override
+		public long segmentIntervalMs() {
+			return this.inner.segmentIntervalMs();
+		}
+
+		@Override
+		public long windowSize() {
+			return this.inner.windowSize();
+		}
+
+		@Override
+		public boolean retainDuplicates() {
+			return this.inner.retainDuplicates();
+		}
+
+		@Override
+		public long retentionPeriod() {
+			return this.inner.retentionPeriod();
+		}
+	}
+}
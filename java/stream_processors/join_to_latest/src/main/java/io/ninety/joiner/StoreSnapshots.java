@@ -0,0 +1,352 @@
+package io.ninety.joiner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes, finds and imports the snapshots of the window stores, which let a task skip the changelog records that a
+ * snapshot already holds when it is restored.
+ *
+ * A snapshot holds every window of one store of one task, gzipped, and is stamped with the changelog offset that the
+ * task checkpointed before it was taken, so replaying the changelog from that offset over the snapshot gives the state
+ * at the end of the changelog. The snapshots are written to &lt;dir&gt;/&lt;application id&gt;/&lt;task
+ * id&gt;/&lt;store&gt;.&lt;offset&gt;.snap, and a snapshot that is truncated or corrupt is skipped.
+ *
+ * {@link #restore} must run before the streams are started. It copies the newest snapshot of each store into the
+ * task directory, where {@link SnapshotWindowStore} loads it, and sets the checkpointed offset of its changelog to
+ * that of the snapshot, so only the changelog tail is restored. A persistent store is only replaced when the snapshot
+ * is newer than its local state, and a volatile store is not replaced when it was snapshotted locally on close.
+ */
+public final class StoreSnapshots {
+
+	static final String TASK_SNAPSHOT_DIR = "snapshot"; // in the task directory
+	static final String SNAPSHOT_SUFFIX = ".snap";
+	static final String VOLATILE_SUFFIX = ".volatile"; // marks a store that is not kept on local disk
+	static final String CHECKPOINT_FILE = ".checkpoint";
+
+	private static final Logger LOG = LoggerFactory.getLogger(StoreSnapshots.class);
+	private static final int MAGIC = 0x4A534E50;
+	private static final int VERSION = 1;
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+	private static final int CHECKPOINT_VERSION = 0;
+	private static final int KEEP_SNAPSHOTS = 2;
+
+	private StoreSnapshots() {
+	}
+
+	public static final class Header {
+		public final TopicPartition changelog;
+		public final long offset;
+		public final boolean persistent;
+
+		private Header(TopicPartition changelog, long offset, boolean persistent) {
+			this.changelog = changelog;
+			this.offset = offset;
+			this.persistent = persistent;
+		}
+	}
+
+	public static String changelogTopic(String applicationId, String storeName) {
+		return applicationId + "-" + storeName + "-changelog";
+	}
+
+	// writes all windows of the store to a new snapshot in the directory, then deletes all but the newest few
+	static File write(File dir, String storeName, TopicPartition changelog, long offset, boolean persistent,
+			WindowStore<Bytes, byte[]> store) throws IOException {
+		final File file = new File(dir, storeName + "." + offset + SNAPSHOT_SUFFIX);
+		write(file, changelog, offset, persistent, store);
+		final File[] snapshots = snapshots(dir, storeName);
+		for (int i = KEEP_SNAPSHOTS; i < snapshots.length; ++i) {
+			snapshots[i].delete();
+		}
+		return file;
+	}
+
+	// writes all windows of the store to the file, which is replaced atomically
+	static void write(File file, TopicPartition changelog, long offset, boolean persistent,
+			WindowStore<Bytes, byte[]> store) throws IOException {
+		final File dir = file.getParentFile();
+		if (!dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Bad snapshot directory: " + dir);
+		}
+		final File tmp = new File(dir, "." + file.getName() + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmp), IO_BUFFER_SIZE), IO_BUFFER_SIZE));
+				final KeyValueIterator<Windowed<Bytes>, byte[]> it = store.all()) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(changelog.topic());
+			out.writeInt(changelog.partition());
+			out.writeLong(offset);
+			out.writeBoolean(persistent);
+			long count = 0;
+			while (it.hasNext()) {
+				final KeyValue<Windowed<Bytes>, byte[]> kv = it.next();
+				final byte[] key = kv.key.key().get();
+				out.writeBoolean(true);
+				out.writeInt(key.length);
+				out.write(key);
+				out.writeLong(kv.key.window().start());
+				out.writeInt(kv.value.length);
+				out.write(kv.value);
+				count++;
+			}
+			out.writeBoolean(false);
+			out.writeLong(count);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// puts every window of the snapshot into the store, and returns its header
+	static Header load(File file, WindowStore<Bytes, byte[]> store) throws IOException {
+		try (final DataInputStream in = open(file)) {
+			final Header header = header(in, file);
+			long count = 0;
+			while (in.readBoolean()) {
+				final byte[] key = new byte[in.readInt()];
+				in.readFully(key);
+				final long start = in.readLong();
+				final byte[] value = new byte[in.readInt()];
+				in.readFully(value);
+				store.put(Bytes.wrap(key), value, start);
+				count++;
+			}
+			if (in.readLong() != count) {
+				throw new IOException("Bad snapshot count: " + file);
+			}
+			return header;
+		}
+	}
+
+	// the header of the snapshot if it is complete and its checksum is right, otherwise null
+	public static Header validate(File file) {
+		try (final DataInputStream in = open(file)) {
+			final Header header = header(in, file);
+			long count = 0;
+			while (in.readBoolean()) {
+				skipFully(in, in.readInt());
+				in.readLong();
+				skipFully(in, in.readInt());
+				count++;
+			}
+			// reading to the end checks the gzip checksum
+			if (in.readLong() != count || in.read() != -1) {
+				throw new IOException("Bad snapshot count: " + file);
+			}
+			return header;
+		} catch (IOException e) {
+			LOG.warn("Skipping bad snapshot {}: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	// imports the snapshots of the application that the streams properties configure
+	public static void restore(Properties streamsProps, String snapshotDir) throws IOException {
+		final StreamsConfig config = new StreamsConfig(streamsProps);
+		restore(new File(config.getString(StreamsConfig.STATE_DIR_CONFIG)),
+				config.getString(StreamsConfig.APPLICATION_ID_CONFIG), new File(snapshotDir));
+	}
+
+	// imports the newest valid snapshot of each store of each task of the application into its task directory
+	public static void restore(File stateDir, String applicationId, File snapshotDir) throws IOException {
+		final Set<String> taskIds = new TreeSet<>();
+		taskIds.addAll(taskIds(new File(snapshotDir, applicationId)));
+		taskIds.addAll(taskIds(new File(stateDir, applicationId)));
+		for (final String taskId : taskIds) {
+			final File snapshotTaskDir = new File(new File(snapshotDir, applicationId), taskId);
+			final File taskDir = new File(new File(stateDir, applicationId), taskId);
+			final File taskSnapshotDir = new File(taskDir, TASK_SNAPSHOT_DIR);
+			final File checkpointFile = new File(taskDir, CHECKPOINT_FILE);
+			final Map<TopicPartition, Long> checkpoint = readCheckpoint(checkpointFile);
+			final Set<String> storeNames = new TreeSet<>(storeNames(snapshotTaskDir));
+			storeNames.addAll(volatileStoreNames(taskSnapshotDir));
+			boolean changed = false;
+			for (final String storeName : storeNames) {
+				final TopicPartition changelog = new TopicPartition(changelogTopic(applicationId, storeName),
+						Integer.parseInt(taskId.substring(taskId.indexOf('_') + 1)));
+				final File local = new File(taskSnapshotDir, storeName + SNAPSHOT_SUFFIX);
+				File snapshot = null;
+				Header header = null;
+				for (final File file : snapshots(snapshotTaskDir, storeName)) {
+					header = validate(file);
+					if (header != null) {
+						snapshot = file;
+						break;
+					}
+				}
+				final boolean persistent = header != null ? header.persistent
+						: !new File(taskSnapshotDir, storeName + VOLATILE_SUFFIX).exists();
+				final Long offset = checkpoint.get(changelog);
+				if (persistent) {
+					if (snapshot == null
+							|| (offset != null && offset >= header.offset && new File(taskDir, storeName).exists())) {
+						continue; // the local state is newer
+					}
+					deleteRecursively(new File(taskDir, storeName));
+				} else if (offset != null && local.exists()) {
+					continue; // the store was snapshotted locally when it was closed, at the checkpointed offset
+				}
+				local.delete();
+				if (snapshot == null) {
+					// the offset checkpointed for a volatile store is only valid with its snapshot
+					changed |= checkpoint.remove(changelog) != null;
+					continue;
+				}
+				LOG.info("Importing snapshot {} at offset {}", snapshot, header.offset);
+				if (!taskSnapshotDir.mkdirs() && !taskSnapshotDir.isDirectory()) {
+					throw new IOException("Bad snapshot directory: " + taskSnapshotDir);
+				}
+				Files.copy(snapshot.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				checkpoint.put(changelog, header.offset);
+				changed = true;
+			}
+			if (changed) {
+				writeCheckpoint(checkpointFile, checkpoint);
+			}
+		}
+	}
+
+	// the checkpointed changelog offsets of a task, in the format of the checkpoint file that kafka streams writes
+	static Map<TopicPartition, Long> readCheckpoint(File file) throws IOException {
+		final Map<TopicPartition, Long> offsets = new HashMap<>();
+		if (!file.exists()) {
+			return offsets;
+		}
+		try (final BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			final int version = Integer.parseInt(in.readLine().trim());
+			if (version != CHECKPOINT_VERSION) {
+				throw new IOException("Bad checkpoint version: " + version);
+			}
+			final int n = Integer.parseInt(in.readLine().trim());
+			for (int i = 0; i < n; ++i) {
+				final String[] parts = in.readLine().trim().split("\\s+");
+				offsets.put(new TopicPartition(parts[0], Integer.parseInt(parts[1])), Long.parseLong(parts[2]));
+			}
+		}
+		return offsets;
+	}
+
+	static void writeCheckpoint(File file, Map<TopicPartition, Long> offsets) throws IOException {
+		if (!file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+			throw new IOException("Bad task directory: " + file.getParentFile());
+		}
+		final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (final BufferedWriter out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+			out.write(CHECKPOINT_VERSION + "\n" + offsets.size() + "\n");
+			for (final Map.Entry<TopicPartition, Long> e : offsets.entrySet()) {
+				out.write(e.getKey().topic() + " " + e.getKey().partition() + " " + e.getValue() + "\n");
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static DataInputStream open(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file), IO_BUFFER_SIZE), IO_BUFFER_SIZE));
+	}
+
+	private static void skipFully(DataInputStream in, int n) throws IOException {
+		for (int left = n; left > 0;) {
+			final int skipped = in.skipBytes(left);
+			if (skipped == 0) {
+				in.readByte(); // throws at the end of the stream
+				left--;
+			}
+			left -= skipped;
+		}
+	}
+
+	private static Header header(DataInputStream in, File file) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Bad snapshot header: " + file);
+		}
+		final TopicPartition changelog = new TopicPartition(in.readUTF(), in.readInt());
+		final long offset = in.readLong();
+		return new Header(changelog, offset, in.readBoolean());
+	}
+
+	// the snapshots of the store in the directory, newest first
+	private static File[] snapshots(File dir, String storeName) {
+		final File[] files = dir.listFiles((d, name) -> name.startsWith(storeName + ".")
+				&& name.endsWith(SNAPSHOT_SUFFIX) && offset(storeName, name) >= 0);
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files, Comparator.comparingLong((File f) -> offset(storeName, f.getName())).reversed());
+		return files;
+	}
+
+	private static List<String> taskIds(File dir) {
+		final String[] names = dir.list((d, name) -> name.matches("\\d+_\\d+") && new File(d, name).isDirectory());
+		return names == null ? Collections.emptyList() : Arrays.asList(names);
+	}
+
+	private static List<String> storeNames(File dir) {
+		final String[] names = dir.list((d, name) -> name.endsWith(SNAPSHOT_SUFFIX) && !name.startsWith("."));
+		return names == null ? Collections.emptyList() : Arrays.stream(names)
+				.map(name -> name.substring(0, name.lastIndexOf('.', name.length() - SNAPSHOT_SUFFIX.length() - 1)))
+				.distinct().collect(Collectors.toList());
+	}
+
+	private static List<String> volatileStoreNames(File dir) {
+		final String[] names = dir.list((d, name) -> name.endsWith(VOLATILE_SUFFIX));
+		return names == null ? Collections.emptyList() : Arrays.stream(names)
+				.map(name -> name.substring(0, name.length() - VOLATILE_SUFFIX.length())).collect(Collectors.toList());
+	}
+
+	private static long offset(String storeName, String fileName) {
+		try {
+			return Long.parseLong(
+					fileName.substring(storeName.length() + 1, fileName.length() - SNAPSHOT_SUFFIX.length()));
+		} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			return -1;
+		}
+	}
+
+	private static void deleteRecursively(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
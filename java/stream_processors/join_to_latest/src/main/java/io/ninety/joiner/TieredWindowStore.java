@@ -0,0 +1,905 @@
+package io.ninety.joiner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.errors.ProcessorStateException;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.internals.TimeWindow;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * A window store for long retention, where the recent windows are held on the heap and older ones in immutable sorted
+ * files that are memory mapped.
+ *
+ * The windows newer than the hot duration before the stream time are held as in {@link InMemoryWindowStore}. Once per
+ * hot duration, the older windows are sealed into a new file. A file is sorted by key then time, with a sparse key
+ * index on the heap, as the joiner looks up one key over a short time range, so a lookup of a sealed window reads a
+ * few index intervals rather than every window of that time range. The file also has a time index, the positions of
+ * its windows in time then key order, which the range fetches stream from. A single key fetch only reads the files
+ * whose time range it overlaps, so fetches of recent windows never touch them. Writes to sealed windows go to the heap
+ * and are sealed into a later file, which takes precedence, and deletes of sealed windows are kept as tombstones. A
+ * file is deleted once all of its windows have expired.
+ *
+ * The store is persistent: the files are kept, and the writes to the heap are appended to a log that is synced on
+ * each flush and rewritten with the heap windows on each seal. On open, the files are mapped and the log is replayed,
+ * so only the changelog after the checkpointed offset is restored.
+ */
+public class TieredWindowStore implements WindowStore<Bytes, byte[]> {
+
+	public static WindowBytesStoreSupplier supplier(String name, long retentionMs, long windowSizeMs, long hotMs) {
+		return new Supplier(name, retentionMs, () -> retentionMs, windowSizeMs, hotMs);
+	}
+
+	// the current retention may change while the store is open, up to the retention period
+	public static WindowBytesStoreSupplier supplier(String name, long retentionMs, LongSupplier currentRetentionMs,
+			long windowSizeMs, long hotMs) {
+		return new Supplier(name, retentionMs, currentRetentionMs, windowSizeMs, hotMs);
+	}
+
+	private static final byte[] TOMBSTONE = new byte[0]; // compared by identity
+	private static final int CHANGELOG_SUFFIX_SIZE = Long.BYTES + Integer.BYTES; // the window start and sequence number
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+
+	private final String name;
+	private final LongSupplier retentionMs;
+	private final long windowSizeMs;
+	private final long hotMs;
+	private final ConcurrentNavigableMap<Bytes, ConcurrentNavigableMap<Long, byte[]>> byKey = new ConcurrentSkipListMap<>();
+	private final ConcurrentNavigableMap<Long, ConcurrentSkipListSet<Bytes>> byTime = new ConcurrentSkipListMap<>();
+	private final List<Segment> segments = new CopyOnWriteArrayList<>(); // oldest first
+	private ProcessorContext context;
+	private File dir;
+	private File logFile;
+	private FileOutputStream logStream;
+	private DataOutputStream log;
+	private long streamTimeMs = Long.MIN_VALUE;
+	private long sealedMs = Long.MIN_VALUE;
+	private int nextSegmentId;
+	private volatile boolean open;
+
+	private TieredWindowStore(String name, LongSupplier retentionMs, long windowSizeMs, long hotMs) {
+		this.name = name;
+		this.retentionMs = retentionMs;
+		this.windowSizeMs = windowSizeMs;
+		this.hotMs = hotMs;
+	}
+
+	@Override
+	public String name() {
+		return this.name;
+	}
+
+	@Override
+	public void init(ProcessorContext context, StateStore root) {
+		this.context = context;
+		this.dir = new File(context.stateDir(), this.name);
+		this.logFile = new File(this.dir, this.name + LOG_SUFFIX);
+		this.log = null;
+		this.streamTimeMs = Long.MIN_VALUE;
+		this.sealedMs = Long.MIN_VALUE;
+		this.nextSegmentId = 0;
+		if (!this.dir.mkdirs() && !this.dir.isDirectory()) {
+			throw new ProcessorStateException("Bad tiered store directory: " + this.dir);
+		}
+		try {
+			load();
+			rewriteLog();
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad tiered store files: " + this.dir, e);
+		}
+		context.register(root, (key, value) -> {
+			final int keySize = key.length - CHANGELOG_SUFFIX_SIZE;
+			put(Bytes.wrap(Arrays.copyOf(key, keySize)), value, ByteBuffer.wrap(key, keySize, Long.BYTES).getLong());
+		});
+		this.open = true;
+	}
+
+	@Override
+	public void put(Bytes key, byte[] value) {
+		put(key, value, this.context.timestamp());
+	}
+
+	@Override
+	public void put(Bytes key, byte[] value, long windowStartTimestamp) {
+		this.streamTimeMs = Math.max(this.streamTimeMs, windowStartTimestamp);
+		final long expiredMs = this.streamTimeMs - this.retentionMs.getAsLong();
+		if (windowStartTimestamp <= expiredMs) {
+			return;
+		}
+		apply(key, value, windowStartTimestamp);
+		try {
+			writeWindow(this.log, key, windowStartTimestamp, value);
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad tiered store log: " + this.logFile, e);
+		}
+		expire(expiredMs);
+		if (this.streamTimeMs - this.hotMs >= this.sealedMs + this.hotMs) {
+			seal(this.streamTimeMs - this.hotMs);
+		}
+	}
+
+	@Override
+	public byte[] fetch(Bytes key, long time) {
+		final Map<Long, byte[]> windows = this.byKey.get(key);
+		byte[] value = windows == null ? null : windows.get(time);
+		for (int i = this.segments.size() - 1; value == null && i >= 0; --i) {
+			final TreeMap<Long, byte[]> found = new TreeMap<>();
+			this.segments.get(i).fetch(key, time, time, found);
+			value = found.get(time);
+		}
+		return value == TOMBSTONE ? null : value;
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+		if (timeFrom > timeTo) {
+			return new InMemoryWindowStore.TimeIterator(Collections.emptyIterator());
+		}
+		final NavigableMap<Long, byte[]> hot = this.byKey.get(key);
+		final List<Segment> cold = overlapping(timeFrom, timeTo);
+		if (cold.isEmpty()) {
+			return hot == null ? new InMemoryWindowStore.TimeIterator(Collections.emptyIterator())
+					: new InMemoryWindowStore.TimeIterator(hot.subMap(timeFrom, true, timeTo, true).entrySet().stream()
+							.filter(e -> e.getValue() != TOMBSTONE).iterator());
+		}
+
+		// later segments and then the heap take precedence, and a key has few windows in a time range
+		final TreeMap<Long, byte[]> windows = new TreeMap<>();
+		for (final Segment segment : cold) {
+			segment.fetch(key, timeFrom, timeTo, windows);
+		}
+		if (hot != null) {
+			windows.putAll(hot.subMap(timeFrom, true, timeTo, true));
+		}
+		windows.values().removeIf(v -> v == TOMBSTONE);
+		return new InMemoryWindowStore.TimeIterator(windows.entrySet().iterator());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes from, Bytes to, long timeFrom, long timeTo) {
+		if (from.compareTo(to) > 0 || timeFrom > timeTo) {
+			return new InMemoryWindowStore.WindowedIterator(Collections.emptyIterator());
+		}
+		return range(from, to, timeFrom, timeTo);
+	}
+
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+		return range(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+		if (timeFrom > timeTo) {
+			return new InMemoryWindowStore.WindowedIterator(Collections.emptyIterator());
+		}
+		return range(null, null, timeFrom, timeTo);
+	}
+
+	@Override
+	public void flush() {
+		try {
+			this.log.flush();
+			this.logStream.getFD().sync();
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad tiered store log: " + this.logFile, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (this.open) {
+			flush();
+			try {
+				this.log.close();
+			} catch (IOException e) {
+				throw new ProcessorStateException("Bad tiered store log: " + this.logFile, e);
+			}
+		}
+		this.open = false;
+		this.byKey.clear();
+		this.byTime.clear();
+		this.segments.clear();
+	}
+
+	@Override
+	public boolean persistent() {
+		return true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	// writes a window to the heap, or drops it from the heap if it is deleted and not sealed
+	private void apply(Bytes key, byte[] value, long time) {
+		if (value == null && !isSealed(time)) {
+			final Map<Long, byte[]> windows = this.byKey.get(key);
+			if (windows != null && windows.remove(time) != null) {
+				final ConcurrentSkipListSet<Bytes> keys = this.byTime.get(time);
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					this.byTime.remove(time, keys);
+				}
+				if (windows.isEmpty()) {
+					this.byKey.remove(key, windows);
+				}
+			}
+		} else {
+			this.byKey.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>()).put(time,
+					value == null ? TOMBSTONE : value);
+			this.byTime.computeIfAbsent(time, t -> new ConcurrentSkipListSet<>()).add(key);
+		}
+	}
+
+	private boolean isSealed(long time) {
+		for (final Segment segment : this.segments) {
+			if (time >= segment.minMs && time <= segment.maxMs) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<Segment> overlapping(long timeFrom, long timeTo) {
+		List<Segment> overlapping = Collections.emptyList();
+		for (final Segment segment : this.segments) {
+			if (timeTo >= segment.minMs && timeFrom <= segment.maxMs) {
+				if (overlapping.isEmpty()) {
+					overlapping = new ArrayList<>();
+				}
+				overlapping.add(segment);
+			}
+		}
+		return overlapping;
+	}
+
+	// the windows in the key and time ranges, ordered by time then key as in InMemoryWindowStore, merged lazily from
+	// the time indexes of the files and the heap
+	private KeyValueIterator<Windowed<Bytes>, byte[]> range(Bytes from, Bytes to, long timeFrom, long timeTo) {
+		final List<Source> sources = new ArrayList<>();
+		final List<Segment> cold = overlapping(timeFrom, timeTo);
+		for (int i = 0; i < cold.size(); ++i) {
+			sources.add(cold.get(i).range(from, to, timeFrom, timeTo, i));
+		}
+		sources.add(new HotSource(from, to, timeFrom, timeTo, cold.size()));
+		return new InMemoryWindowStore.WindowedIterator(new MergedIterator(sources, this.windowSizeMs));
+	}
+
+	// drop the windows and files that start at or before the expiry time
+	private void expire(long expiredMs) {
+		final NavigableMap<Long, ConcurrentSkipListSet<Bytes>> expired = this.byTime.headMap(expiredMs, true);
+		for (Map.Entry<Long, ConcurrentSkipListSet<Bytes>> e = expired.pollFirstEntry(); e != null; e = expired
+				.pollFirstEntry()) {
+			removeHot(e.getKey(), e.getValue());
+		}
+		for (final Segment segment : this.segments) {
+			if (segment.maxMs <= expiredMs) {
+				this.segments.remove(segment);
+				segment.file.delete();
+			}
+		}
+	}
+
+	// move the windows that start at or before the seal time into a new file, and rewrite the log without them
+	private void seal(long sealMs) {
+		final NavigableMap<Long, ConcurrentSkipListSet<Bytes>> sealed = this.byTime.headMap(sealMs, true);
+		final List<Window> windows = new ArrayList<>();
+		for (final Map.Entry<Long, ConcurrentSkipListSet<Bytes>> e : sealed.entrySet()) {
+			for (final Bytes key : e.getValue()) {
+				final byte[] value = this.byKey.get(key).get(e.getKey());
+				windows.add(new Window(key, e.getKey(), value, windows.size()));
+			}
+		}
+		final File file = new File(this.dir, this.name + "." + this.nextSegmentId + SEGMENT_SUFFIX);
+		try {
+			if (!windows.isEmpty()) {
+				this.segments.add(Segment.write(file, windows));
+				++this.nextSegmentId;
+			}
+			for (Map.Entry<Long, ConcurrentSkipListSet<Bytes>> e = sealed.pollFirstEntry(); e != null; e = sealed
+					.pollFirstEntry()) {
+				removeHot(e.getKey(), e.getValue());
+			}
+			this.sealedMs = sealMs;
+			rewriteLog();
+		} catch (IOException e) {
+			throw new ProcessorStateException("Bad tiered store file: " + file, e);
+		}
+	}
+
+	private void removeHot(long time, Iterable<Bytes> keys) {
+		for (final Bytes key : keys) {
+			final Map<Long, byte[]> windows = this.byKey.get(key);
+			if (windows != null) {
+				windows.remove(time);
+				if (windows.isEmpty()) {
+					this.byKey.remove(key, windows);
+				}
+			}
+		}
+	}
+
+	// maps the files, oldest first, and replays the log onto the heap up to its last whole window
+	private void load() throws IOException {
+		final TreeMap<Integer, File> files = new TreeMap<>();
+		for (final File file : this.dir.listFiles()) {
+			final String fileName = file.getName();
+			if (fileName.endsWith(TMP_SUFFIX)) {
+				Files.delete(file.toPath());
+			} else if (fileName.endsWith(SEGMENT_SUFFIX)) {
+				files.put(Integer.parseInt(fileName.substring(this.name.length() + 1,
+						fileName.length() - SEGMENT_SUFFIX.length())), file);
+			}
+		}
+		for (final Map.Entry<Integer, File> e : files.entrySet()) {
+			final Segment segment = Segment.open(e.getValue());
+			this.segments.add(segment);
+			this.nextSegmentId = e.getKey() + 1;
+			this.streamTimeMs = Math.max(this.streamTimeMs, segment.maxMs);
+			this.sealedMs = Math.max(this.sealedMs, segment.maxMs);
+		}
+		if (this.logFile.exists()) {
+			try (final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(this.logFile), IO_BUFFER_SIZE))) {
+				while (true) {
+					final byte[] key = new byte[in.readInt()];
+					in.readFully(key);
+					final long time = in.readLong();
+					final int valueSize = in.readInt();
+					final byte[] value = valueSize < 0 ? null : new byte[valueSize];
+					if (value != null) {
+						in.readFully(value);
+					}
+					this.streamTimeMs = Math.max(this.streamTimeMs, time);
+					if (time > this.streamTimeMs - this.retentionMs.getAsLong()) {
+						apply(Bytes.wrap(key), value, time);
+					}
+				}
+			} catch (EOFException e) {
+				// the rest of the log was not synced
+			}
+		}
+		expire(this.streamTimeMs - this.retentionMs.getAsLong());
+	}
+
+	// replaces the log with the windows on the heap, and appends to it from then on
+	private void rewriteLog() throws IOException {
+		if (this.log != null) {
+			this.log.close();
+		}
+		final File tmp = new File(this.dir, this.logFile.getName() + TMP_SUFFIX);
+		try (final FileOutputStream stream = new FileOutputStream(tmp);
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, IO_BUFFER_SIZE))) {
+			for (final Map.Entry<Bytes, ConcurrentNavigableMap<Long, byte[]>> e : this.byKey.entrySet()) {
+				for (final Map.Entry<Long, byte[]> w : e.getValue().entrySet()) {
+					writeWindow(out, e.getKey(), w.getKey(), w.getValue() == TOMBSTONE ? null : w.getValue());
+				}
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(tmp.toPath(), this.logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		this.logStream = new FileOutputStream(this.logFile, true);
+		this.log = new DataOutputStream(new BufferedOutputStream(this.logStream, IO_BUFFER_SIZE));
+	}
+
+	// a window in the log, the key length and bytes, the time, and the value length, or -1 for a delete, and bytes
+	private static void writeWindow(DataOutputStream out, Bytes key, long time, byte[] value) throws IOException {
+		out.writeInt(key.get().length);
+		out.write(key.get());
+		out.writeLong(time);
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	private static final class Window {
+		private static final Comparator<Window> ORDER = Comparator.<Window, Bytes> comparing(w -> w.key)
+				.thenComparingLong(w -> w.time);
+
+		private final Bytes key;
+		private final long time;
+		private final byte[] value;
+		private final int timeOrder; // the position of the window in time then key order
+
+		private Window(Bytes key, long time, byte[] value, int timeOrder) {
+			this.key = key;
+			this.time = time;
+			this.value = value;
+			this.timeOrder = timeOrder;
+		}
+	}
+
+	/**
+	 * An immutable file of windows sorted by key then time, where each window is the key length and bytes, the time,
+	 * and the value length, or -1 for a tombstone, and bytes. They are followed by the time index, the positions of
+	 * the windows in time then key order, then by every INDEX_INTERVAL-th key and its position, and a trailer. The
+	 * file is written under a temporary name and renamed once it is synced, so a file with a trailer is whole.
+	 */
+	private static final class Segment {
+		private static final int INDEX_INTERVAL = 64;
+		private static final int MAGIC = 0x54575331;
+		private static final int TRAILER_SIZE = 4 * Long.BYTES + 3 * Integer.BYTES;
+
+		private final File file;
+		private final MappedFile data;
+		private final long minMs;
+		private final long maxMs;
+		private final long timeIndexPosition; // also the end of the windows
+		private final int size;
+		private final Bytes[] indexKeys;
+		private final long[] indexPositions;
+
+		private Segment(File file, MappedFile data, long minMs, long maxMs, long timeIndexPosition, int size,
+				Bytes[] indexKeys, long[] indexPositions) {
+			this.file = file;
+			this.data = data;
+			this.minMs = minMs;
+			this.maxMs = maxMs;
+			this.timeIndexPosition = timeIndexPosition;
+			this.size = size;
+			this.indexKeys = indexKeys;
+			this.indexPositions = indexPositions;
+		}
+
+		// the windows must be in time then key order, as they are on the heap
+		private static Segment write(File file, List<Window> windows) throws IOException {
+			final List<Window> sorted = new ArrayList<>(windows);
+			sorted.sort(Window.ORDER);
+			final long[] timeIndex = new long[windows.size()];
+			final int indexSize = (sorted.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+			final File tmp = new File(file.getParentFile(), file.getName() + TMP_SUFFIX);
+			long minMs = Long.MAX_VALUE;
+			long maxMs = Long.MIN_VALUE;
+			long position = 0;
+			try (final FileOutputStream stream = new FileOutputStream(tmp);
+					final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, IO_BUFFER_SIZE))) {
+				for (final Window w : sorted) {
+					timeIndex[w.timeOrder] = position;
+					minMs = Math.min(minMs, w.time);
+					maxMs = Math.max(maxMs, w.time);
+					writeWindow(out, w.key, w.time, w.value == TOMBSTONE ? null : w.value);
+					position += Integer.BYTES + w.key.get().length + Long.BYTES + Integer.BYTES
+							+ (w.value == TOMBSTONE ? 0 : w.value.length);
+				}
+				final long timeIndexPosition = position;
+				for (final long windowPosition : timeIndex) {
+					out.writeLong(windowPosition);
+				}
+				final long keyIndexPosition = timeIndexPosition + (long) Long.BYTES * timeIndex.length;
+				for (int i = 0; i < sorted.size(); i += INDEX_INTERVAL) {
+					final byte[] key = sorted.get(i).key.get();
+					out.writeInt(key.length);
+					out.write(key);
+					out.writeLong(timeIndex[sorted.get(i).timeOrder]);
+				}
+				out.writeLong(minMs);
+				out.writeLong(maxMs);
+				out.writeLong(timeIndexPosition);
+				out.writeLong(keyIndexPosition);
+				out.writeInt(sorted.size());
+				out.writeInt(indexSize);
+				out.writeInt(MAGIC);
+				out.flush();
+				stream.getFD().sync();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return open(file);
+		}
+
+		private static Segment open(File file) throws IOException {
+			final MappedFile data = MappedFile.map(file);
+			final long trailer = data.size - TRAILER_SIZE;
+			if (trailer < 0 || data.getInt(data.size - Integer.BYTES) != MAGIC) {
+				throw new IOException("Bad tiered store file trailer: " + file);
+			}
+			final long minMs = data.getLong(trailer);
+			final long maxMs = data.getLong(trailer + Long.BYTES);
+			final long timeIndexPosition = data.getLong(trailer + 2 * Long.BYTES);
+			long position = data.getLong(trailer + 3 * Long.BYTES);
+			final int size = data.getInt(trailer + 4 * Long.BYTES);
+			final int indexSize = data.getInt(trailer + 4 * Long.BYTES + Integer.BYTES);
+			final Bytes[] indexKeys = new Bytes[indexSize];
+			final long[] indexPositions = new long[indexSize];
+			for (int i = 0; i < indexSize; ++i) {
+				final byte[] key = new byte[data.getInt(position)];
+				data.get(position + Integer.BYTES, key);
+				indexKeys[i] = Bytes.wrap(key);
+				position += Integer.BYTES + key.length;
+				indexPositions[i] = data.getLong(position);
+				position += Long.BYTES;
+			}
+			return new Segment(file, data, minMs, maxMs, timeIndexPosition, size, indexKeys, indexPositions);
+		}
+
+		// puts the windows of the key in the time range into the map, where tombstones are TOMBSTONE
+		private void fetch(Bytes key, long timeFrom, long timeTo, Map<Long, byte[]> windows) {
+			if (timeTo < this.minMs || timeFrom > this.maxMs) {
+				return;
+			}
+			final byte[] target = key.get();
+			long position = this.indexPositions[indexBefore(key)];
+			while (position < this.timeIndexPosition) {
+				final int keySize = this.data.getInt(position);
+				final int c = compareKey(position + Integer.BYTES, keySize, target);
+				if (c > 0) {
+					break;
+				}
+				final long timePosition = position + Integer.BYTES + keySize;
+				final long time = this.data.getLong(timePosition);
+				final int valueSize = this.data.getInt(timePosition + Long.BYTES);
+				if (c == 0 && time >= timeFrom && time <= timeTo) {
+					windows.put(time, value(timePosition + Long.BYTES + Integer.BYTES, valueSize));
+				}
+				position = timePosition + Long.BYTES + Integer.BYTES + Math.max(0, valueSize);
+			}
+		}
+
+		// the windows in the key and time ranges in time then key order, where a null key range is all keys
+		private Source range(Bytes from, Bytes to, long timeFrom, long timeTo, int precedence) {
+			// the first window of the time index at or after the start of the time range
+			int lo = 0;
+			int hi = this.size;
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (timeAt(windowPosition(mid)) < timeFrom) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			final int first = lo;
+			return new Source(precedence) {
+				private int next = first;
+
+				@Override
+				boolean advance() {
+					while (this.next < Segment.this.size) {
+						final long position = windowPosition(this.next++);
+						final int keySize = Segment.this.data.getInt(position);
+						final long timePosition = position + Integer.BYTES + keySize;
+						final long windowTime = Segment.this.data.getLong(timePosition);
+						if (windowTime > timeTo) {
+							this.next = Segment.this.size;
+							return false;
+						}
+						if (from == null || (compareKey(position + Integer.BYTES, keySize, from.get()) >= 0
+								&& compareKey(position + Integer.BYTES, keySize, to.get()) <= 0)) {
+							final byte[] keyBytes = new byte[keySize];
+							Segment.this.data.get(position + Integer.BYTES, keyBytes);
+							this.time = windowTime;
+							this.key = Bytes.wrap(keyBytes);
+							this.value = value(timePosition + Long.BYTES + Integer.BYTES,
+									Segment.this.data.getInt(timePosition + Long.BYTES));
+							return true;
+						}
+					}
+					return false;
+				}
+			};
+		}
+
+		private long windowPosition(int timeOrder) {
+			return this.data.getLong(this.timeIndexPosition + (long) Long.BYTES * timeOrder);
+		}
+
+		private long timeAt(long position) {
+			return this.data.getLong(position + Integer.BYTES + this.data.getInt(position));
+		}
+
+		// the last index entry before the key, from which a scan finds all of its windows
+		private int indexBefore(Bytes key) {
+			int lo = 0;
+			int hi = this.indexKeys.length - 1;
+			while (lo < hi) {
+				final int mid = (lo + hi + 1) >>> 1;
+				if (this.indexKeys[mid].compareTo(key) < 0) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return lo;
+		}
+
+		private byte[] value(long position, int size) {
+			if (size < 0) {
+				return TOMBSTONE;
+			}
+			final byte[] value = new byte[size];
+			this.data.get(position, value);
+			return value;
+		}
+
+		// compares as Bytes does, as unsigned bytes
+		private int compareKey(long position, int size, byte[] target) {
+			final int n = Math.min(size, target.length);
+			for (int i = 0; i < n; ++i) {
+				final int c = Integer.compare(this.data.get(position + i) & 0xff, target[i] & 0xff);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return Integer.compare(size, target.length);
+		}
+	}
+
+	// a file mapped in chunks, as a mapping is limited to 2GB, where values may span two chunks
+	private static final class MappedFile {
+		private static final int CHUNK_BITS = 30;
+		private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+		private final ByteBuffer[] chunks;
+		private final long size;
+
+		private MappedFile(ByteBuffer[] chunks, long size) {
+			this.chunks = chunks;
+			this.size = size;
+		}
+
+		private static MappedFile map(File file) throws IOException {
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+					final FileChannel channel = raf.getChannel()) {
+				final long size = channel.size();
+				final ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+				for (int i = 0; i < chunks.length; ++i) {
+					final long start = (long) i << CHUNK_BITS;
+					chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+							Math.min(CHUNK_MASK + 1, size - start));
+				}
+				return new MappedFile(chunks, size);
+			}
+		}
+
+		private byte get(long position) {
+			return this.chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+		}
+
+		private int getInt(long position) {
+			final ByteBuffer chunk = this.chunks[(int) (position >>> CHUNK_BITS)];
+			final int offset = (int) (position & CHUNK_MASK);
+			if (offset + Integer.BYTES <= chunk.limit()) {
+				return chunk.getInt(offset);
+			}
+			int value = 0;
+			for (int i = 0; i < Integer.BYTES; ++i) {
+				value = (value << 8) | (get(position + i) & 0xff);
+			}
+			return value;
+		}
+
+		private long getLong(long position) {
+			final ByteBuffer chunk = this.chunks[(int) (position >>> CHUNK_BITS)];
+			final int offset = (int) (position & CHUNK_MASK);
+			if (offset + Long.BYTES <= chunk.limit()) {
+				return chunk.getLong(offset);
+			}
+			return ((long) getInt(position) << 32) | (getInt(position + Integer.BYTES) & 0xffffffffL);
+		}
+
+		private void get(long position, byte[] bytes) {
+			int done = 0;
+			while (done < bytes.length) {
+				final ByteBuffer chunk = this.chunks[(int) ((position + done) >>> CHUNK_BITS)].duplicate();
+				chunk.position((int) ((position + done) & CHUNK_MASK));
+				final int n = Math.min(bytes.length - done, chunk.remaining());
+				chunk.get(bytes, done, n);
+				done += n;
+			}
+		}
+	}
+
+	// the windows of a file or of the heap in time then key order, where later sources take precedence
+	private abstract static class Source {
+		private final int precedence;
+		long time;
+		Bytes key;
+		byte[] value;
+
+		Source(int precedence) {
+			this.precedence = precedence;
+		}
+
+		// moves to the next window, if there is one
+		abstract boolean advance();
+	}
+
+	private final class HotSource extends Source {
+		private final Bytes from;
+		private final Bytes to;
+		private final Iterator<Map.Entry<Long, ConcurrentSkipListSet<Bytes>>> times;
+		private Iterator<Bytes> keys = Collections.emptyIterator();
+		private long keysTime;
+
+		private HotSource(Bytes from, Bytes to, long timeFrom, long timeTo, int precedence) {
+			super(precedence);
+			this.from = from;
+			this.to = to;
+			this.times = TieredWindowStore.this.byTime.subMap(timeFrom, true, timeTo, true).entrySet().iterator();
+		}
+
+		@Override
+		boolean advance() {
+			while (true) {
+				while (this.keys.hasNext()) {
+					final Bytes k = this.keys.next();
+					final Map<Long, byte[]> windows = TieredWindowStore.this.byKey.get(k);
+					final byte[] v = windows == null ? null : windows.get(this.keysTime);
+					if (v != null) {
+						this.time = this.keysTime;
+						this.key = k;
+						this.value = v;
+						return true;
+					}
+				}
+				if (!this.times.hasNext()) {
+					return false;
+				}
+				final Map.Entry<Long, ConcurrentSkipListSet<Bytes>> e = this.times.next();
+				this.keysTime = e.getKey();
+				this.keys = (this.from == null ? e.getValue() : e.getValue().subSet(this.from, true, this.to, true))
+						.iterator();
+			}
+		}
+	}
+
+	// merges the sources, keeping the window of the source that takes precedence and dropping tombstones
+	private static final class MergedIterator implements Iterator<KeyValue<Windowed<Bytes>, byte[]>> {
+		private static final Comparator<Source> ORDER = Comparator.<Source> comparingLong(s -> s.time)
+				.thenComparing(s -> s.key).thenComparing(Comparator.<Source> comparingInt(s -> s.precedence).reversed());
+
+		private final PriorityQueue<Source> queue = new PriorityQueue<>(ORDER);
+		private final long windowSizeMs;
+		private KeyValue<Windowed<Bytes>, byte[]> next;
+
+		private MergedIterator(List<Source> sources, long windowSizeMs) {
+			this.windowSizeMs = windowSizeMs;
+			for (final Source source : sources) {
+				if (source.advance()) {
+					this.queue.add(source);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null && !this.queue.isEmpty()) {
+				final Source head = this.queue.poll();
+				final long time = head.time;
+				final Bytes key = head.key;
+				final byte[] value = head.value;
+				if (head.advance()) {
+					this.queue.add(head);
+				}
+				while (!this.queue.isEmpty() && this.queue.peek().time == time && this.queue.peek().key.equals(key)) {
+					final Source shadowed = this.queue.poll();
+					if (shadowed.advance()) {
+						this.queue.add(shadowed);
+					}
+				}
+				if (value != TOMBSTONE) {
+					this.next = KeyValue.pair(new Windowed<>(key, new TimeWindow(time, time + this.windowSizeMs)),
+							value);
+				}
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public KeyValue<Windowed<Bytes>, byte[]> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final KeyValue<Windowed<Bytes>, byte[]> kv = this.next;
+			this.next = null;
+			return kv;
+		}
+	}
+
+	private static class Supplier implements WindowBytesStoreSupplier {
+		private final String name;
+		private final long retentionMs;
+		private final LongSupplier currentRetentionMs;
+		private final long windowSizeMs;
+		private final long hotMs;
+
+		private Supplier(String name, long retentionMs, LongSupplier currentRetentionMs, long windowSizeMs,
+				long hotMs) {
+			this.name = name;
+			this.retentionMs = retentionMs;
+			this.currentRetentionMs = currentRetentionMs;
+			this.windowSizeMs = windowSizeMs;
+			this.hotMs = hotMs;
+		}
+
+		@Override
+		public String name() {
+			return this.name;
+		}
+
+		@Override
+		public WindowStore<Bytes, byte[]> get() {
+			return new TieredWindowStore(this.name, this.currentRetentionMs, this.windowSizeMs, this.hotMs);
+		}
+
+		@Override
+		public String metricsScope() {
+			return "tiered-window";
+		}
+
+		@Deprecated
+		@Override
+		public int segments() {
+			return 1;
+		}
+
+		// a segment per millisecond orders the record cache by time then key, as the range fetches are
+		@Override
+		public long segmentIntervalMs() {
+			return 1;
+		}
+
+		@Override
+		public long windowSize() {
+			return this.windowSizeMs;
+		}
+
+		@Override
+		public boolean retainDuplicates() {
+			return false;
+		}
+
+		@Override
+		public long retentionPeriod() {
+			return this.retentionMs;
+		}
+	}
+}
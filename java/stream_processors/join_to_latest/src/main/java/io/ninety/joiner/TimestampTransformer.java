@@ -9,20 +9,40 @@ import org.apache.kafka.streams.processor.To;
 public class TimestampTransformer implements Transformer<String, GenericRecord, KeyValue<String, GenericRecord>>{
 
 	private final String timestampField;
+	private final long groupWindowSizeMs;
+	private final JoinerMetrics metrics;
+	private final EventTimeTracker tracker;
+	private final boolean adaptive;
 	private ProcessorContext context;
 	
-	public TimestampTransformer(String timestampField) {
+	// the joined records that are too late for their group window are counted, by the stream time of the task, and
+	// dropped if the retention adapts, as the aggregate stores may have dropped their windows before the aggregate does
+	public TimestampTransformer(String timestampField, long groupWindowSizeMs, AdaptiveRetention groupRetention,
+			JoinerMetrics metrics) {
 		this.timestampField = timestampField;
+		this.groupWindowSizeMs = groupWindowSizeMs;
+		this.metrics = metrics;
+		this.tracker = EventTimeTracker.create("aggregate", 0, groupRetention);
+		this.adaptive = groupRetention.adaptive();
 	}
 	
 	@Override
 	public void init(ProcessorContext context) {
 		this.context = context;
+		this.metrics.bind(context);
 	}
 
 	@Override
 	public KeyValue<String, GenericRecord> transform(String key, GenericRecord value) {
 		long ts = (Long)value.get(timestampField);
+		final long windowEndMs = ts - Math.floorMod(ts, this.groupWindowSizeMs) + this.groupWindowSizeMs;
+		if (this.tracker.late(ts, windowEndMs)) {
+			this.metrics.lateAggregate();
+			this.tracker.logLate(ts, this.context.taskId(), value);
+			if (this.adaptive) {
+				return null;
+			}
+		}
         context.forward(key, value, To.all().withTimestamp(ts));
         return null;
 	}
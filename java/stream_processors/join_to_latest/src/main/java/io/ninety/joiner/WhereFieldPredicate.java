@@ -0,0 +1,32 @@
+package io.ninety.joiner;
+
+import java.util.Objects;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.kstream.Predicate;
+
+public class WhereFieldPredicate implements Predicate<String, GenericRecord> {
+
+	public static WhereFieldPredicate create(String leftFieldName, String rightFieldName, JoinerMetrics metrics) {
+		return new WhereFieldPredicate(leftFieldName, rightFieldName, metrics);
+	}
+
+	private final String leftFieldName;
+	private final String rightFieldName;
+	private final JoinerMetrics metrics;
+
+	private WhereFieldPredicate(String leftFieldName, String rightFieldName, JoinerMetrics metrics) {
+		this.leftFieldName = leftFieldName;
+		this.rightFieldName = rightFieldName;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean test(String key, GenericRecord value) {
+		final long startNs = this.metrics.startTimer(JoinerMetrics.WHERE_FILTER);
+		final boolean accepted = Objects.deepEquals(value.get(this.leftFieldName), value.get(this.rightFieldName));
+		this.metrics.whereFilter(accepted);
+		this.metrics.stopTimer(JoinerMetrics.WHERE_FILTER, startNs);
+		return accepted;
+	}
+}
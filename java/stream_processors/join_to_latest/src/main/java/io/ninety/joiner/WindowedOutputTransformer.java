@@ -0,0 +1,50 @@
+package io.ninety.joiner;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Maps the windowed aggregates to the out topic records, keyed by the group key in its string form, and drops null
+ * aggregates.
+ */
+public class WindowedOutputTransformer implements Transformer<Windowed<GroupKey>, GenericRecord, KeyValue<String, GenericRecord>> {
+
+	public static WindowedOutputTransformer create(JoinerMetrics metrics) {
+		return new WindowedOutputTransformer(metrics);
+	}
+
+	private final JoinerMetrics metrics;
+	private ProcessorContext context;
+
+	private WindowedOutputTransformer(JoinerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void init(ProcessorContext context) {
+		this.context = context;
+		this.metrics.bind(context);
+	}
+
+	@Override
+	public KeyValue<String, GenericRecord> transform(Windowed<GroupKey> key, GenericRecord value) {
+		final long startNs = this.metrics.startTimer(JoinerMetrics.OUTPUT);
+		if (value == null) {
+			this.metrics.nullAggregateDropped();
+			this.metrics.stopTimer(JoinerMetrics.OUTPUT, startNs);
+			return null;
+		}
+		final KeyValue<String, GenericRecord> out = KeyValue.pair(key.key().toString(), value);
+		this.metrics.outputLag(System.currentTimeMillis() - this.context.timestamp());
+		this.metrics.tracer().trace(JoinerMetrics.OUTPUT, out.key, value);
+		this.metrics.stopTimer(JoinerMetrics.OUTPUT, startNs);
+		return out;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,120 @@
+package io.ninety;
+
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.AdaptiveRetention;
+import io.ninety.joiner.JoinerMetrics;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class AdaptiveRetentionTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+
+	// the percentile of the lateness plus the margin, within the bounds, once there are enough records
+	public void testAdapt() {
+		final AdaptiveRetention retention = AdaptiveRetention.create("test", 1000, 3600000, 99, 500, 0,
+				JoinerMetrics.create("test", 0));
+		assertEquals(3600000, retention.retentionMs());
+		for (int i = 1; i < AdaptiveRetention.MIN_SAMPLES; ++i) {
+			retention.record(i % 100 == 0 ? 60000 : i);
+		}
+		assertEquals(3600000, retention.retentionMs());
+
+		// the 99th percentile is under 1000ms, in a bucket up to 19% wider
+		retention.record(0);
+		assertTrue(String.valueOf(retention.retentionMs()),
+				retention.retentionMs() >= 1000 + 500 && retention.retentionMs() <= 1190 + 500);
+		for (int i = 0; i < AdaptiveRetention.MIN_SAMPLES; ++i) {
+			retention.record(0);
+		}
+		assertEquals(1000, retention.retentionMs());
+		for (int i = 0; i < 4 * AdaptiveRetention.MIN_SAMPLES; ++i) {
+			retention.record(Long.MAX_VALUE / 2);
+		}
+		assertEquals(3600000, retention.retentionMs());
+	}
+
+	// the as-of join stores in memory drop the windows that the adapted retention no longer covers
+	public void testAdaptedStores() throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_MODE, JoinerProperties.JOIN_MODE_ASOF);
+		props.put(JoinerProperties.STORE_BACKEND, JoinerProperties.STORE_BACKEND_MEMORY);
+		props.put(JoinerProperties.RETENTION_ADAPTIVE, "true");
+		props.put(JoinerProperties.RETENTION_ADAPTIVE_INTERVAL, "PT0S");
+		props.put(JoinerProperties.RETENTION_ADAPTIVE_MARGIN, "PT0S");
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("adaptive-retention").toString());
+		final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+		final GenericAvroSerde serde = new GenericAvroSerde(schemaRegistry);
+		serde.configure(props.toMap(), false);
+		final ConsumerRecordFactory<String, GenericRecord> factory = new ConsumerRecordFactory<>(
+				new StringSerializer(), serde.serializer());
+		try (final TopologyTestDriver driver = new TopologyTestDriver(JoinerTopology.create(props, schemaRegistry),
+				driverProps, START_MS)) {
+			for (int i = 0; i < AdaptiveRetention.MIN_SAMPLES; ++i) {
+				driver.pipeInput(factory.create("y", "rk" + i, value("k" + i, 60000 + i, i), START_MS + 60000 + i));
+			}
+			assertEquals(0.0, metric(driver, "join-retention-ms"));
+
+			// 1h was retained before, now only the 5s join window
+			driver.pipeInput(factory.create("y", "rk2", value("k2", 10000, 20), START_MS + 10000));
+			driver.pipeInput(factory.create("x", "rk2", value("k2", 11000, 10), START_MS + 11000));
+			assertNull(driver.readOutput("xy", new StringDeserializer(), serde.deserializer()));
+			driver.pipeInput(factory.create("x", "rk3", value("k3", 61000, 11), START_MS + 61000));
+			final ProducerRecord<String, GenericRecord> out = driver.readOutput("xy", new StringDeserializer(),
+					serde.deserializer());
+			assertEquals(3, out.value().get("val_2"));
+			assertEquals(1.0, metric(driver, "late-join-dropped-total"));
+		}
+	}
+
+	// the rocksdb stores keep the maximum retention, so the records that the adapted one drops would be lost
+	public void testRocksDBRejected() {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.STORE_BACKEND, JoinerProperties.STORE_BACKEND_ROCKSDB);
+		props.put(JoinerProperties.RETENTION_ADAPTIVE, "true");
+		try {
+			JoinerTopology.create(props, new MockSchemaRegistryClient());
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Bad store backend for adaptive retention"));
+		}
+	}
+
+	private static double metric(TopologyTestDriver driver, String name) {
+		for (final Map.Entry<MetricName, ? extends Metric> metric : driver.metrics().entrySet()) {
+			if (metric.getKey().group().equals(JoinerMetrics.GROUP) && metric.getKey().name().equals(name)) {
+				return ((Number) metric.getValue().metricValue()).doubleValue();
+			}
+		}
+		throw new AssertionError("No metric " + name);
+	}
+
+	private static GenericRecord value(String key2, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", key2);
+		value.put("val", val);
+		return value;
+	}
+}
@@ -0,0 +1,117 @@
+package io.ninety;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerMetrics;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class AggregateChangeFilterTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+	private TopologyTestDriver driver;
+	private GenericAvroSerde serde;
+	private ConsumerRecordFactory<String, GenericRecord> factory;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (this.driver != null) {
+			this.driver.close();
+		}
+	}
+
+	// a duplicate left record and an older right record join to records that would not change the aggregate, so they
+	// are dropped and counted, while a newer right record is forwarded once
+	public void testDropsUnchangedRecords() throws Exception {
+		start(true);
+		pipe("y", 1000, 20);
+		pipe("x", 2000, 10);
+		assertEquals(list(20), read());
+		pipe("x", 2000, 10);
+		assertEquals(list(), read());
+		assertEquals(1.0, dropped());
+		pipe("y", 500, 30); // joins both left records
+		assertEquals(list(), read());
+		assertEquals(3.0, dropped());
+		pipe("y", 1500, 21);
+		assertEquals(list(21), read());
+		assertEquals(4.0, dropped());
+	}
+
+	// without the filter every joined record reaches the aggregate and is emitted
+	public void testForwardsAllWithoutFilter() throws Exception {
+		start(false);
+		pipe("y", 1000, 20);
+		pipe("x", 2000, 10);
+		pipe("x", 2000, 10);
+		assertEquals(list(20, 20), read());
+	}
+
+	private void start(boolean changeFilter) throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.GROUP_CHANGE_FILTER, String.valueOf(changeFilter));
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("change-filter").toString());
+		driverProps.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, "0"); // so every aggregate update is emitted
+		this.driver = new TopologyTestDriver(JoinerTopology.create(props, this.schemaRegistry), driverProps, START_MS);
+		this.serde = new GenericAvroSerde(this.schemaRegistry);
+		this.serde.configure(props.toMap(), false);
+		this.factory = new ConsumerRecordFactory<>(new StringSerializer(), this.serde.serializer());
+	}
+
+	private void pipe(String topic, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", "k2");
+		value.put("val", val);
+		this.driver.pipeInput(this.factory.create(topic, "rk", value, START_MS + offsetMs));
+	}
+
+	// the val_2 of the records written to the out topic since the last read
+	private List<Integer> read() {
+		final List<Integer> vals = new ArrayList<>();
+		ProducerRecord<String, GenericRecord> out;
+		while ((out = this.driver.readOutput("xy", new StringDeserializer(), this.serde.deserializer())) != null) {
+			vals.add((Integer) out.value().get("val_2"));
+		}
+		return vals;
+	}
+
+	private double dropped() {
+		for (final Map.Entry<MetricName, ? extends Metric> metric : this.driver.metrics().entrySet()) {
+			if (metric.getKey().group().equals(JoinerMetrics.GROUP)
+					&& metric.getKey().name().equals("unchanged-aggregate-dropped-total")) {
+				return ((Number) metric.getValue().metricValue()).doubleValue();
+			}
+		}
+		throw new AssertionError("No metric unchanged-aggregate-dropped-total");
+	}
+
+	private static List<Integer> list(Integer... vals) {
+		return Arrays.asList(vals);
+	}
+}
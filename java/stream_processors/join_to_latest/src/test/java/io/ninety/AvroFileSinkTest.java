@@ -0,0 +1,150 @@
+package io.ninety;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.processor.TaskId;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.AvroFileSink;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class AvroFileSinkTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+	private static final Schema SCHEMA = SchemaBuilder.record("r").fields().requiredInt("val").requiredString("pad")
+			.endRecord();
+	private static final String PAD = String.format("%64s", "");
+
+	// the out records of the asof join are written to a file per task, which is rolled when the task is closed
+	public void testOutRecords() throws Exception {
+		final File dir = Files.createTempDirectory("file-sink").toFile();
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_MODE, JoinerProperties.JOIN_MODE_ASOF);
+		props.put(JoinerProperties.FILE_SINK_DIR, dir.toString());
+		props.put(JoinerProperties.FILE_SINK_CODEC, "snappy");
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("file-sink-state").toString());
+		final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+		final GenericAvroSerde serde = new GenericAvroSerde(schemaRegistry);
+		serde.configure(props.toMap(), false);
+		final ConsumerRecordFactory<String, GenericRecord> factory = new ConsumerRecordFactory<>(
+				new StringSerializer(), serde.serializer());
+		try (final TopologyTestDriver driver = new TopologyTestDriver(JoinerTopology.create(props, schemaRegistry),
+				driverProps, START_MS)) {
+			driver.pipeInput(factory.create("y", "rk2", value("k2", 1000, 20), START_MS + 1000));
+			driver.pipeInput(factory.create("x", "rk2", value("k2", 3000, 10), START_MS + 3000));
+			driver.pipeInput(factory.create("x", "rk2", value("k2", 4000, 11), START_MS + 4000));
+			driver.pipeInput(factory.create("x", "rk3", value("k3", 4000, 12), START_MS + 4000));
+		}
+
+		final File[] files = new File(dir, "0_0").listFiles((d, n) -> n.endsWith(AvroFileSink.FILE_SUFFIX));
+		assertEquals(1, files.length);
+		final List<String> vals = new ArrayList<>();
+		for (final GenericRecord record : read(files[0])) {
+			vals.add(record.get("val_1") + "-" + record.get("val_2"));
+		}
+		assertEquals(Arrays.asList("10-20", "11-20"), vals);
+	}
+
+	// the records after the last commit are cut from the file of a crashed task, as they are processed again
+	public void testRecoverCommitted() throws Exception {
+		final File dir = Files.createTempDirectory("file-sink").toFile();
+		final AvroFileSink crashed = open(dir);
+		crashed.append(record(1));
+		crashed.append(record(2));
+		crashed.flush();
+		crashed.append(record(3));
+		crashed.append(record(4));
+
+		final AvroFileSink restarted = open(dir);
+		final File[] files = new File(dir, "0_0").listFiles((d, n) -> n.endsWith(AvroFileSink.FILE_SUFFIX));
+		assertEquals(1, files.length);
+		assertEquals(Arrays.asList(1, 2), vals(read(files[0])));
+		restarted.append(record(3));
+		restarted.close();
+		assertEquals(Collections.singletonList("s.committed"),
+				Arrays.asList(new File(dir, "0_0").list((d, n) -> !n.endsWith(AvroFileSink.FILE_SUFFIX))));
+	}
+
+	// a file is rolled on the first commit after it reaches the roll size
+	public void testRollBySize() throws Exception {
+		final File dir = Files.createTempDirectory("file-sink").toFile();
+		final AvroFileSink sink = open(dir);
+		sink.append(record(1));
+		sink.flush();
+		sink.append(record(2));
+		sink.append(record(3));
+		sink.flush();
+		sink.append(record(4));
+		sink.flush();
+		assertEquals(1, new File(dir, "0_0").listFiles((d, n) -> n.endsWith(AvroFileSink.FILE_SUFFIX)).length);
+		sink.close();
+		final File[] files = new File(dir, "0_0").listFiles((d, n) -> n.endsWith(AvroFileSink.FILE_SUFFIX));
+		assertEquals(2, files.length);
+		Arrays.sort(files);
+		assertEquals(Arrays.asList(1, 2, 3), vals(read(files[0])));
+		assertEquals(Arrays.asList(4), vals(read(files[1])));
+	}
+
+	private static AvroFileSink open(File dir) {
+		// uncompressed blocks of a record each, so a file is 236 bytes after one record and 408 after three
+		final AvroFileSink sink = AvroFileSink.builder("s", dir, "null", 400, 3600000, 32).build();
+		final Properties config = new Properties();
+		config.put(StreamsConfig.APPLICATION_ID_CONFIG, "file-sink-test");
+		config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+		sink.init(new MockProcessorContext(config, new TaskId(0, 0), dir), sink);
+		return sink;
+	}
+
+	private static GenericRecord record(int val) {
+		final GenericData.Record record = new GenericData.Record(SCHEMA);
+		record.put("val", val);
+		record.put("pad", PAD);
+		return record;
+	}
+
+	private static GenericRecord value(String key2, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", key2);
+		value.put("val", val);
+		return value;
+	}
+
+	private static List<GenericRecord> read(File file) throws Exception {
+		final List<GenericRecord> records = new ArrayList<>();
+		try (final DataFileReader<GenericRecord> reader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+			reader.forEach(records::add);
+		}
+		return records;
+	}
+
+	private static List<Integer> vals(List<GenericRecord> records) {
+		final List<Integer> vals = new ArrayList<>();
+		records.forEach(r -> vals.add((Integer) r.get("val")));
+		return vals;
+	}
+}
@@ -0,0 +1,74 @@
+package io.ninety;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.ninety.joiner.AvroProjectionPlan;
+import io.ninety.joiner.AvroProjectionPlanCache;
+import io.ninety.joiner.InternalAvroSerde;
+import junit.framework.TestCase;
+
+public class AvroProjectionPlanCacheTest extends TestCase {
+
+	// v2 adds a field before the others and moves val, so the mapped fields have other positions
+	private static final Schema V1 = SchemaBuilder.record("x").namespace("io.ninety").fields()
+			.requiredString("key2").requiredInt("val").endRecord();
+	private static final Schema V2 = SchemaBuilder.record("x").namespace("io.ninety").fields()
+			.optionalLong("added").requiredInt("val").requiredString("key2").endRecord();
+	private static final Schema RIGHT = SchemaBuilder.record("y").namespace("io.ninety").fields()
+			.requiredInt("val").endRecord();
+
+	// the records of each writer schema get their own plan, which copies the mapped fields from their positions
+	public void testPlanPerWriterSchema() {
+		final InternalAvroSerde serde = InternalAvroSerde.create(new MockSchemaRegistryClient());
+		final Map<String, String> left = new HashMap<>();
+		left.put("key2", "key2_1");
+		left.put("val", "val_1");
+		final AvroProjectionPlanCache cache = AvroProjectionPlanCache.create(
+				Arrays.asList(left, Collections.singletonMap("val", "val_2")), "xy", null, "io.ninety", 4);
+		final GenericRecord right = record(RIGHT, "val", 30);
+		final GenericRecord v1 = serde.deserializer().deserialize("x",
+				serde.serializer().serialize("x", record(V1, "key2", "k1", "val", 10)));
+		final GenericRecord v2 = serde.deserializer().deserialize("x",
+				serde.serializer().serialize("x", record(V2, "added", 5L, "val", 20, "key2", "k2")));
+		assertEquals(V1, v1.getSchema());
+		assertEquals(V2, v2.getSchema());
+
+		final AvroProjectionPlan plan1 = cache.get(v1.getSchema(), right.getSchema());
+		final AvroProjectionPlan plan2 = cache.get(v2.getSchema(), right.getSchema());
+		assertNotSame(plan1, plan2);
+		assertSame(plan1, cache.get(new Schema.Parser().parse(V1.toString()), RIGHT));
+		assertSame(plan2, cache.get(v2.getSchema(), right.getSchema()));
+
+		assertJoined(plan1, v1, right, "k1", 10);
+		assertJoined(plan2, v2, right, "k2", 20);
+		assertNull(plan2.schema().getField("added"));
+	}
+
+	private static void assertJoined(AvroProjectionPlan plan, GenericRecord left, GenericRecord right, String key2,
+			int val) {
+		final GenericData.Record joined = plan.newRecord();
+		plan.copy(joined, 0, left);
+		plan.copy(joined, 1, right);
+		assertEquals(3, joined.getSchema().getFields().size());
+		assertEquals(key2, joined.get("key2_1").toString());
+		assertEquals(val, joined.get("val_1"));
+		assertEquals(30, joined.get("val_2"));
+	}
+
+	private static GenericRecord record(Schema schema, Object... fields) {
+		final GenericData.Record record = new GenericData.Record(schema);
+		for (int i = 0; i < fields.length; i += 2) {
+			record.put((String) fields[i], fields[i + 1]);
+		}
+		return record;
+	}
+}
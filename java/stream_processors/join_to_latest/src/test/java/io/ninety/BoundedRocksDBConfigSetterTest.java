@@ -0,0 +1,59 @@
+package io.ninety;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.streams.StreamsConfig;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+
+import io.ninety.joiner.BoundedRocksDBConfigSetter;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class BoundedRocksDBConfigSetterTest extends TestCase {
+
+	static {
+		RocksDB.loadLibrary();
+	}
+
+	// the bounded settings are the config setter of the runtime, unless one is already given
+	public void testConfigured() {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		JoinerTopology.configure(props);
+		assertNull(props.innerProps().get(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG));
+		props.put(JoinerProperties.ROCKSDB_BOUNDED, "true");
+		JoinerTopology.configure(props);
+		assertEquals(BoundedRocksDBConfigSetter.class.getName(),
+				props.innerProps().get(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG));
+	}
+
+	public void testSetConfig() {
+		final Map<String, Object> configs = new HashMap<>();
+		configs.put(JoinerProperties.ROCKSDB_BLOCK_CACHE_MAX_BYTES, "1048576");
+		configs.put(JoinerProperties.ROCKSDB_WRITE_BUFFER_MAX_BYTES, "1048576");
+		configs.put(JoinerProperties.ROCKSDB_WRITE_BUFFERS, "3");
+		configs.put(JoinerProperties.ROCKSDB_BLOOM_FILTER_BITS, "10");
+		configs.put(JoinerProperties.ROCKSDB_COMPACTION_STYLE, "level");
+		try (final Options options = new Options()) {
+			new BoundedRocksDBConfigSetter().setConfig("s", options, configs);
+			assertEquals("BlockBasedTable", options.tableFactoryName());
+			assertEquals(1048576, options.writeBufferSize());
+			assertEquals(3, options.maxWriteBufferNumber());
+			assertEquals(CompactionStyle.LEVEL, options.compactionStyle());
+		}
+		try (final Options options = new Options()) {
+			new BoundedRocksDBConfigSetter().setConfig("s", options, new HashMap<>());
+			assertEquals(CompactionStyle.UNIVERSAL, options.compactionStyle());
+		}
+		configs.put(JoinerProperties.ROCKSDB_COMPACTION_STYLE, "bad");
+		try (final Options options = new Options()) {
+			new BoundedRocksDBConfigSetter().setConfig("s", options, configs);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("compaction style"));
+		}
+	}
+}
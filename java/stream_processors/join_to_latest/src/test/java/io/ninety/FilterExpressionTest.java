@@ -0,0 +1,82 @@
+package io.ninety;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.util.Utf8;
+
+import io.ninety.joiner.FilterExpression;
+import junit.framework.TestCase;
+
+public class FilterExpressionTest extends TestCase {
+
+	private static final Schema SCHEMA = SchemaBuilder.record("r").fields().requiredLong("event_time")
+			.requiredString("key1").requiredInt("val").optionalDouble("score").endRecord();
+
+	public void testComparisons() {
+		final GenericData.Record r = record(1552680000000L, "b", 15, 2.5);
+		assertTrue(test("val = 15", r));
+		assertTrue(test("val == 15.0 and score = 2.5", r));
+		assertTrue(test("val <> 14 and val != 16", r));
+		assertTrue(test("val between 10 and 20", r));
+		assertFalse(test("val not between 10 and 20", r));
+		assertTrue(test("val > score and score >= 2.5 and -1 < score", r));
+		assertTrue(test("key1 in ('a', 'b') and key1 not in ('c')", r));
+		assertTrue(test("val in (14, 15)", r));
+		assertTrue(test("key1 < 'c' and key1 >= 'b'", r));
+		assertTrue(test("event_time >= timestamp '2019-03-15T20:00:00Z' and event_time < timestamp '2019-03-16T00:00:00Z'", r));
+		assertTrue(test("not (val < 10 or val > 20) AND (key1 = 'x' OR val = 15)", r));
+		assertFalse(test("key1 = 15", r)); // other types never compare
+		assertFalse(test("key1 != 15", r));
+	}
+
+	public void testNulls() {
+		final GenericData.Record r = record(0, "it's", 1, null);
+		assertTrue(test("score is null and val is not null", r));
+		assertFalse(test("score = 1", r));
+		assertFalse(test("score != 1", r));
+		assertFalse(test("score in (1, null)", r));
+		assertFalse(test("missing = 1", r));
+		assertTrue(test("missing is null", r));
+		assertTrue(test("key1 = 'it''s'", r));
+	}
+
+	public void testFields() {
+		assertEquals(new LinkedHashSet<>(Arrays.asList("val", "key1", "score")),
+				FilterExpression.parse("val > 1 and (key1 in ('a') or score is null) and 1 < val").fields());
+	}
+
+	public void testMissingFields() {
+		assertEquals(new LinkedHashSet<>(Arrays.asList("vall", "missing")),
+				FilterExpression.parse("vall > 1 and key1 = 'a' or missing is null").missingFields(SCHEMA));
+		assertTrue(FilterExpression.parse("val > 1 and score is null").missingFields(SCHEMA).isEmpty());
+	}
+
+	public void testBadExpressions() {
+		for (final String bad : new String[] { "val >", "val = 1 and", "(val = 1", "val in (key1)", "val not = 1",
+				"key1 = 'a", "val ! 1", "val = 1 val = 2", "event_time > timestamp 'yesterday'" }) {
+			try {
+				FilterExpression.parse(bad);
+				fail(bad);
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Bad filter"));
+			}
+		}
+	}
+
+	private static boolean test(String expression, GenericData.Record record) {
+		return FilterExpression.parse(expression).compile(SCHEMA).test(record);
+	}
+
+	private static GenericData.Record record(long eventTime, String key1, int val, Double score) {
+		final GenericData.Record r = new GenericData.Record(SCHEMA);
+		r.put("event_time", eventTime);
+		r.put("key1", new Utf8(key1));
+		r.put("val", val);
+		r.put("score", score);
+		return r;
+	}
+}
@@ -0,0 +1,92 @@
+package io.ninety;
+
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.GroupKey;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class GroupKeySalterTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+	private static final int PARTITIONS = 8;
+
+	// the joined records of a hot group key are spread over the salts, so over the repartition partitions, and the
+	// latest record of the salts is merged back into one group
+	public void testSpreadsHotGroupKeys() throws Exception {
+		final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.GROUP_PARTITIONER, JoinerProperties.GROUP_PARTITIONER_SALTED);
+		props.put(JoinerProperties.PARTITIONER_SAMPLE_RATE, "1");
+		props.put(JoinerProperties.PARTITIONER_HOT_KEY_FRACTION, "0.5");
+		props.put(JoinerProperties.PARTITIONER_HOT_KEY_SPREAD, "4");
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("group-key-salter").toString());
+		final GenericAvroSerde serde = new GenericAvroSerde(schemaRegistry);
+		serde.configure(props.toMap(), false);
+		final ConsumerRecordFactory<String, GenericRecord> factory = new ConsumerRecordFactory<>(new StringSerializer(),
+				serde.serializer());
+		try (final TopologyTestDriver driver = new TopologyTestDriver(JoinerTopology.create(props, schemaRegistry),
+				driverProps, START_MS)) {
+			driver.pipeInput(factory.create("y", "rk", record(1000, 20), START_MS + 1000));
+			for (int i = 0; i < 200; ++i) { // the sketch finds hot keys after 100 samples
+				driver.pipeInput(factory.create("x", "rk", record(2000, i), START_MS + 2000));
+			}
+
+			final Set<Integer> salts = new HashSet<>();
+			final Set<Integer> partitions = new HashSet<>();
+			final WindowStore<GroupKey, GenericRecord> store = driver.getWindowStore("xy-group-salted");
+			try (final KeyValueIterator<Windowed<GroupKey>, GenericRecord> it = store.all()) {
+				while (it.hasNext()) {
+					final KeyValue<Windowed<GroupKey>, GenericRecord> kv = it.next();
+					final GroupKey key = kv.key.key();
+					assertEquals(GroupKey.create(START_MS + 2000, "k2"), key.withoutSalt());
+					salts.add((int) key.field()[key.field().length - 1]);
+					partitions.add(Utils.toPositive(Utils.murmur2(key.toBytes())) % PARTITIONS);
+				}
+			}
+			assertEquals(4, salts.size());
+			assertTrue(partitions.toString(), partitions.size() > 1);
+
+			ProducerRecord<String, GenericRecord> out;
+			ProducerRecord<String, GenericRecord> latest = null;
+			while ((out = driver.readOutput("xy", new StringDeserializer(), serde.deserializer())) != null) {
+				assertEquals((START_MS + 2000) + "_k2", out.key());
+				latest = out;
+			}
+			assertNotNull(latest);
+			assertEquals(20, latest.value().get("val_2"));
+		}
+	}
+
+	private static GenericRecord record(long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", "k2");
+		value.put("val", val);
+		return value;
+	}
+}
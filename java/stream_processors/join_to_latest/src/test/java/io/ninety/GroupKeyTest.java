@@ -0,0 +1,48 @@
+package io.ninety;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.kafka.common.utils.Bytes;
+
+import io.ninety.joiner.GroupKey;
+import io.ninety.joiner.GroupKeySerde;
+import junit.framework.TestCase;
+
+public class GroupKeyTest extends TestCase {
+
+	public void testRoundTrip() {
+		final GroupKey key = GroupKey.create(1552680000000L, "k2");
+		final GroupKeySerde serde = GroupKeySerde.create();
+		final GroupKey copy = serde.deserializer().deserialize("t", serde.serializer().serialize("t", key));
+		assertEquals(key, copy);
+		assertEquals(1552680000000L, copy.timestamp());
+		assertEquals("1552680000000_k2", copy.toString());
+	}
+
+	public void testParse() {
+		assertEquals(GroupKey.create(1552680000000L, "k_2"), GroupKey.parse("1552680000000_k_2"));
+		assertEquals(GroupKey.create(-1, ""), GroupKey.parse("-1_"));
+		try {
+			GroupKey.parse("k2");
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("Bad group key: k2", e.getMessage());
+		}
+	}
+
+	public void testBytesOrderMatchesKeyOrder() {
+		final List<GroupKey> keys = Arrays.asList(GroupKey.create(-1000, "b"), GroupKey.create(-1, "a"),
+				GroupKey.create(0, "a"), GroupKey.create(0, "ab"), GroupKey.create(0, "b"), GroupKey.create(1, "a"),
+				GroupKey.create(Long.MAX_VALUE, "a"));
+		for (int i = 0; i < keys.size(); ++i) {
+			for (int j = 0; j < keys.size(); ++j) {
+				final int keyOrder = Integer.signum(keys.get(i).compareTo(keys.get(j)));
+				final int bytesOrder = Integer.signum(
+						Bytes.wrap(keys.get(i).toBytes()).compareTo(Bytes.wrap(keys.get(j).toBytes())));
+				assertEquals(Integer.signum(Integer.compare(i, j)), keyOrder);
+				assertEquals(keyOrder, bytesOrder);
+			}
+		}
+	}
+}
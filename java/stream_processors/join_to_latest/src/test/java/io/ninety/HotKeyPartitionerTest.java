@@ -0,0 +1,72 @@
+package io.ninety;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.kafka.common.utils.Utils;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.ninety.joiner.HotKeyPartitioner;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class HotKeyPartitionerTest extends TestCase {
+
+	private static final int PARTITIONS = 16;
+
+	// a hot key is spread over the spread partitions that follow its hashed one, while cold keys keep theirs
+	public void testSpreadsHotKeys() {
+		final HotKeyPartitioner partitioner = HotKeyPartitioner.create(1, 0.05, 4);
+		final Set<Integer> hotPartitions = new HashSet<>();
+		for (int i = 0; i < 10000; ++i) {
+			if (i % 5 == 0) {
+				hotPartitions.add(partitioner.partition("xy", "hot", null, PARTITIONS));
+			} else {
+				final String cold = "cold" + i;
+				assertEquals(cold, hashed(cold), (int) partitioner.partition("xy", cold, null, PARTITIONS));
+			}
+		}
+		final int hashed = hashed("hot");
+		final Set<Integer> expected = new HashSet<>();
+		for (int i = 0; i < 4; ++i) {
+			expected.add((hashed + i) % PARTITIONS);
+		}
+		assertEquals(expected, hotPartitions);
+	}
+
+	// a key keeps its partition until it is hot, and the spread is at most the number of partitions
+	public void testStableUntilHot() {
+		final HotKeyPartitioner partitioner = HotKeyPartitioner.create(1, 0.05, 8);
+		final Integer first = partitioner.partition("xy", "key", null, 2);
+		for (int i = 0; i < 98; ++i) { // the sketch needs 100 samples before any key is hot
+			assertEquals(first, partitioner.partition("xy", "key", null, 2));
+		}
+		final Set<Integer> partitions = new HashSet<>();
+		for (int i = 0; i < 100; ++i) {
+			partitions.add(partitioner.partition("xy", "key", null, 2));
+		}
+		assertEquals(2, partitions.size());
+		assertNull(partitioner.partition("xy", null, null, 2));
+	}
+
+	// the hot key partitioner must be turned on explicitly, as it breaks the per key order of the out topic
+	public void testNeedsUnordered() {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.OUT_PARTITIONER, JoinerProperties.OUT_PARTITIONER_HOT_KEYS);
+		try {
+			JoinerTopology.create(props, new MockSchemaRegistryClient());
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(JoinerProperties.OUT_PARTITIONER_UNORDERED));
+		}
+		props.put(JoinerProperties.OUT_PARTITIONER_UNORDERED, "true");
+		assertNotNull(JoinerTopology.create(props, new MockSchemaRegistryClient()));
+	}
+
+	// the partition of the default producer partitioner
+	private static int hashed(String key) {
+		return Utils.toPositive(Utils.murmur2(key.getBytes(StandardCharsets.UTF_8))) % PARTITIONS;
+	}
+}
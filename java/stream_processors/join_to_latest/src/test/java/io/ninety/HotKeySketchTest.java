@@ -0,0 +1,39 @@
+package io.ninety;
+
+import java.nio.charset.StandardCharsets;
+
+import io.ninety.joiner.HotKeySketch;
+import junit.framework.TestCase;
+
+public class HotKeySketchTest extends TestCase {
+
+	public void testFindsHotKeys() {
+		final HotKeySketch sketch = HotKeySketch.create(1, 0.05);
+		final byte[] hot = "hot".getBytes(StandardCharsets.UTF_8);
+		int hotCount = 0;
+		int coldCount = 0;
+		for (int i = 0; i < 100000; ++i) {
+			if (i % 5 == 0) {
+				hotCount += sketch.offer(hot) ? 1 : 0;
+			} else {
+				coldCount += sketch.offer(("cold" + i).getBytes(StandardCharsets.UTF_8)) ? 1 : 0;
+			}
+		}
+		// hot once enough keys have been sampled
+		assertTrue(hotCount > 19900);
+		assertEquals(0, coldCount);
+	}
+
+	public void testHotKeysCool() {
+		final HotKeySketch sketch = HotKeySketch.create(1, 0.05);
+		final byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < 1000; ++i) {
+			sketch.offer(key);
+		}
+		assertTrue(sketch.offer(key));
+		for (int i = 0; i < 100000; ++i) {
+			sketch.offer(("other" + i).getBytes(StandardCharsets.UTF_8));
+		}
+		assertFalse(sketch.offer(key));
+	}
+}
@@ -0,0 +1,101 @@
+package io.ninety;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+import io.ninety.joiner.InMemoryWindowStore;
+import junit.framework.TestCase;
+
+public class InMemoryWindowStoreTest extends TestCase {
+
+	private static final long RETENTION_MS = 1000;
+
+	private WindowStore<Bytes, byte[]> store;
+
+	@Override
+	protected void setUp() {
+		this.store = InMemoryWindowStore.supplier("s", RETENTION_MS, 100).get();
+		this.store.init(new MockProcessorContext(), this.store);
+	}
+
+	public void testFetchKeyInTimeOrder() {
+		put("a", 30);
+		put("a", 10);
+		put("b", 20);
+		put("a", 20);
+		final List<Long> times = new ArrayList<>();
+		try (final WindowStoreIterator<byte[]> it = this.store.fetch(key("a"), 10, 20)) {
+			while (it.hasNext()) {
+				final KeyValue<Long, byte[]> kv = it.next();
+				assertEquals("a" + kv.key, new String(kv.value));
+				times.add(kv.key);
+			}
+		}
+		assertEquals(Arrays.asList(10L, 20L), times);
+	}
+
+	public void testFetchRangeInTimeThenKeyOrder() {
+		put("c", 10);
+		put("b", 20);
+		put("a", 20);
+		put("b", 10);
+		assertEquals(Arrays.asList("b@10", "c@10", "a@20", "b@20"), windows(this.store.fetchAll(0, 100)));
+		assertEquals(Arrays.asList("b@10", "a@20", "b@20"),
+				windows(this.store.fetch(key("a"), key("b"), 0, 100)));
+	}
+
+	public void testDeleteAndExpire() {
+		put("a", 10);
+		put("b", 10);
+		this.store.put(key("a"), null, 10);
+		assertNull(this.store.fetch(key("a"), 10));
+		put("a", 10 + RETENTION_MS);
+		assertNull(this.store.fetch(key("b"), 10));
+		put("b", 10); // expired, so dropped
+		assertEquals(Arrays.asList("a@1010"), windows(this.store.all()));
+	}
+
+	// deleting the last window of a key and time leaves nothing behind, and the key can be written again
+	public void testDeleteLastWindows() {
+		put("a", 10);
+		put("a", 20);
+		this.store.put(key("a"), null, 10);
+		this.store.put(key("a"), null, 20);
+		this.store.put(key("b"), null, 30);
+		assertEquals(Arrays.asList(), windows(this.store.all()));
+		assertEquals(Arrays.asList(), windows(this.store.fetch(key("a"), key("b"), 0, 100)));
+		put("a", 20);
+		assertEquals(Arrays.asList("a@20"), windows(this.store.fetchAll(0, 100)));
+		assertEquals("a20", new String(this.store.fetch(key("a"), 20)));
+	}
+
+	private void put(String key, long ts) {
+		this.store.put(key(key), (key + ts).getBytes(), ts);
+	}
+
+	private static Bytes key(String key) {
+		return Bytes.wrap(key.getBytes());
+	}
+
+	private static List<String> windows(KeyValueIterator<Windowed<Bytes>, byte[]> it) {
+		final List<String> windows = new ArrayList<>();
+		try {
+			while (it.hasNext()) {
+				final Windowed<Bytes> w = it.next().key;
+				windows.add(new String(w.key().get()) + "@" + w.window().start());
+			}
+		} finally {
+			it.close();
+		}
+		return windows;
+	}
+}
@@ -0,0 +1,66 @@
+package io.ninety;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.serialization.Serde;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.InternalAvroSerde;
+import junit.framework.TestCase;
+
+public class InternalAvroSerdeTest extends TestCase {
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+
+	public void testRoundTrip() throws Exception {
+		final InternalAvroSerde serde = InternalAvroSerde.create(this.schemaRegistry);
+		for (int i = 0; i < 3; ++i) {
+			final GenericRecord value = record(i);
+			assertEquals(value, serde.deserializer().deserialize("t", serde.serializer().serialize("t", value)));
+		}
+		assertNull(serde.serializer().serialize("t", null));
+		assertNull(serde.deserializer().deserialize("t", null));
+	}
+
+	// the internal topics may have been written by GenericAvroSerde, and must stay readable by it
+	public void testCompatibleWithGenericAvroSerde() throws Exception {
+		final InternalAvroSerde serde = InternalAvroSerde.create(this.schemaRegistry);
+		final Serde<GenericRecord> genericSerde = new GenericAvroSerde(this.schemaRegistry);
+		genericSerde.configure(
+				Collections.singletonMap(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "http://unused"),
+				false);
+		final GenericRecord value = record(1);
+		assertEquals(value, genericSerde.deserializer().deserialize("t", serde.serializer().serialize("t", value)));
+		assertEquals(value, serde.deserializer().deserialize("t", genericSerde.serializer().serialize("t", value)));
+	}
+
+	public void testProjection() throws Exception {
+		final InternalAvroSerde serde = InternalAvroSerde.create(this.schemaRegistry);
+		final InternalAvroSerde projectedSerde = InternalAvroSerde.createProjected(this.schemaRegistry,
+				new HashSet<>(Arrays.asList("event_time", "val", "missing")));
+		final GenericRecord value = record(1);
+		final GenericRecord projected = projectedSerde.deserializer().deserialize("t",
+				serde.serializer().serialize("t", value));
+		assertEquals(value.getSchema().getFullName(), projected.getSchema().getFullName());
+		assertEquals(2, projected.getSchema().getFields().size());
+		assertEquals(value.get("event_time"), projected.get("event_time"));
+		assertEquals(value.get("val"), projected.get("val"));
+		assertNull(projected.get("key2"));
+	}
+
+	private static GenericRecord record(int i) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", 1552680000000L + i);
+		value.put("key1", "k1");
+		value.put("key2", "k" + i);
+		value.put("val", i);
+		return value;
+	}
+}
@@ -0,0 +1,99 @@
+package io.ninety;
+
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class JoinPartitionTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+	private TopologyTestDriver driver;
+	private GenericAvroSerde serde;
+	private ConsumerRecordFactory<String, GenericRecord> factory;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (this.driver != null) {
+			this.driver.close();
+		}
+	}
+
+	// the where partitioning joins the same pairs as the key partitioning, so records with other keys are not joined
+	public void testWherePartitioningKeepsTheKey() throws Exception {
+		for (final String partitionBy : new String[] { JoinerProperties.JOIN_PARTITION_BY_KEY,
+				JoinerProperties.JOIN_PARTITION_BY_WHERE }) {
+			start(partitionBy, false);
+			pipe("y", "rk1", "k2", 1000, 20);
+			pipe("y", "rk2", "k2", 2000, 21);
+			pipe("y", "rk1", "k3", 2500, 22);
+			pipe("x", "rk1", "k2", 3000, 10);
+			assertEquals(partitionBy, 20, read().value().get("val_2"));
+			assertNull(partitionBy, read());
+			this.driver.close();
+			this.driver = null;
+		}
+	}
+
+	// keys that are the where field values are joined without a repartition
+	public void testWhereIsKey() throws Exception {
+		assertFalse(JoinerTopology.create(properties(JoinerProperties.JOIN_PARTITION_BY_WHERE, true), this.schemaRegistry)
+				.describe().toString().contains("xy-where"));
+		assertTrue(JoinerTopology.create(properties(JoinerProperties.JOIN_PARTITION_BY_WHERE, false), this.schemaRegistry)
+				.describe().toString().contains("xy-where-left-repartition"));
+		start(JoinerProperties.JOIN_PARTITION_BY_WHERE, true);
+		pipe("y", "k2", "k2", 1000, 20);
+		pipe("y", "k3", "k3", 2000, 21);
+		pipe("x", "k2", "k2", 3000, 10);
+		assertEquals(20, read().value().get("val_2"));
+		assertNull(read());
+	}
+
+	private static JoinerProperties properties(String partitionBy, boolean whereIsKey) {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_PARTITION_BY, partitionBy);
+		props.put(JoinerProperties.LEFT_WHERE_IS_KEY, String.valueOf(whereIsKey));
+		props.put(JoinerProperties.RIGHT_WHERE_IS_KEY, String.valueOf(whereIsKey));
+		return props;
+	}
+
+	private void start(String partitionBy, boolean whereIsKey) throws Exception {
+		final JoinerProperties props = properties(partitionBy, whereIsKey);
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("join-partition").toString());
+		this.driver = new TopologyTestDriver(JoinerTopology.create(props, this.schemaRegistry), driverProps, START_MS);
+		this.serde = new GenericAvroSerde(this.schemaRegistry);
+		this.serde.configure(props.toMap(), false);
+		this.factory = new ConsumerRecordFactory<>(new StringSerializer(), this.serde.serializer());
+	}
+
+	private void pipe(String topic, String key, String key2, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", key2);
+		value.put("val", val);
+		this.driver.pipeInput(this.factory.create(topic, key, value, START_MS + offsetMs));
+	}
+
+	private ProducerRecord<String, GenericRecord> read() {
+		return this.driver.readOutput("xy", new StringDeserializer(), this.serde.deserializer());
+	}
+}
@@ -0,0 +1,112 @@
+package io.ninety;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+import io.ninety.joiner.JoinerBackfill;
+import io.ninety.joiner.JoinerProperties;
+import junit.framework.TestCase;
+
+public class JoinerBackfillTest extends TestCase {
+
+	private File dir;
+	private JoinerWorkload workload;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = Files.createTempDirectory("joiner-backfill").toFile();
+		this.workload = new JoinerWorkload();
+		this.workload.leftRecords = 2000;
+		this.workload.generate();
+		final Schema schema = JoinerHarness.valueSchema();
+		try (final DataFileWriter<GenericRecord> left = new DataFileWriter<>(new GenericDatumWriter<>(schema));
+				final DataFileWriter<GenericRecord> right = new DataFileWriter<>(new GenericDatumWriter<>(schema))) {
+			left.create(schema, new File(this.dir, "x.avro"));
+			right.create(schema, new File(this.dir, "y.avro"));
+			final GenericData.Record value = new GenericData.Record(schema);
+			value.put("key1", "k1");
+			this.workload.forEach((isLeft, key, eventTime, val) -> {
+				value.put("event_time", eventTime);
+				value.put("key2", "k" + key);
+				value.put("val", val);
+				try {
+					(isLeft ? left : right).append(value);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+		}
+	}
+
+	// the sort buffer is small so that the sorted runs are spilled and merged
+	public void testBackfillFromFiles() throws Exception {
+		final Map<String, Integer> output = backfill(properties());
+		assertEquals(JoinerHarnessTest.expectedRightVals(this.workload), output);
+	}
+
+	public void testBackfillTimeRange() throws Exception {
+		final long fromMs = this.workload.startMs + 50000;
+		final long toMs = this.workload.startMs + 100000;
+		final JoinerProperties props = properties();
+		props.put(JoinerProperties.BACKFILL_FROM, Instant.ofEpochMilli(fromMs).toString());
+		props.put(JoinerProperties.BACKFILL_TO, Instant.ofEpochMilli(toMs).toString());
+		final Map<String, Integer> expected = new HashMap<>();
+		JoinerHarnessTest.expectedRightVals(this.workload).forEach((k, v) -> {
+			final long ts = Long.parseLong(k.substring(0, k.indexOf('_')));
+			if (ts >= fromMs && ts < toMs) {
+				expected.put(k, v);
+			}
+		});
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, backfill(props));
+	}
+
+	// the out topic is written with the schema ids of a registry
+	public void testBackfillToTopicNeedsRegistry() throws Exception {
+		final JoinerProperties props = properties();
+		props.innerProps().remove(JoinerProperties.BACKFILL_OUT_FILE);
+		try {
+			JoinerBackfill.create(props, null);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("schema registry"));
+		}
+	}
+
+	private JoinerProperties properties() {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.BACKFILL_PREFIX + "left" + JoinerProperties.BACKFILL_FILE,
+				new File(this.dir, "x.avro").getPath());
+		props.put(JoinerProperties.BACKFILL_PREFIX + "right" + JoinerProperties.BACKFILL_FILE,
+				new File(this.dir, "y.avro").getPath());
+		props.put(JoinerProperties.BACKFILL_OUT_FILE, new File(this.dir, "xy.avro").getPath());
+		props.put(JoinerProperties.BACKFILL_SORT_BUFFER_RECORDS, "100");
+		props.put(JoinerProperties.BACKFILL_TMP_DIR, this.dir.getPath());
+		return props;
+	}
+
+	// out key to the val of the joined right record
+	private Map<String, Integer> backfill(JoinerProperties props) throws Exception {
+		final long records = JoinerBackfill.create(props, null).run();
+		final Map<String, Integer> output = new HashMap<>();
+		try (final DataFileReader<GenericRecord> reader = new DataFileReader<>(new File(this.dir, "xy.avro"),
+				new GenericDatumReader<>())) {
+			for (final GenericRecord value : reader) {
+				output.put(value.get("event_time_1") + "_" + value.get("key2_1"), (Integer) value.get("val_2"));
+			}
+		}
+		assertEquals(records, output.size());
+		return output;
+	}
+}
@@ -0,0 +1,196 @@
+package io.ninety;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+
+/**
+ * Replays a {@link JoinerWorkload} through the joiner topology with a TopologyTestDriver and a mock schema registry,
+ * and measures throughput, per record processing latency, state store sizes and output amplification.
+ */
+public final class JoinerHarness {
+
+	public static final String SCHEMA_FILE = "../../../schema/value.avsc";
+	private static final Logger LOG = LoggerFactory.getLogger(JoinerHarness.class);
+	private static final int DRAIN_INTERVAL = 1000;
+
+	public static final class Result {
+		public long inputRecords;
+		public long leftRecords;
+		public long outputRecords;
+		public double recordsPerSec;
+		public double p50LatencyUs;
+		public double p99LatencyUs;
+		public Map<String, Long> storeEntries = new HashMap<>();
+		public Map<String, Integer> latestRightVals = new HashMap<>(); // out key to the val of the joined right record
+
+		public double outputAmplification() {
+			return this.leftRecords == 0 ? 0 : (double) this.outputRecords / this.leftRecords;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"input.records=%d records/sec=%.0f latency.p50.us=%.1f latency.p99.us=%.1f output.records=%d output.amplification=%.3f store.entries=%s",
+					this.inputRecords, this.recordsPerSec, this.p50LatencyUs, this.p99LatencyUs, this.outputRecords,
+					outputAmplification(), this.storeEntries);
+		}
+	}
+
+	// the same configuration as JoinerStreamProcessor, without a broker
+	public static JoinerProperties defaultProperties() {
+		final JoinerProperties props = new JoinerProperties();
+		props.put(StreamsConfig.APPLICATION_ID_CONFIG, "streams-joiner-harness");
+		props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+		props.put(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "http://dummy:8081");
+		props.put(JoinerProperties.LEFT_TOPIC, "x");
+		props.put(JoinerProperties.RIGHT_TOPIC, "y");
+		props.put(JoinerProperties.OUT_TOPIC, "xy");
+		props.put(JoinerProperties.LEFT_WHERE_FIELD, "key2");
+		props.put(JoinerProperties.RIGHT_WHERE_FIELD, "key2");
+		props.put(JoinerProperties.LEFT_TIMESTAMP_FIELD, "event_time");
+		props.put(JoinerProperties.RIGHT_TIMESTAMP_FIELD, "event_time");
+		props.put(JoinerProperties.GROUP_BY_FIELD, "key2_1");
+		props.put(JoinerProperties.GROUP_BY_TIMESTAMP_FIELD, "event_time_1");
+		props.put(JoinerProperties.AGGREGATE_TIMESTAMP_FIELD, "event_time_2");
+		props.put(JoinerProperties.JOIN_WINDOW_SIZE, "PT5S");
+		props.put(JoinerProperties.GROUP_WINDOW_SIZE, "PT5S");
+		props.put(JoinerProperties.JOIN_WINDOW_RETENTION, "PT1H");
+		props.put(JoinerProperties.GROUP_WINDOW_RETENTION, "PT1H");
+		props.put(JoinerProperties.LEFT_FIELDS, "event_time as event_time_1, key1 as key1_1, key2 as key2_1, val as val_1");
+		props.put(JoinerProperties.RIGHT_FIELDS, "event_time as event_time_2, key1 as key1_2, key2 as key2_2, val as val_2");
+		return props;
+	}
+
+	public static Schema valueSchema() throws IOException {
+		return new Schema.Parser().parse(new File(SCHEMA_FILE));
+	}
+
+	public static Result run(JoinerProperties props, JoinerWorkload workload, boolean collectOutput) throws IOException {
+		final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+		final Topology topology = JoinerTopology.create(props, schemaRegistry);
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("joiner-harness").toString());
+
+		final GenericAvroSerde serde = new GenericAvroSerde(schemaRegistry);
+		serde.configure(props.toMap(), false);
+		final ConsumerRecordFactory<String, GenericRecord> factory = new ConsumerRecordFactory<>(new StringSerializer(),
+				serde.serializer());
+		final Deserializer<String> keyDeserializer = new StringDeserializer();
+		final Deserializer<GenericRecord> valueDeserializer = serde.deserializer();
+		final Schema schema = valueSchema();
+		final GenericData.Record value = new GenericData.Record(schema);
+		value.put("key1", "k1");
+
+		final Result result = new Result();
+		final long[] latenciesNs = new long[workload.size()];
+		try (final TopologyTestDriver driver = new TopologyTestDriver(topology, driverProps, workload.startMs)) {
+			final long startNs = System.nanoTime();
+			workload.forEach((isLeft, key, eventTime, val) -> {
+				value.put("event_time", eventTime);
+				value.put("key2", "k" + key);
+				value.put("val", val);
+				final String topic = isLeft ? props.leftTopic() : props.rightTopic();
+				final ConsumerRecord<byte[], byte[]> record = factory.create(topic, "rk" + key, value, eventTime);
+				final long pipeNs = System.nanoTime();
+				driver.pipeInput(record);
+				latenciesNs[(int) result.inputRecords] = System.nanoTime() - pipeNs;
+				result.inputRecords++;
+				if (isLeft) {
+					result.leftRecords++;
+				}
+				if (result.inputRecords % DRAIN_INTERVAL == 0) {
+					drain(driver, props.outTopic(), keyDeserializer, valueDeserializer, result, collectOutput);
+				}
+			});
+			drain(driver, props.outTopic(), keyDeserializer, valueDeserializer, result, collectOutput);
+			final double elapsedSec = (System.nanoTime() - startNs) / 1e9;
+			result.recordsPerSec = result.inputRecords / elapsedSec;
+			for (final Map.Entry<String, StateStore> e : driver.getAllStateStores().entrySet()) {
+				result.storeEntries.put(e.getKey(), entries(e.getValue()));
+			}
+		}
+		Arrays.sort(latenciesNs);
+		result.p50LatencyUs = percentile(latenciesNs, 0.50) / 1e3;
+		result.p99LatencyUs = percentile(latenciesNs, 0.99) / 1e3;
+		return result;
+	}
+
+	private static void drain(TopologyTestDriver driver, String topic, Deserializer<String> keyDeserializer,
+			Deserializer<GenericRecord> valueDeserializer, Result result, boolean collectOutput) {
+		ProducerRecord<String, GenericRecord> out;
+		while ((out = driver.readOutput(topic, keyDeserializer, valueDeserializer)) != null) {
+			result.outputRecords++;
+			if (collectOutput) {
+				result.latestRightVals.put(out.key(), (Integer) out.value().get("val_2"));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long entries(StateStore store) {
+		if (store instanceof KeyValueStore) {
+			return ((KeyValueStore<Object, Object>) store).approximateNumEntries();
+		}
+		long n = 0;
+		if (store instanceof WindowStore) {
+			try (final KeyValueIterator<Windowed<Object>, Object> it = ((WindowStore<Object, Object>) store).all()) {
+				for (; it.hasNext(); it.next()) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+	}
+
+	// e.g. mvn test-compile exec:java -Dexec.mainClass=io.ninety.JoinerHarness -Dexec.classpathScope=test -Dharness.left.records=1000000
+	public static void main(String[] args) throws IOException {
+		final JoinerWorkload workload = JoinerWorkload.fromSystemProperties().generate();
+		for (final String mode : System.getProperty("harness.join.modes", JoinerProperties.JOIN_MODE_WINDOW + ","
+				+ JoinerProperties.JOIN_MODE_ASOF).split(",")) {
+			final JoinerProperties props = defaultProperties();
+			props.put(JoinerProperties.JOIN_MODE, mode);
+			LOG.info("{}: {}", mode, workload);
+			LOG.info("{}: {}", mode, run(props, workload, false));
+		}
+	}
+}
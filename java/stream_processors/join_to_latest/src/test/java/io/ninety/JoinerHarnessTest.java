@@ -0,0 +1,121 @@
+package io.ninety;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.ninety.joiner.JoinerProperties;
+import junit.framework.TestCase;
+
+/**
+ * Runs the harness over a small workload in each join mode and checks the latest output for each left record against
+ * a brute force nearest past record join. Use JoinerHarness.main for larger workloads.
+ */
+public class JoinerHarnessTest extends TestCase {
+
+	private static final long JOIN_WINDOW_MS = 5000;
+	private static final int LEFT_RECORDS = 1000;
+
+	public void testWindowJoin() throws Exception {
+		checkJoin(JoinerProperties.JOIN_MODE_WINDOW);
+	}
+
+	public void testAsOfJoin() throws Exception {
+		checkJoin(JoinerProperties.JOIN_MODE_ASOF);
+	}
+
+	// the two stream case of join.streams is the as-of join
+	public void testJoinStreams() throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_STREAMS, "x, y");
+		for (final String stream : new String[] { "x", "y" }) {
+			final String prefix = JoinerProperties.STREAM_PREFIX + stream;
+			final String suffix = stream.equals("x") ? "_1" : "_2";
+			props.put(prefix + JoinerProperties.STREAM_TOPIC, stream);
+			props.put(prefix + JoinerProperties.STREAM_WHERE_FIELD, "key2");
+			props.put(prefix + JoinerProperties.STREAM_TIMESTAMP_FIELD, "event_time");
+			props.put(prefix + JoinerProperties.STREAM_FIELDS, "event_time as event_time" + suffix + ", key1 as key1"
+					+ suffix + ", key2 as key2" + suffix + ", val as val" + suffix);
+		}
+		checkJoin(props, "join.streams");
+	}
+
+	// only the final record of each closed window is emitted, so there are no superseded records
+	public void testWindowJoinEmitOnWindowClose() throws Exception {
+		final JoinerWorkload workload = new JoinerWorkload();
+		workload.leftRecords = LEFT_RECORDS;
+		workload.generate();
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.GROUP_EMIT, JoinerProperties.GROUP_EMIT_WINDOW_CLOSE);
+		props.put(JoinerProperties.GROUP_WINDOW_RETENTION, "PT20S");
+		final JoinerHarness.Result result = JoinerHarness.run(props, workload, true);
+		final Map<String, Integer> expected = expectedRightVals(workload);
+		assertTrue(result.outputRecords > 0);
+		assertEquals(result.outputRecords, result.latestRightVals.size());
+		for (final Map.Entry<String, Integer> e : result.latestRightVals.entrySet()) {
+			assertEquals(e.getKey(), expected.get(e.getKey()), e.getValue());
+		}
+	}
+
+	// the left and right filters drop records before the join, and the join condition drops joined records
+	public void testFilters() throws Exception {
+		final JoinerWorkload workload = new JoinerWorkload();
+		workload.leftRecords = LEFT_RECORDS;
+		workload.generate();
+		final Map<String, Integer> expected = expectedRightVals(workload,
+				(key, eventTime, val) -> key > 1 && val >= 200, (key, eventTime, val) -> val < 1000 || val >= 1500);
+		for (final String mode : new String[] { JoinerProperties.JOIN_MODE_WINDOW, JoinerProperties.JOIN_MODE_ASOF }) {
+			final JoinerProperties props = JoinerHarness.defaultProperties();
+			props.put(JoinerProperties.JOIN_MODE, mode);
+			props.put(JoinerProperties.LEFT_FILTER, "key2 not in ('k0', 'k1')");
+			props.put(JoinerProperties.RIGHT_FILTER, "val < 1000 or val >= 1500");
+			props.put(JoinerProperties.JOIN_CONDITION, "val_1 >= 200 and key1_1 = key1_2");
+			final JoinerHarness.Result result = JoinerHarness.run(props, workload, true);
+			assertEquals(expected, result.latestRightVals);
+		}
+	}
+
+	private void checkJoin(String mode) throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_MODE, mode);
+		checkJoin(props, mode);
+	}
+
+	private void checkJoin(JoinerProperties props, String name) throws Exception {
+		final JoinerWorkload workload = new JoinerWorkload();
+		workload.leftRecords = LEFT_RECORDS;
+		workload.generate();
+		final JoinerHarness.Result result = JoinerHarness.run(props, workload, true);
+		assertEquals(name + ": " + result, expectedRightVals(workload), result.latestRightVals);
+	}
+
+	// out key to the val of the nearest right record at or before each left record, with the same key, in the window
+	static Map<String, Integer> expectedRightVals(JoinerWorkload workload) {
+		return expectedRightVals(workload, (key, eventTime, val) -> true, (key, eventTime, val) -> true);
+	}
+
+	private interface RecordFilter {
+		boolean test(int key, long eventTime, int val);
+	}
+
+	// as above, for the left and right records that the filters accept
+	private static Map<String, Integer> expectedRightVals(JoinerWorkload workload, RecordFilter leftFilter,
+			RecordFilter rightFilter) {
+		final Map<Integer, TreeMap<Long, Integer>> rights = new HashMap<>();
+		workload.forEach((isLeft, key, eventTime, val) -> {
+			if (!isLeft && rightFilter.test(key, eventTime, val)) {
+				rights.computeIfAbsent(key, k -> new TreeMap<>()).put(eventTime, val);
+			}
+		});
+		final Map<String, Integer> expected = new HashMap<>();
+		workload.forEach((isLeft, key, eventTime, val) -> {
+			if (isLeft && leftFilter.test(key, eventTime, val) && rights.containsKey(key)) {
+				final Map.Entry<Long, Integer> right = rights.get(key).floorEntry(eventTime);
+				if (right != null && right.getKey() >= eventTime - JOIN_WINDOW_MS) {
+					expected.put(eventTime + "_k" + key, right.getValue());
+				}
+			}
+		});
+		return expected;
+	}
+}
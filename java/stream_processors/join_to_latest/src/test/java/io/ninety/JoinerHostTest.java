@@ -0,0 +1,98 @@
+package io.ninety;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerHost;
+import io.ninety.joiner.JoinerProperties;
+import junit.framework.TestCase;
+
+public class JoinerHostTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+
+	public void testPipelinesShareOneTopology() throws Exception {
+		final Map<String, Properties> pipelines = new HashMap<>();
+		pipelines.put("xy", pipeline("x", "y", "xy", JoinerProperties.JOIN_MODE_ASOF));
+		pipelines.put("ab", pipeline("a", "b", "ab", JoinerProperties.JOIN_MODE_ASOF));
+		final Properties driverProps = new Properties();
+		driverProps.putAll(pipelines.get("xy"));
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("joiner-host").toString());
+		final GenericAvroSerde serde = new GenericAvroSerde(this.schemaRegistry);
+		serde.configure(JoinerHarness.defaultProperties().toMap(), false);
+		final ConsumerRecordFactory<String, GenericRecord> factory = new ConsumerRecordFactory<>(
+				new StringSerializer(), serde.serializer());
+		try (final TopologyTestDriver driver = new TopologyTestDriver(
+				JoinerHost.createTopology(pipelines, this.schemaRegistry), driverProps, START_MS)) {
+			for (final String[] topics : new String[][] { { "x", "y", "xy" }, { "a", "b", "ab" } }) {
+				driver.pipeInput(factory.create(topics[1], "rk", record(1000, 20), START_MS + 1000));
+				driver.pipeInput(factory.create(topics[0], "rk", record(2000, 10), START_MS + 2000));
+				final ProducerRecord<String, GenericRecord> out = driver.readOutput(topics[2],
+						new StringDeserializer(), serde.deserializer());
+				assertNotNull(topics[2], out);
+				assertEquals(20, out.value().get("val_2"));
+			}
+		}
+	}
+
+	// the window join stores of a window mode pipeline are numbered in build order, so it runs alone
+	public void testWindowPipelinesDoNotShare() throws Exception {
+		final Map<String, Properties> pipelines = new HashMap<>();
+		pipelines.put("xy", pipeline("x", "y", "xy", JoinerProperties.JOIN_MODE_WINDOW));
+		assertTrue(JoinerHost.createTopology(pipelines, this.schemaRegistry).describe().toString()
+				.contains("xy-group-by-repartition"));
+		pipelines.put("ab", pipeline("a", "b", "ab", JoinerProperties.JOIN_MODE_ASOF));
+		try {
+			JoinerHost.createTopology(pipelines, this.schemaRegistry);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("pipeline xy"));
+		}
+	}
+
+	public void testPipelinesMustNotShareSourceTopics() throws Exception {
+		final Map<String, Properties> pipelines = new HashMap<>();
+		pipelines.put("xy", pipeline("x", "y", "xy", JoinerProperties.JOIN_MODE_ASOF));
+		pipelines.put("xz", pipeline("x", "z", "xz", JoinerProperties.JOIN_MODE_ASOF));
+		try {
+			JoinerHost.createTopology(pipelines, this.schemaRegistry);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("topic x"));
+		}
+	}
+
+	private static Properties pipeline(String left, String right, String out, String mode) {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.LEFT_TOPIC, left);
+		props.put(JoinerProperties.RIGHT_TOPIC, right);
+		props.put(JoinerProperties.OUT_TOPIC, out);
+		props.put(JoinerProperties.JOIN_MODE, mode);
+		return props.innerProps();
+	}
+
+	private static GenericRecord record(long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", "k2");
+		value.put("val", val);
+		return value;
+	}
+}
@@ -0,0 +1,126 @@
+package io.ninety;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerMetrics;
+import io.ninety.joiner.JoinerMetricsServer;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class JoinerMetricsServerTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+	private static final long HOUR_MS = 3600000L;
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+	private TopologyTestDriver driver;
+	private ConsumerRecordFactory<String, GenericRecord> factory;
+	private JoinerMetricsServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.GROUP_WINDOW_RETENTION, "PT1S");
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("metrics-server").toString());
+		this.driver = new TopologyTestDriver(JoinerTopology.create(props, this.schemaRegistry), driverProps, START_MS);
+		final GenericAvroSerde serde = new GenericAvroSerde(this.schemaRegistry);
+		serde.configure(props.toMap(), false);
+		this.factory = new ConsumerRecordFactory<>(new StringSerializer(), serde.serializer());
+		this.server = JoinerMetricsServer.create(this.driver::metrics, 0);
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.close();
+		this.driver.close();
+	}
+
+	// a joined record for a closed group window, and a source record older than the join store retention
+	public void testLateRecords() throws Exception {
+		pipe("y", "k2", 1000, 20);
+		pipe("x", "k2", 3000, 10);
+		pipe("y", "k3", 20000, 30);
+		pipe("x", "k3", 20000, 11);
+		assertEquals(0.0, metric("late-aggregate-dropped-total"));
+		pipe("x", "k2", 4000, 12);
+		assertEquals(1.0, metric("late-aggregate-dropped-total"));
+
+		assertEquals(0.0, metric("late-join-dropped-total"));
+		pipe("y", "k4", 2 * HOUR_MS, 40);
+		pipe("y", "k4", 1000, 41);
+		assertEquals(1.0, metric("late-join-dropped-total"));
+		assertEquals((double) START_MS + 2 * HOUR_MS, metric("stream-time", "topic", "y"));
+		assertEquals((double) START_MS + 20000, metric("stream-time", "topic", "x"));
+	}
+
+	public void testScrape() throws Exception {
+		pipe("y", "k2", 1000, 20);
+		pipe("x", "k2", 3000, 10);
+		final String body = get("/metrics");
+		assertTrue(body, body.contains("# TYPE joiner_metrics_late_join_dropped_total gauge\n"));
+		assertTrue(body, body.contains("joiner_metrics_late_join_dropped_total{pipeline=\"xy\"} 0\n"));
+		assertTrue(body, body.contains("joiner_metrics_stream_time{partition=\"0\",pipeline=\"xy\",topic=\"x\"} "
+				+ (START_MS + 3000) + "\n"));
+		assertTrue(body, body.contains("joiner_metrics_output_lag_max{pipeline=\"xy\"} "));
+		assertFalse(body, body.contains("-metrics"));
+	}
+
+	private double metric(String name, String... tags) {
+		for (final Map.Entry<MetricName, ? extends Metric> metric : this.driver.metrics().entrySet()) {
+			final MetricName metricName = metric.getKey();
+			if (metricName.group().equals(JoinerMetrics.GROUP) && metricName.name().equals(name)
+					&& (tags.length == 0 || tags[1].equals(metricName.tags().get(tags[0])))) {
+				return ((Number) metric.getValue().metricValue()).doubleValue();
+			}
+		}
+		throw new AssertionError("No metric " + name);
+	}
+
+	private void pipe(String topic, String key2, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", key2);
+		value.put("val", val);
+		this.driver.pipeInput(this.factory.create(topic, "rk" + key2, value, START_MS + offsetMs));
+	}
+
+	private String get(String path) throws IOException {
+		final HttpURLConnection conn = (HttpURLConnection) new URL("http", "localhost", this.server.port(), path)
+				.openConnection();
+		assertEquals(200, conn.getResponseCode());
+		try (final InputStream in = conn.getInputStream()) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
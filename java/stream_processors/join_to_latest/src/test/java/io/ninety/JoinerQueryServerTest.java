@@ -0,0 +1,138 @@
+package io.ninety;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.ReadOnlyWindowStore;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.GroupKey;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerQueryServer;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class JoinerQueryServerTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+	private TopologyTestDriver driver;
+	private ConsumerRecordFactory<String, GenericRecord> factory;
+	private JoinerQueryServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.QUERY_PORT, "0");
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("query-server").toString());
+		this.driver = new TopologyTestDriver(JoinerTopology.create(props, this.schemaRegistry), driverProps, START_MS);
+		final GenericAvroSerde serde = new GenericAvroSerde(this.schemaRegistry);
+		serde.configure(props.toMap(), false);
+		this.factory = new ConsumerRecordFactory<>(new StringSerializer(), serde.serializer());
+
+		// a single instance, which owns every key
+		final String storeName = JoinerTopology.groupStoreName(props);
+		final HostInfo self = new HostInfo("localhost", 0);
+		this.server = JoinerQueryServer.create(new JoinerQueryServer.Stores() {
+			@Override
+			public ReadOnlyWindowStore<GroupKey, GenericRecord> store(String name) {
+				return name.equals(storeName) ? driver.<GroupKey, GenericRecord> getWindowStore(name) : null;
+			}
+
+			@Override
+			public HostInfo owner(String name, GroupKey key) {
+				return self;
+			}
+
+			@Override
+			public Collection<HostInfo> hosts(String name) {
+				return Collections.singleton(self);
+			}
+		}, self);
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.close();
+		this.driver.close();
+	}
+
+	public void testLatest() throws Exception {
+		pipe("y", "k2", 1000, 20);
+		pipe("x", "k2", 3000, 10);
+		pipe("y", "k2", 2000, 21);
+		assertTrue(get("/stores/xy-group/latest/" + (START_MS + 3000) + "_k2").contains("\"val_2\": 21"));
+		assertEquals(404, status("/stores/xy-group/latest/" + (START_MS + 3000) + "_k3"));
+		assertEquals(400, status("/stores/xy-group/latest/k2"));
+	}
+
+	public void testRanges() throws Exception {
+		pipe("y", "k2", 1000, 20);
+		pipe("y", "k3", 1000, 30);
+		pipe("x", "k2", 3000, 10);
+		pipe("x", "k3", 3000, 11);
+		pipe("y", "k2", 8000, 22);
+		pipe("x", "k2", 9000, 12);
+		assertEquals(1, count(get("/stores/xy-group/keys/" + (START_MS + 3000) + "_k2")));
+		assertEquals(3, count(get("/stores/xy-group/range")));
+		assertEquals(2, count(get("/stores/xy-group/range?from.key=" + (START_MS + 3000) + "_k2&to.key="
+				+ (START_MS + 3000) + "_k3")));
+		assertEquals(1, count(get("/stores/xy-group/range?from=" + (START_MS + 5000))));
+	}
+
+	private void pipe(String topic, String key2, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", key2);
+		value.put("val", val);
+		this.driver.pipeInput(this.factory.create(topic, "rk" + key2, value, START_MS + offsetMs));
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		return (HttpURLConnection) new URL("http", "localhost", this.server.port(), path).openConnection();
+	}
+
+	private int status(String path) throws IOException {
+		return open(path).getResponseCode();
+	}
+
+	private String get(String path) throws IOException {
+		final HttpURLConnection conn = open(path);
+		assertEquals(200, conn.getResponseCode());
+		try (final InputStream in = conn.getInputStream()) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static int count(String entries) {
+		return entries.split("\"key\":").length - 1;
+	}
+}
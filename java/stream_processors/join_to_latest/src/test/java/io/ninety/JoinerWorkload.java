@@ -0,0 +1,111 @@
+package io.ninety;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A synthetic x/y workload in the shape of data/x.dat and data/y.dat, scaled up and with configurable key cardinality,
+ * right/left rate ratio and out-of-order arrivals.
+ *
+ * Left records are evenly spaced in event time, with random keys, and right records are spaced by the left interval
+ * divided by the rate ratio. A fraction of the records arrive late, by an exponentially distributed lateness that is
+ * capped at a maximum. All event times are distinct.
+ */
+public final class JoinerWorkload {
+
+	public interface Consumer {
+		void accept(boolean isLeft, int key, long eventTime, int val);
+	}
+
+	public static final String PREFIX = "harness.";
+
+	// configuration, defaults can be overridden by system properties e.g. -Dharness.left.records=1000000
+	public int leftRecords = 10000;
+	public int keyCardinality = 10;
+	public double rightLeftRatio = 1.0;
+	public double outOfOrderFraction = 0.1;
+	public long latenessMeanMs = 2000;
+	public long latenessMaxMs = 10000;
+	public long leftIntervalMs = 100;
+	public long startMs = 1552680000000L;
+	public long seed = 0;
+
+	public static JoinerWorkload fromSystemProperties() {
+		final JoinerWorkload w = new JoinerWorkload();
+		w.leftRecords = Integer.getInteger(PREFIX + "left.records", w.leftRecords);
+		w.keyCardinality = Integer.getInteger(PREFIX + "key.cardinality", w.keyCardinality);
+		w.rightLeftRatio = Double.parseDouble(System.getProperty(PREFIX + "right.left.ratio", String.valueOf(w.rightLeftRatio)));
+		w.outOfOrderFraction = Double.parseDouble(System.getProperty(PREFIX + "out.of.order.fraction", String.valueOf(w.outOfOrderFraction)));
+		w.latenessMeanMs = Long.getLong(PREFIX + "lateness.mean.ms", w.latenessMeanMs);
+		w.latenessMaxMs = Long.getLong(PREFIX + "lateness.max.ms", w.latenessMaxMs);
+		w.leftIntervalMs = Long.getLong(PREFIX + "left.interval.ms", w.leftIntervalMs);
+		w.seed = Long.getLong(PREFIX + "seed", w.seed);
+		return w;
+	}
+
+	private static final int INDEX_BITS = 23;
+
+	private boolean[] isLeft;
+	private int[] keys;
+	private long[] eventTimes;
+	private int[] vals;
+	private long[] order; // arrival time offset in the high bits, event index in the low bits
+
+	public int size() {
+		return this.order.length;
+	}
+
+	public int rightRecords() {
+		return (int) Math.round(this.leftRecords * this.rightLeftRatio);
+	}
+
+	public JoinerWorkload generate() {
+		final int rights = rightRecords();
+		final int n = this.leftRecords + rights;
+		if (n >= 1 << INDEX_BITS) {
+			throw new RuntimeException("Too many records: " + n);
+		}
+		// left records are at even offsets and right records at odd ones, so that no two records share a timestamp
+		final long rightHalfIntervalMs = (long) (this.leftIntervalMs / (2 * this.rightLeftRatio));
+		if (this.leftIntervalMs % 2 != 0 || rightHalfIntervalMs < 1) {
+			throw new RuntimeException("The left interval must be even and at least twice the right/left ratio");
+		}
+		final Random random = new Random(this.seed);
+		this.isLeft = new boolean[n];
+		this.keys = new int[n];
+		this.eventTimes = new long[n];
+		this.vals = new int[n];
+		this.order = new long[n];
+		for (int i = 0; i < n; ++i) {
+			final boolean left = i < this.leftRecords;
+			final long offset = left ? i * this.leftIntervalMs : 2 * (i - this.leftRecords) * rightHalfIntervalMs + 1;
+			this.isLeft[i] = left;
+			this.keys[i] = random.nextInt(this.keyCardinality);
+			this.eventTimes[i] = this.startMs + offset;
+			this.vals[i] = i;
+			long arrival = offset;
+			if (random.nextDouble() < this.outOfOrderFraction) {
+				final double lateness = -Math.log(1 - random.nextDouble()) * this.latenessMeanMs;
+				arrival += (long) Math.min(lateness, this.latenessMaxMs);
+			}
+			this.order[i] = (arrival << INDEX_BITS) | i;
+		}
+		Arrays.sort(this.order);
+		return this;
+	}
+
+	public void forEach(Consumer c) {
+		for (final long o : this.order) {
+			final int i = (int) (o & ((1 << INDEX_BITS) - 1));
+			c.accept(this.isLeft[i], this.keys[i], this.eventTimes[i], this.vals[i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"left.records=%d right.records=%d key.cardinality=%d out.of.order.fraction=%.3f lateness.mean.ms=%d lateness.max.ms=%d",
+				this.leftRecords, rightRecords(), this.keyCardinality, this.outOfOrderFraction, this.latenessMeanMs,
+				this.latenessMaxMs);
+	}
+}
@@ -0,0 +1,116 @@
+package io.ninety;
+
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class MultiJoinTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+	private static final String[] STREAMS = { "x", "y", "z" };
+
+	private final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+	private TopologyTestDriver driver;
+	private GenericAvroSerde serde;
+	private ConsumerRecordFactory<String, GenericRecord> factory;
+
+	@Override
+	protected void setUp() throws Exception {
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_STREAMS, String.join(",", STREAMS));
+		for (int i = 0; i < STREAMS.length; ++i) {
+			final String prefix = JoinerProperties.STREAM_PREFIX + STREAMS[i];
+			final String suffix = "_" + (i + 1);
+			props.put(prefix + JoinerProperties.STREAM_TOPIC, STREAMS[i]);
+			props.put(prefix + JoinerProperties.STREAM_WHERE_FIELD, "key2");
+			props.put(prefix + JoinerProperties.STREAM_TIMESTAMP_FIELD, "event_time");
+			props.put(prefix + JoinerProperties.STREAM_FIELDS,
+					"event_time as event_time" + suffix + ", key2 as key2" + suffix + ", val as val" + suffix);
+		}
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, Files.createTempDirectory("multi-join").toString());
+		this.driver = new TopologyTestDriver(JoinerTopology.create(props, this.schemaRegistry), driverProps, START_MS);
+		this.serde = new GenericAvroSerde(this.schemaRegistry);
+		this.serde.configure(props.toMap(), false);
+		this.factory = new ConsumerRecordFactory<>(new StringSerializer(), this.serde.serializer());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.driver.close();
+	}
+
+	public void testJoinsEachStreamToItsLatestPastRecord() throws Exception {
+		pipe("y", 1000, 20);
+		pipe("z", 2000, 30);
+		pipe("x", 3000, 10);
+		assertOutput(3000, 10, 20, 30);
+
+		// a later y record does not apply to the earlier x record, a late one does
+		pipe("y", 4000, 21);
+		assertNull(read());
+		pipe("z", 2500, 31);
+		assertOutput(3000, 10, 20, 31);
+	}
+
+	public void testWaitsForAllStreams() throws Exception {
+		pipe("x", 3000, 10);
+		pipe("y", 1000, 20);
+		assertNull(read());
+		pipe("z", 2000, 30);
+		assertOutput(3000, 10, 20, 30);
+	}
+
+	// the nearest past record is found however far back it is in the window, and not beyond it
+	public void testNearestPastRecordInWindow() throws Exception {
+		pipe("y", 100, 20);
+		pipe("y", 1100, 21);
+		pipe("y", 1108, 22);
+		pipe("z", 50, 30);
+		pipe("x", 3000, 10);
+		assertOutput(3000, 10, 22, 30);
+		pipe("x", 5100, 11);
+		assertNull(read());
+		pipe("z", 5100, 31);
+		assertOutput(5100, 11, 22, 31);
+	}
+
+	private void pipe(String topic, long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", "k2");
+		value.put("val", val);
+		this.driver.pipeInput(this.factory.create(topic, "rk", value, START_MS + offsetMs));
+	}
+
+	private ProducerRecord<String, GenericRecord> read() {
+		return this.driver.readOutput("xy", new StringDeserializer(), this.serde.deserializer());
+	}
+
+	private void assertOutput(long offsetMs, int... vals) {
+		final ProducerRecord<String, GenericRecord> out = read();
+		assertNotNull(out);
+		assertEquals((START_MS + offsetMs) + "_k2", out.key());
+		for (int i = 0; i < vals.length; ++i) {
+			assertEquals(vals[i], out.value().get("val_" + (i + 1)));
+		}
+		assertNull(read());
+	}
+}
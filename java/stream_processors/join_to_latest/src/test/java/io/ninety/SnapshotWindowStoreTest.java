@@ -0,0 +1,145 @@
+package io.ninety;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.processor.TaskId;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+
+import io.ninety.joiner.InMemoryWindowStore;
+import io.ninety.joiner.SnapshotWindowStore;
+import io.ninety.joiner.StoreSnapshots;
+import junit.framework.TestCase;
+
+public class SnapshotWindowStoreTest extends TestCase {
+
+	private static final String APP_ID = "snapshot-store-test";
+	private static final String CHANGELOG = APP_ID + "-s-changelog";
+
+	private File snapshotDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.snapshotDir = Files.createTempDirectory("snapshots").toFile();
+	}
+
+	// a new instance without local state loads the snapshot and restores the changelog from its offset
+	public void testRestoreFromSnapshot() throws Exception {
+		final File stateDir = Files.createTempDirectory("snapshot-store").toFile();
+		final WindowStore<Bytes, byte[]> store = open(stateDir);
+		put(store, "a", 10);
+		put(store, "b", 20);
+		checkpoint(stateDir, 5);
+		store.flush();
+		put(store, "c", 30);
+		store.close();
+
+		final File newStateDir = Files.createTempDirectory("snapshot-store").toFile();
+		StoreSnapshots.restore(newStateDir, APP_ID, this.snapshotDir);
+		assertEquals(CHANGELOG + " 0 5", checkpointEntry(newStateDir));
+		final WindowStore<Bytes, byte[]> restored = open(newStateDir);
+		assertEquals(Arrays.asList("a@10", "b@20"), windows(restored));
+		restored.close();
+	}
+
+	// a volatile store that was closed cleanly keeps its own snapshot, which matches the later checkpoint
+	public void testKeepLocalSnapshotOnClose() throws Exception {
+		final File stateDir = Files.createTempDirectory("snapshot-store").toFile();
+		final WindowStore<Bytes, byte[]> store = open(stateDir);
+		put(store, "a", 10);
+		checkpoint(stateDir, 5);
+		store.flush();
+		put(store, "b", 20);
+		store.close();
+		checkpoint(stateDir, 8);
+
+		StoreSnapshots.restore(stateDir, APP_ID, this.snapshotDir);
+		assertEquals(CHANGELOG + " 0 8", checkpointEntry(stateDir));
+		final WindowStore<Bytes, byte[]> restored = open(stateDir);
+		assertEquals(Arrays.asList("a@10", "b@20"), windows(restored));
+		restored.close();
+	}
+
+	// a truncated snapshot is skipped for an older one, and without any the changelog is restored from the start
+	public void testSkipBadSnapshot() throws Exception {
+		final File stateDir = Files.createTempDirectory("snapshot-store").toFile();
+		final WindowStore<Bytes, byte[]> store = open(stateDir);
+		put(store, "a", 10);
+		checkpoint(stateDir, 5);
+		store.flush();
+		put(store, "b", 20);
+		checkpoint(stateDir, 9);
+		store.flush();
+		store.close();
+
+		final File bad = new File(this.snapshotDir, APP_ID + "/0_0/s.9.snap");
+		try (final RandomAccessFile file = new RandomAccessFile(bad, "rw")) {
+			file.setLength(file.length() - 4);
+		}
+		final File newStateDir = Files.createTempDirectory("snapshot-store").toFile();
+		StoreSnapshots.restore(newStateDir, APP_ID, this.snapshotDir);
+		assertEquals(CHANGELOG + " 0 5", checkpointEntry(newStateDir));
+		final WindowStore<Bytes, byte[]> restored = open(newStateDir);
+		assertEquals(Arrays.asList("a@10"), windows(restored));
+		restored.close();
+
+		// as if the instance had crashed, so it has no snapshot of its own on close
+		new File(this.snapshotDir, APP_ID + "/0_0/s.5.snap").delete();
+		new File(taskDir(newStateDir), "snapshot/s.snap").delete();
+		StoreSnapshots.restore(newStateDir, APP_ID, this.snapshotDir);
+		assertNull(checkpointEntry(newStateDir));
+	}
+
+	private WindowStore<Bytes, byte[]> open(File stateDir) {
+		final Properties config = new Properties();
+		config.put(StreamsConfig.APPLICATION_ID_CONFIG, APP_ID);
+		config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+		final WindowStore<Bytes, byte[]> store = SnapshotWindowStore
+				.supplier(InMemoryWindowStore.supplier("s", 10000, 100), this.snapshotDir, 0).get();
+		store.init(new MockProcessorContext(config, new TaskId(0, 0), taskDir(stateDir)), store);
+		return store;
+	}
+
+	private static File taskDir(File stateDir) {
+		return new File(new File(stateDir, APP_ID), "0_0");
+	}
+
+	// as kafka streams checkpoints the changelog offset after a commit
+	private static void checkpoint(File stateDir, long offset) throws Exception {
+		Files.write(new File(taskDir(stateDir), ".checkpoint").toPath(),
+				("0\n1\n" + CHANGELOG + " 0 " + offset + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String checkpointEntry(File stateDir) throws Exception {
+		final List<String> lines = Files.readAllLines(new File(taskDir(stateDir), ".checkpoint").toPath());
+		return lines.size() > 2 ? lines.get(2) : null;
+	}
+
+	private static void put(WindowStore<Bytes, byte[]> store, String key, long time) {
+		store.put(Bytes.wrap(key.getBytes(StandardCharsets.UTF_8)), (key + time).getBytes(StandardCharsets.UTF_8),
+				time);
+	}
+
+	private static List<String> windows(WindowStore<Bytes, byte[]> store) {
+		final List<String> out = new ArrayList<>();
+		try (final KeyValueIterator<Windowed<Bytes>, byte[]> it = store.all()) {
+			while (it.hasNext()) {
+				final KeyValue<Windowed<Bytes>, byte[]> kv = it.next();
+				out.add(new String(kv.key.key().get(), StandardCharsets.UTF_8) + "@" + kv.key.window().start());
+			}
+		}
+		return out;
+	}
+}
@@ -0,0 +1,76 @@
+package io.ninety;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import io.ninety.joiner.JoinerProperties;
+import io.ninety.joiner.JoinerTopology;
+import junit.framework.TestCase;
+
+public class TieredJoinTest extends TestCase {
+
+	private static final long START_MS = 1552680000000L;
+
+	// the right records older than the hot duration are sealed into files, and the join reads them back from there
+	public void testJoinsSealedWindows() throws Exception {
+		final SchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+		final JoinerProperties props = JoinerHarness.defaultProperties();
+		props.put(JoinerProperties.JOIN_MODE, JoinerProperties.JOIN_MODE_ASOF);
+		props.put(JoinerProperties.STORE_BACKEND, JoinerProperties.STORE_BACKEND_TIERED);
+		props.put(JoinerProperties.STORE_TIERED_HOT_DURATION, "PT2S");
+		final File stateDir = Files.createTempDirectory("tiered-join").toFile();
+		final Properties driverProps = new Properties();
+		driverProps.putAll(props.innerProps());
+		driverProps.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+		final GenericAvroSerde serde = new GenericAvroSerde(schemaRegistry);
+		serde.configure(props.toMap(), false);
+		final ConsumerRecordFactory<String, GenericRecord> factory = new ConsumerRecordFactory<>(new StringSerializer(),
+				serde.serializer());
+		try (final TopologyTestDriver driver = new TopologyTestDriver(JoinerTopology.create(props, schemaRegistry),
+				driverProps, START_MS)) {
+			driver.pipeInput(factory.create("y", "rk1", record(1000, 20), START_MS + 1000));
+			driver.pipeInput(factory.create("y", "rk2", record(2000, 21), START_MS + 2000));
+			assertEquals(0, segments(stateDir));
+			driver.pipeInput(factory.create("y", "rk2", record(8000, 22), START_MS + 8000));
+			assertTrue(segments(stateDir) > 0);
+			driver.pipeInput(factory.create("x", "rk1", record(5000, 10), START_MS + 5000));
+			driver.pipeInput(factory.create("x", "rk2", record(6000, 11), START_MS + 6000));
+			final ProducerRecord<String, GenericRecord> rk1 = driver.readOutput("xy", new StringDeserializer(),
+					serde.deserializer());
+			assertEquals(20, rk1.value().get("val_2"));
+			final ProducerRecord<String, GenericRecord> rk2 = driver.readOutput("xy", new StringDeserializer(),
+					serde.deserializer());
+			assertEquals(21, rk2.value().get("val_2"));
+		}
+	}
+
+	private static long segments(File stateDir) throws Exception {
+		try (final Stream<Path> files = Files.walk(stateDir.toPath())) {
+			return files.filter(p -> p.toString().endsWith(".seg")).count();
+		}
+	}
+
+	private static GenericRecord record(long offsetMs, int val) throws Exception {
+		final GenericData.Record value = new GenericData.Record(JoinerHarness.valueSchema());
+		value.put("event_time", START_MS + offsetMs);
+		value.put("key1", "k1");
+		value.put("key2", "k2");
+		value.put("val", val);
+		return value;
+	}
+}
@@ -0,0 +1,211 @@
+package io.ninety;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.processor.TaskId;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+import io.ninety.joiner.TieredWindowStore;
+import junit.framework.TestCase;
+
+public class TieredWindowStoreTest extends TestCase {
+
+	private static final long RETENTION_MS = 10000;
+	private static final long HOT_MS = 100;
+
+	private File stateDir;
+	private WindowStore<Bytes, byte[]> store;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.stateDir = Files.createTempDirectory("tiered-store").toFile();
+		open();
+	}
+
+	private void open() {
+		final Properties config = new Properties();
+		config.put(StreamsConfig.APPLICATION_ID_CONFIG, "tiered-store-test");
+		config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+		this.store = TieredWindowStore.supplier("s", RETENTION_MS, 100, HOT_MS).get();
+		this.store.init(new MockProcessorContext(config, new TaskId(0, 0), this.stateDir), this.store);
+	}
+
+	@Override
+	protected void tearDown() {
+		this.store.close();
+	}
+
+	public void testFetchKeyInTimeOrder() {
+		put("a", 30);
+		put("a", 10);
+		put("b", 20);
+		put("a", 20);
+		assertEquals(Arrays.asList("a10", "a20"), values(this.store.fetch(key("a"), 10, 20)));
+		put("c", 1000); // seals the others
+		assertEquals(1, segments());
+		assertEquals(Arrays.asList("a10", "a20"), values(this.store.fetch(key("a"), 10, 20)));
+		assertEquals("b20", new String(this.store.fetch(key("b"), 20)));
+	}
+
+	public void testFetchRangeInTimeThenKeyOrder() {
+		put("c", 10);
+		put("b", 20);
+		put("a", 20);
+		put("b", 10);
+		put("a", 1000);
+		put("d", 950);
+		assertEquals(Arrays.asList("b@10", "c@10", "a@20", "b@20", "d@950", "a@1000"),
+				windows(this.store.fetchAll(0, 1000)));
+		assertEquals(Arrays.asList("b@10", "a@20", "b@20", "a@1000"),
+				windows(this.store.fetch(key("a"), key("b"), 0, 1000)));
+	}
+
+	// later writes to sealed windows take precedence over the files
+	public void testWriteAndDeleteSealedWindows() {
+		put("a", 10);
+		put("b", 10);
+		put("c", 1000);
+		this.store.put(key("a"), "a10v2".getBytes(), 10);
+		this.store.put(key("b"), null, 10);
+		assertEquals(Arrays.asList("a10v2"), values(this.store.fetch(key("a"), 0, 100)));
+		assertNull(this.store.fetch(key("b"), 10));
+		put("c", 2000); // seals the new window and the tombstone into a second file
+		assertEquals(2, segments());
+		assertEquals("a10v2", new String(this.store.fetch(key("a"), 10)));
+		assertEquals(Arrays.asList(), values(this.store.fetch(key("b"), 0, 100)));
+		assertEquals(Arrays.asList("a@10", "c@1000", "c@2000"), windows(this.store.all()));
+	}
+
+	public void testManyKeysInOneFile() {
+		for (int i = 0; i < 1000; ++i) {
+			put("k" + i, 10 + i % 7);
+		}
+		put("z", 1000);
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals("k" + i, Arrays.asList("k" + i + (10 + i % 7)), values(this.store.fetch(key("k" + i), 0, 100)));
+		}
+		assertEquals(Arrays.asList(), values(this.store.fetch(key("k"), 0, 100)));
+	}
+
+	public void testExpire() {
+		put("a", 10);
+		put("b", 1000);
+		assertEquals(1, segments());
+		put("b", 10 + RETENTION_MS); // expires the first file and seals b@1000 into a new one
+		assertEquals(1, segments());
+		assertNull(this.store.fetch(key("a"), 10));
+		put("a", 10); // expired, so dropped
+		assertEquals(Arrays.asList("b@1000", "b@10010"), windows(this.store.all()));
+	}
+
+	// the files and the heap windows in the log are kept, so a restart restores nothing but the changelog tail
+	public void testReopen() {
+		put("a", 10);
+		put("b", 20);
+		put("c", 1000); // seals the others
+		this.store.put(key("a"), null, 10);
+		put("d", 1001);
+		put("e", 1002);
+		this.store.put(key("e"), null, 1002);
+		this.store.close();
+		open();
+		assertEquals(1, segments());
+		assertNull(this.store.fetch(key("a"), 10));
+		assertEquals("b20", new String(this.store.fetch(key("b"), 20)));
+		assertEquals(Arrays.asList("b@20", "c@1000", "d@1001"), windows(this.store.all()));
+		put("f", 2000); // seals into a new file after the kept one
+		assertEquals(2, segments());
+		this.store.close();
+		open();
+		assertEquals(Arrays.asList("b@20", "c@1000", "d@1001", "f@2000"), windows(this.store.all()));
+	}
+
+	// a window that was only partly written to the log before a crash is dropped
+	public void testTornLog() throws Exception {
+		put("a", 10);
+		put("b", 20);
+		this.store.close();
+		try (final FileOutputStream out = new FileOutputStream(new File(new File(this.stateDir, "s"), "s.log"), true)) {
+			out.write(new byte[] { 0, 0, 0, 1, 'c', 0, 0 });
+		}
+		open();
+		assertEquals(Arrays.asList("a@10", "b@20"), windows(this.store.all()));
+		put("c", 30);
+		this.store.close();
+		open();
+		assertEquals(Arrays.asList("a@10", "b@20", "c@30"), windows(this.store.all()));
+	}
+
+	// a range is merged lazily from the time indexes of the files and the heap
+	public void testRangeAcrossFiles() {
+		for (int i = 0; i < 200; ++i) {
+			put("k" + (i % 10), 10 + i);
+		}
+		put("z", 1000);
+		this.store.put(key("k3"), "new".getBytes(), 13);
+		this.store.put(key("k4"), null, 14);
+		put("y", 2000);
+		assertTrue(segments() > 1);
+		final List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 200; ++i) {
+			if (i != 4 && i % 10 >= 2 && i % 10 <= 5) {
+				expected.add("k" + (i % 10) + "@" + (10 + i));
+			}
+		}
+		assertEquals(expected, windows(this.store.fetch(key("k2"), key("k5"), 0, 2000)));
+		final KeyValueIterator<Windowed<Bytes>, byte[]> it = this.store.fetchAll(13, 13);
+		assertEquals("new", new String(it.next().value));
+		assertFalse(it.hasNext());
+	}
+
+	private int segments() {
+		return new File(this.stateDir, "s").listFiles((d, name) -> name.endsWith(".seg")).length;
+	}
+
+	private void put(String key, long ts) {
+		this.store.put(key(key), (key + ts).getBytes(), ts);
+	}
+
+	private static Bytes key(String key) {
+		return Bytes.wrap(key.getBytes());
+	}
+
+	private static List<String> values(WindowStoreIterator<byte[]> it) {
+		final List<String> values = new ArrayList<>();
+		try {
+			while (it.hasNext()) {
+				final KeyValue<Long, byte[]> kv = it.next();
+				values.add(new String(kv.value));
+			}
+		} finally {
+			it.close();
+		}
+		return values;
+	}
+
+	private static List<String> windows(KeyValueIterator<Windowed<Bytes>, byte[]> it) {
+		final List<String> windows = new ArrayList<>();
+		try {
+			while (it.hasNext()) {
+				final Windowed<Bytes> w = it.next().key;
+				windows.add(new String(w.key().get()) + "@" + w.window().start());
+			}
+		} finally {
+			it.close();
+		}
+		return windows;
+	}
+}
@@ -0,0 +1,108 @@
+package io.ninety.kafka.udaf;
+
+import java.util.List;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+
+/**
+ * Keeps the last N values by event time, whatever order the values arrive or are merged in.
+ *
+ * <p>KSQL UDAFs take a single argument, so the argument is a three element array of the event time, the value and N,
+ * e.g. {@code LAST_N_BY_TIME(ARRAY[event_time, val, 10])}, and N is taken from the first value of each aggregate.
+ * The result is the series in its compact serialized form, which is read with {@code SERIES_TIMES},
+ * {@code SERIES_VALUES} and {@code SERIES_DOUBLE_VALUES}. Values without an event time, and null values, are ignored.
+ *
+ * <p>Each record decodes, updates and encodes the whole series of its aggregate, so it costs O(N) time and allocation,
+ * and N is capped at 1000: a larger N is taken as 1000, so only the latest 1000 values are returned. It suits short
+ * series, e.g. the last minute of samples at 1s.
+ */
+@UdafDescription(
+    name = "last_n_by_time",
+    description = "Return the series of the last N values by event time from ARRAY[event_time, value, n].")
+public final class LastNByTimeUdaf {
+
+  private static final int TIME = 0;
+  private static final int VALUE = 1;
+  private static final int CAPACITY = 2;
+
+  private LastNByTimeUdaf() {
+    // just to make the checkstyle happy
+  }
+
+  @UdafFactory(description = "get the series of the last N Bigint values from ARRAY[event_time, value, n]")
+  public static Udaf<List<Long>, String> createLastNByTimeLong() {
+    return new Udaf<List<Long>, String>() {
+
+      @Override
+      public String initialize() {
+        return null;
+      }
+
+      @Override
+      public String aggregate(final List<Long> thisValue, final String aggregate) {
+        if (!isValid(thisValue)) {
+          return aggregate;
+        }
+        final TimeSeries series = aggregate == null
+            ? new TimeSeries(TimeSeries.LONG, capacity(thisValue.get(CAPACITY)))
+            : TimeSeries.decode(aggregate);
+        series.add(thisValue.get(TIME), thisValue.get(VALUE));
+        return series.encode();
+      }
+
+      @Override
+      public String merge(final String aggOne, final String aggTwo) {
+        return mergeSeries(aggOne, aggTwo);
+      }
+    };
+  }
+
+  @UdafFactory(description = "get the series of the last N Double values from ARRAY[event_time, value, n]")
+  public static Udaf<List<Double>, String> createLastNByTimeDouble() {
+    return new Udaf<List<Double>, String>() {
+
+      @Override
+      public String initialize() {
+        return null;
+      }
+
+      @Override
+      public String aggregate(final List<Double> thisValue, final String aggregate) {
+        if (!isValid(thisValue)) {
+          return aggregate;
+        }
+        final TimeSeries series = aggregate == null
+            ? new TimeSeries(TimeSeries.DOUBLE, capacity(thisValue.get(CAPACITY)))
+            : TimeSeries.decode(aggregate);
+        series.add(thisValue.get(TIME).longValue(), Double.doubleToLongBits(thisValue.get(VALUE)));
+        return series.encode();
+      }
+
+      @Override
+      public String merge(final String aggOne, final String aggTwo) {
+        return mergeSeries(aggOne, aggTwo);
+      }
+    };
+  }
+
+  private static boolean isValid(final List<? extends Number> value) {
+    return value != null && value.size() == 3 && value.get(TIME) != null && value.get(VALUE) != null
+        && value.get(CAPACITY) != null;
+  }
+
+  private static int capacity(final Number n) {
+    return (int) Math.max(1, Math.min(TimeSeries.MAX_CAPACITY, n.longValue()));
+  }
+
+  private static String mergeSeries(final String aggOne, final String aggTwo) {
+    if (aggOne == null) {
+      return aggTwo;
+    }
+    if (aggTwo == null) {
+      return aggOne;
+    }
+    return TimeSeries.decode(aggOne).merge(TimeSeries.decode(aggTwo)).encode();
+  }
+}
@@ -0,0 +1,132 @@
+package io.ninety.kafka.udaf;
+
+import java.util.List;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+
+/**
+ * Returns the value with the greatest event time, whatever order the values arrive or are merged in.
+ *
+ * <p>KSQL UDAFs take a single argument and return their aggregate, so the argument and the result are both a
+ * two element array of the event time and the value, e.g.
+ * {@code LATEST_BY_TIME(ARRAY[event_time, val])[1]}. Use a BIGINT value for INT and BOOLEAN columns, a DOUBLE
+ * event time for DOUBLE values and a STRING event time for STRING values, which must be a whole number of ms. Values
+ * without an event time, or with a STRING event time that is not a number, are ignored. A value with the same event
+ * time as the aggregate replaces it, as a later arrival does in the joiner, and merge keeps the second aggregate.
+ */
+@UdafDescription(
+    name = "latest_by_time",
+    description = "Return the [event_time, value] array with the greatest event time.")
+public final class LatestByTimeUdaf {
+
+  private static final int TIME = 0;
+
+  private LatestByTimeUdaf() {
+    // just to make the checkstyle happy
+  }
+
+  @UdafFactory(description = "get the Bigint value with the greatest event time from ARRAY[event_time, value]")
+  public static Udaf<List<Long>, List<Long>> createLatestByTimeLong() {
+    return new Udaf<List<Long>, List<Long>>() {
+
+      @Override
+      public List<Long> initialize() {
+        return null;
+      }
+
+      @Override
+      public List<Long> aggregate(final List<Long> thisValue, final List<Long> aggregate) {
+        if (!isValid(thisValue)) {
+          return aggregate;
+        }
+        return aggregate == null || thisValue.get(TIME) >= aggregate.get(TIME) ? thisValue : aggregate;
+      }
+
+      @Override
+      public List<Long> merge(final List<Long> aggOne, final List<Long> aggTwo) {
+        if (aggOne == null) {
+          return aggTwo;
+        }
+        return aggTwo == null || aggOne.get(TIME) > aggTwo.get(TIME) ? aggOne : aggTwo;
+      }
+    };
+  }
+
+  @UdafFactory(description = "get the Double value with the greatest event time from ARRAY[event_time, value]")
+  public static Udaf<List<Double>, List<Double>> createLatestByTimeDouble() {
+    return new Udaf<List<Double>, List<Double>>() {
+
+      @Override
+      public List<Double> initialize() {
+        return null;
+      }
+
+      @Override
+      public List<Double> aggregate(final List<Double> thisValue, final List<Double> aggregate) {
+        if (!isValid(thisValue)) {
+          return aggregate;
+        }
+        return aggregate == null || thisValue.get(TIME) >= aggregate.get(TIME) ? thisValue : aggregate;
+      }
+
+      @Override
+      public List<Double> merge(final List<Double> aggOne, final List<Double> aggTwo) {
+        if (aggOne == null) {
+          return aggTwo;
+        }
+        return aggTwo == null || aggOne.get(TIME) > aggTwo.get(TIME) ? aggOne : aggTwo;
+      }
+    };
+  }
+
+  @UdafFactory(description = "get the String value with the greatest event time from ARRAY[event_time, value]")
+  public static Udaf<List<String>, List<String>> createLatestByTimeString() {
+    return new Udaf<List<String>, List<String>>() {
+
+      @Override
+      public List<String> initialize() {
+        return null;
+      }
+
+      @Override
+      public List<String> aggregate(final List<String> thisValue, final List<String> aggregate) {
+        if (!isValidString(thisValue)) {
+          return aggregate;
+        }
+        return aggregate == null || time(thisValue) >= time(aggregate) ? thisValue : aggregate;
+      }
+
+      @Override
+      public List<String> merge(final List<String> aggOne, final List<String> aggTwo) {
+        if (aggOne == null) {
+          return aggTwo;
+        }
+        return aggTwo == null || time(aggOne) > time(aggTwo) ? aggOne : aggTwo;
+      }
+    };
+  }
+
+  // values without an event time are ignored
+  private static boolean isValid(final List<?> value) {
+    return value != null && value.size() == 2 && value.get(TIME) != null;
+  }
+
+  // the aggregates only hold values whose event time parses, so merge can compare them
+  private static boolean isValidString(final List<String> value) {
+    if (!isValid(value)) {
+      return false;
+    }
+    try {
+      time(value);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static long time(final List<String> value) {
+    return Long.parseLong(value.get(TIME));
+  }
+}
@@ -0,0 +1,49 @@
+package io.ninety.kafka.udaf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.confluent.ksql.function.udf.Udf;
+import io.confluent.ksql.function.udf.UdfDescription;
+
+/**
+ * Reads the values of a Double series aggregated by {@code LAST_N_BY_TIME}, either as they are, up to a time, or
+ * filled forward onto regular times, like the InfluxQL {@code fill(previous)}.
+ */
+@UdfDescription(
+    name = "series_double_values",
+    description = "Return the values of a Double LAST_N_BY_TIME series.")
+public final class SeriesDoubleValuesUdf {
+
+  @Udf(description = "get the values of the series, in event time order")
+  public List<Double> seriesDoubleValues(final String series) {
+    if (series == null) {
+      return null;
+    }
+    final TimeSeries s = TimeSeries.decode(series);
+    return s.doubleValues(s.size());
+  }
+
+  @Udf(description = "get the values of the series at or before the given time, in event time order")
+  public List<Double> seriesDoubleValues(final String series, final Long time) {
+    if (series == null || time == null) {
+      return null;
+    }
+    final TimeSeries s = TimeSeries.decode(series);
+    return s.doubleValues(s.upperBound(time));
+  }
+
+  @Udf(description = "get the latest value at or before each of the count times from start, step apart, or null")
+  public List<Double> seriesDoubleValues(final String series, final Long start, final Long step, final Integer count) {
+    if (series == null || start == null || step == null || count == null) {
+      return null;
+    }
+    final TimeSeries s = TimeSeries.decode(series);
+    final List<Double> values = s.doubleValues(s.size());
+    final List<Double> out = new ArrayList<>(count);
+    for (final int i : s.fill(start, step, count)) {
+      out.add(i < 0 ? null : values.get(i));
+    }
+    return out;
+  }
+}
@@ -0,0 +1,33 @@
+package io.ninety.kafka.udaf;
+
+import java.util.List;
+
+import io.confluent.ksql.function.udf.Udf;
+import io.confluent.ksql.function.udf.UdfDescription;
+
+/**
+ * Reads the event times of a series aggregated by {@code LAST_N_BY_TIME}.
+ */
+@UdfDescription(
+    name = "series_times",
+    description = "Return the event times of a LAST_N_BY_TIME series.")
+public final class SeriesTimesUdf {
+
+  @Udf(description = "get the event times of the series, in order")
+  public List<Long> seriesTimes(final String series) {
+    if (series == null) {
+      return null;
+    }
+    final TimeSeries s = TimeSeries.decode(series);
+    return s.times(s.size());
+  }
+
+  @Udf(description = "get the event times of the series at or before the given time, in order")
+  public List<Long> seriesTimes(final String series, final Long time) {
+    if (series == null || time == null) {
+      return null;
+    }
+    final TimeSeries s = TimeSeries.decode(series);
+    return s.times(s.upperBound(time));
+  }
+}
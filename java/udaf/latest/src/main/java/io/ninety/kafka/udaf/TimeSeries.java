@@ -0,0 +1,259 @@
+package io.ninety.kafka.udaf;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The last N points of a series, ordered by event time, in a ring buffer of primitive arrays.
+ *
+ * <p>Double values are kept as their raw long bits. The serialized form is a Base64 string of the type, the capacity,
+ * the varint deltas of the times and the values, which are varints for BIGINT series and 8 bytes for DOUBLE series.
+ * KSQL keeps aggregates in their serialized form, so each update decodes and encodes the whole series, which is
+ * O(capacity) time and allocation per record. The capacity is capped for that reason, and series of a larger capacity
+ * are decoded with their latest points only.
+ */
+final class TimeSeries {
+
+  static final byte LONG = 'L';
+  static final byte DOUBLE = 'D';
+  static final int MAX_CAPACITY = 1000;
+  static final int MAX_FILL = 100000; // the times that a series can be filled onto, which are not aggregated
+
+  private final byte type;
+  private final long[] times;
+  private final long[] values;
+  private int head; // the index of the oldest point
+  private int size;
+
+  TimeSeries(final byte type, final int capacity) {
+    if (capacity < 1 || capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("Bad series capacity: " + capacity);
+    }
+    this.type = type;
+    this.times = new long[capacity];
+    this.values = new long[capacity];
+  }
+
+  int capacity() {
+    return times.length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long time(final int i) {
+    return times[slot(i)];
+  }
+
+  long value(final int i) {
+    return values[slot(i)];
+  }
+
+  // the index of the first point with a time greater than the given time
+  int upperBound(final long time) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (time(mid) <= time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // inserts the point after those with the same or an earlier time, dropping the oldest point when full
+  void add(final long time, final long value) {
+    final int pos = upperBound(time);
+    if (size == times.length) {
+      if (pos == 0) {
+        return; // older than every point we keep
+      }
+      head = slot(1);
+      --size;
+      insert(pos - 1, time, value);
+    } else {
+      insert(pos, time, value);
+    }
+  }
+
+  // a new series of the last points of both, where the points of this come first for equal times
+  TimeSeries merge(final TimeSeries other) {
+    if (type != other.type) {
+      throw new IllegalArgumentException("Bad series type: " + (char) other.type);
+    }
+    final TimeSeries merged = new TimeSeries(type, Math.max(capacity(), other.capacity()));
+    final int n = Math.min(merged.capacity(), size + other.size);
+    // walk back from the latest points of both, filling the merged arrays from the end
+    int i = size - 1;
+    int j = other.size - 1;
+    for (int k = n - 1; k >= 0; --k) {
+      if (j < 0 || (i >= 0 && time(i) > other.time(j))) {
+        merged.times[k] = time(i);
+        merged.values[k] = value(i--);
+      } else {
+        merged.times[k] = other.time(j);
+        merged.values[k] = other.value(j--);
+      }
+    }
+    merged.size = n;
+    return merged;
+  }
+
+  // the times of the first points
+  List<Long> times(final int to) {
+    final List<Long> out = new ArrayList<>(to);
+    for (int i = 0; i < to; ++i) {
+      out.add(time(i));
+    }
+    return out;
+  }
+
+  // the values of the first points of a BIGINT series
+  List<Long> longValues(final int to) {
+    checkType(LONG);
+    final List<Long> out = new ArrayList<>(to);
+    for (int i = 0; i < to; ++i) {
+      out.add(value(i));
+    }
+    return out;
+  }
+
+  // the values of the first points of a DOUBLE series
+  List<Double> doubleValues(final int to) {
+    checkType(DOUBLE);
+    final List<Double> out = new ArrayList<>(to);
+    for (int i = 0; i < to; ++i) {
+      out.add(Double.longBitsToDouble(value(i)));
+    }
+    return out;
+  }
+
+  // the index of the latest point at or before each of the times start + i * step, or -1 if there is none
+  int[] fill(final long start, final long step, final int count) {
+    if (step <= 0 || count < 0 || count > MAX_FILL) {
+      throw new IllegalArgumentException("Bad series fill: step " + step + ", count " + count);
+    }
+    final int[] out = new int[count];
+    int i = upperBound(start);
+    for (int k = 0; k < count; ++k) {
+      final long t = start + k * step;
+      while (i < size && time(i) <= t) {
+        ++i;
+      }
+      out[k] = i - 1;
+    }
+    return out;
+  }
+
+  String encode() {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(10 + size * (type == LONG ? 4 : 10));
+    out.write(type);
+    writeVarint(out, capacity());
+    writeVarint(out, size);
+    long prev = 0;
+    for (int i = 0; i < size; ++i) {
+      writeVarint(out, time(i) - prev);
+      prev = time(i);
+    }
+    for (int i = 0; i < size; ++i) {
+      if (type == LONG) {
+        writeVarint(out, value(i));
+      } else {
+        final long bits = value(i);
+        for (int b = 56; b >= 0; b -= 8) {
+          out.write((int) (bits >>> b));
+        }
+      }
+    }
+    return Base64.getEncoder().encodeToString(out.toByteArray());
+  }
+
+  static TimeSeries decode(final String encoded) {
+    final ByteBuffer in = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+    final byte type = in.get();
+    if (type != LONG && type != DOUBLE) {
+      throw new IllegalArgumentException("Bad series type: " + (char) type);
+    }
+    final long capacity = readVarint(in);
+    final int size = (int) readVarint(in);
+    if (size < 0 || size > capacity) {
+      throw new IllegalArgumentException("Bad series size: " + size);
+    }
+    final TimeSeries series = new TimeSeries(type, (int) Math.min(capacity, MAX_CAPACITY));
+    final int skip = Math.max(0, size - series.capacity()); // the oldest points, past the capacity
+    long time = 0;
+    for (int i = 0; i < size; ++i) {
+      time += readVarint(in);
+      if (i >= skip) {
+        series.times[i - skip] = time;
+      }
+    }
+    for (int i = 0; i < size; ++i) {
+      final long value = type == LONG ? readVarint(in) : in.getLong();
+      if (i >= skip) {
+        series.values[i - skip] = value;
+      }
+    }
+    series.size = size - skip;
+    return series;
+  }
+
+  private void checkType(final byte expected) {
+    if (type != expected) {
+      throw new IllegalArgumentException("Bad series type: " + (char) type);
+    }
+  }
+
+  private int slot(final int i) {
+    final int s = head + i;
+    return s < times.length ? s : s - times.length;
+  }
+
+  // shifts the shorter side of the ring by one to open a slot at the position
+  private void insert(final int pos, final long time, final long value) {
+    if (pos < size - pos) {
+      head = slot(times.length - 1);
+      for (int i = 0; i < pos; ++i) {
+        times[slot(i)] = times[slot(i + 1)];
+        values[slot(i)] = values[slot(i + 1)];
+      }
+    } else {
+      for (int i = size; i > pos; --i) {
+        times[slot(i)] = times[slot(i - 1)];
+        values[slot(i)] = values[slot(i - 1)];
+      }
+    }
+    times[slot(pos)] = time;
+    values[slot(pos)] = value;
+    ++size;
+  }
+
+  // a zig-zag varint, so that small negative deltas and values stay small
+  private static void writeVarint(final ByteArrayOutputStream out, final long value) {
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0) {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+
+  private static long readVarint(final ByteBuffer in) {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = in.get();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new IllegalArgumentException("Bad series varint");
+  }
+}
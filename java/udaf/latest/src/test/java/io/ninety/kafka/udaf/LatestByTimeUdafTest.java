@@ -0,0 +1,50 @@
+package io.ninety.kafka.udaf;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import junit.framework.TestCase;
+
+public class LatestByTimeUdafTest extends TestCase {
+
+  // the value with the greatest event time is kept, whatever the order, and an equal time replaces the aggregate
+  public void testAggregate() {
+    final Udaf<List<Long>, List<Long>> udaf = LatestByTimeUdaf.createLatestByTimeLong();
+    List<Long> agg = udaf.initialize();
+    agg = udaf.aggregate(Arrays.asList(2000L, 20L), agg);
+    agg = udaf.aggregate(Arrays.asList(1000L, 10L), agg);
+    assertEquals(Arrays.asList(2000L, 20L), agg);
+    agg = udaf.aggregate(Arrays.asList(2000L, 21L), agg);
+    assertEquals(Arrays.asList(2000L, 21L), agg);
+    agg = udaf.aggregate(Arrays.asList(null, 30L), agg);
+    agg = udaf.aggregate(null, agg);
+    assertEquals(Arrays.asList(2000L, 21L), agg);
+  }
+
+  // the later aggregate wins, and the second for equal times
+  public void testMerge() {
+    final Udaf<List<Double>, List<Double>> udaf = LatestByTimeUdaf.createLatestByTimeDouble();
+    final List<Double> one = Arrays.asList(2000.0, 1.5);
+    final List<Double> two = Arrays.asList(1000.0, 2.5);
+    assertEquals(one, udaf.merge(one, two));
+    assertEquals(one, udaf.merge(two, one));
+    assertEquals(two, udaf.merge(null, two));
+    assertEquals(one, udaf.merge(one, null));
+    final List<Double> tie = Arrays.asList(2000.0, 3.5);
+    assertEquals(tie, udaf.merge(one, tie));
+  }
+
+  // a string event time that is not a number is ignored rather than failing the query
+  public void testStringTimes() {
+    final Udaf<List<String>, List<String>> udaf = LatestByTimeUdaf.createLatestByTimeString();
+    List<String> agg = udaf.initialize();
+    agg = udaf.aggregate(Arrays.asList("not a time", "a"), agg);
+    assertNull(agg);
+    agg = udaf.aggregate(Arrays.asList("2000", "b"), agg);
+    agg = udaf.aggregate(Arrays.asList("2019-03-15T00:00:00Z", "c"), agg);
+    agg = udaf.aggregate(Arrays.asList("1000", "d"), agg);
+    assertEquals(Arrays.asList("2000", "b"), agg);
+    assertEquals(Arrays.asList("3000", "e"), udaf.merge(agg, Arrays.asList("3000", "e")));
+  }
+}
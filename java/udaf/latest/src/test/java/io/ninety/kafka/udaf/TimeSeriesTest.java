@@ -0,0 +1,157 @@
+package io.ninety.kafka.udaf;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimeSeriesTest extends TestCase {
+
+  // points are kept in time order, after those with the same time, and the oldest is dropped when full
+  public void testAddEvictsOldest() {
+    final TimeSeries series = new TimeSeries(TimeSeries.LONG, 3);
+    series.add(1, 10);
+    series.add(3, 30);
+    series.add(2, 20);
+    assertPoints(series, new long[] { 1, 2, 3 }, new long[] { 10, 20, 30 });
+    series.add(4, 40);
+    assertPoints(series, new long[] { 2, 3, 4 }, new long[] { 20, 30, 40 });
+    series.add(0, 0);
+    assertPoints(series, new long[] { 2, 3, 4 }, new long[] { 20, 30, 40 });
+    series.add(2, 21);
+    assertPoints(series, new long[] { 2, 3, 4 }, new long[] { 21, 30, 40 });
+  }
+
+  // the ring matches a sorted list, whichever side of the ring each insert shifts
+  public void testAddAgainstList() {
+    final Random random = new Random(42);
+    final TimeSeries series = new TimeSeries(TimeSeries.LONG, 7);
+    final List<long[]> expected = new ArrayList<>();
+    for (int n = 0; n < 1000; ++n) {
+      final long time = random.nextInt(50) + n / 10;
+      series.add(time, n);
+      int pos = 0;
+      while (pos < expected.size() && expected.get(pos)[0] <= time) {
+        ++pos;
+      }
+      expected.add(pos, new long[] { time, n });
+      if (expected.size() > series.capacity()) {
+        expected.remove(0);
+      }
+      assertEquals(expected.size(), series.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i)[0], series.time(i));
+        assertEquals(expected.get(i)[1], series.value(i));
+      }
+    }
+  }
+
+  // the points of the first series come first for equal times, and only the latest points are kept
+  public void testMergeTieOrder() {
+    final TimeSeries one = new TimeSeries(TimeSeries.LONG, 3);
+    one.add(1, 11);
+    one.add(2, 12);
+    final TimeSeries two = new TimeSeries(TimeSeries.LONG, 2);
+    two.add(2, 22);
+    two.add(3, 23);
+    assertPoints(one.merge(two), new long[] { 2, 2, 3 }, new long[] { 12, 22, 23 });
+    assertPoints(two.merge(one), new long[] { 2, 2, 3 }, new long[] { 22, 12, 23 });
+    try {
+      one.merge(new TimeSeries(TimeSeries.DOUBLE, 2));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("type"));
+    }
+  }
+
+  // the zig-zag varints keep negative and extreme times and values
+  public void testEncodeRoundTrip() {
+    final long[] times = { Long.MIN_VALUE + 1, -5, 0, 1, Long.MAX_VALUE };
+    final long[] values = { Long.MIN_VALUE, -1, 0, 300, Long.MAX_VALUE };
+    final TimeSeries series = new TimeSeries(TimeSeries.LONG, 5);
+    for (int i = 0; i < times.length; ++i) {
+      series.add(times[i], values[i]);
+    }
+    final TimeSeries decoded = TimeSeries.decode(series.encode());
+    assertEquals(5, decoded.capacity());
+    assertPoints(decoded, times, values);
+
+    final TimeSeries doubles = new TimeSeries(TimeSeries.DOUBLE, 4);
+    doubles.add(1, Double.doubleToLongBits(-0.0));
+    doubles.add(2, Double.doubleToLongBits(Double.NaN));
+    doubles.add(3, Double.doubleToLongBits(1.5));
+    assertEquals(Arrays.asList(-0.0, Double.NaN, 1.5), TimeSeries.decode(doubles.encode()).doubleValues(3));
+  }
+
+  // a series encoded with a capacity over the cap keeps its latest points
+  public void testDecodeOverCapacity() {
+    final int size = TimeSeries.MAX_CAPACITY + 5;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(TimeSeries.LONG);
+    writeVarint(out, size);
+    writeVarint(out, size);
+    for (int i = 0; i < size; ++i) {
+      writeVarint(out, 1);
+    }
+    for (int i = 0; i < size; ++i) {
+      writeVarint(out, i);
+    }
+    final TimeSeries series = TimeSeries.decode(Base64.getEncoder().encodeToString(out.toByteArray()));
+    assertEquals(TimeSeries.MAX_CAPACITY, series.capacity());
+    assertEquals(TimeSeries.MAX_CAPACITY, series.size());
+    assertEquals(6, series.time(0));
+    assertEquals(5, series.value(0));
+    assertEquals(size, series.time(series.size() - 1));
+  }
+
+  public void testUpperBound() {
+    final TimeSeries series = new TimeSeries(TimeSeries.LONG, 4);
+    assertEquals(0, series.upperBound(0));
+    for (final long time : new long[] { 1, 2, 2, 4 }) {
+      series.add(time, time);
+    }
+    assertEquals(0, series.upperBound(0));
+    assertEquals(1, series.upperBound(1));
+    assertEquals(3, series.upperBound(2));
+    assertEquals(3, series.upperBound(3));
+    assertEquals(4, series.upperBound(4));
+    assertEquals(4, series.upperBound(5));
+  }
+
+  // each time gets the latest point at or before it, or -1 before the first point
+  public void testFill() {
+    final TimeSeries series = new TimeSeries(TimeSeries.LONG, 3);
+    series.add(10, 1);
+    series.add(20, 2);
+    series.add(30, 3);
+    assertTrue(Arrays.equals(new int[] { -1, 0, 0, 1, 1, 2, 2 }, series.fill(5, 5, 7)));
+    assertTrue(Arrays.equals(new int[] { 2, 2 }, series.fill(40, 100, 2)));
+    try {
+      series.fill(0, 0, 1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("step"));
+    }
+  }
+
+  private static void assertPoints(TimeSeries series, long[] times, long[] values) {
+    assertEquals(times.length, series.size());
+    for (int i = 0; i < times.length; ++i) {
+      assertEquals("time " + i, times[i], series.time(i));
+      assertEquals("value " + i, values[i], series.value(i));
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, long value) {
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0) {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+}